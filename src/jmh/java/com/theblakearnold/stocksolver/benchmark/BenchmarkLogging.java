@@ -0,0 +1,23 @@
+package com.theblakearnold.stocksolver.benchmark;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging setup shared by the benchmarks.
+ */
+final class BenchmarkLogging {
+
+  // Held so the level is not lost when the logger is garbage collected.
+  private static final Logger ROOT = Logger.getLogger("com.theblakearnold.stocksolver");
+
+  private BenchmarkLogging() {
+  }
+
+  /**
+   * Turns off the solver's per probe logging, which would otherwise dominate the measurements.
+   */
+  static void quiet() {
+    ROOT.setLevel(Level.WARNING);
+  }
+}
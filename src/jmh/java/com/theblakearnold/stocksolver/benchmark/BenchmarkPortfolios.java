@@ -0,0 +1,51 @@
+package com.theblakearnold.stocksolver.benchmark;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+
+import com.theblakearnold.stocksolver.storage.GeneratedStockSolverStorage;
+import com.theblakearnold.stocksolver.storage.StaticStockSolverStorage;
+import com.theblakearnold.stocksolver.storage.StockSolverStorage;
+
+import java.util.List;
+
+/**
+ * Portfolios the benchmarks run against, named by the {@code portfolio} parameter.
+ *
+ * <p>{@code static} is {@link StaticStockSolverStorage}. A name like {@code 50x200x30} is a
+ * {@link GeneratedStockSolverStorage} with 50 accounts, 200 funds and 30 categories.
+ */
+final class BenchmarkPortfolios {
+
+  private static final long SEED = 42;
+  private static final int CATEGORIES_PER_GROUP = 4;
+  private static final int HOLDINGS_PER_ACCOUNT = 8;
+
+  private BenchmarkPortfolios() {
+  }
+
+  static StockSolverStorage forName(String portfolio) {
+    if (portfolio.equals("static")) {
+      return new StaticStockSolverStorage();
+    }
+    return generated(portfolio);
+  }
+
+  static GeneratedStockSolverStorage generated(String portfolio) {
+    List<String> sizes = Splitter.on('x').splitToList(portfolio);
+    Preconditions.checkArgument(sizes.size() == 3, "Expected accountsxfundsxcategories: %s",
+        portfolio);
+    int accounts = Integer.parseInt(sizes.get(0));
+    int funds = Integer.parseInt(sizes.get(1));
+    int categories = Integer.parseInt(sizes.get(2));
+    return GeneratedStockSolverStorage.newBuilder()
+        .setAccounts(accounts)
+        .setFunds(funds)
+        .setCategories(categories)
+        .setCategoryGroups((categories + CATEGORIES_PER_GROUP - 1) / CATEGORIES_PER_GROUP)
+        .setHoldingsPerAccount(Math.min(funds,
+            Math.max(HOLDINGS_PER_ACCOUNT, (categories + accounts - 1) / accounts)))
+        .setSeed(SEED)
+        .build();
+  }
+}
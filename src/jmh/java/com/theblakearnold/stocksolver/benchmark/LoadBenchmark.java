@@ -0,0 +1,79 @@
+package com.theblakearnold.stocksolver.benchmark;
+
+import com.theblakearnold.stocksolver.storage.XlsStockSolverStorage;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a workbook with {@link XlsStockSolverStorage#load} and
+ * {@link XlsStockSolverStorage#loadStreaming}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+
+  /**
+   * {@code template} is the checked in solverTemplate.xlsx, anything else a generated portfolio
+   * written out as a workbook, see {@link BenchmarkPortfolios}.
+   */
+  @Param({"template", "4x20x12", "50x200x30", "500x500x60"})
+  public String portfolio;
+
+  private File workbook;
+  private boolean generated;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    BenchmarkLogging.quiet();
+    generated = !portfolio.equals("template");
+    if (generated) {
+      workbook = File.createTempFile("benchmark-" + portfolio, ".xlsx");
+      BenchmarkPortfolios.generated(portfolio).writeWorkbook(workbook);
+    } else {
+      workbook = new File("solverTemplate.xlsx");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (generated) {
+      workbook.delete();
+    }
+  }
+
+  @Benchmark
+  public XlsStockSolverStorage load() throws IOException, InvalidFormatException {
+    XlsStockSolverStorage storage = new XlsStockSolverStorage(workbook.getPath());
+    storage.load();
+    return storage;
+  }
+
+  @Benchmark
+  public XlsStockSolverStorage loadStreaming() throws IOException, OpenXML4JException {
+    XlsStockSolverStorage storage = new XlsStockSolverStorage(workbook.getPath());
+    storage.loadStreaming();
+    return storage;
+  }
+}
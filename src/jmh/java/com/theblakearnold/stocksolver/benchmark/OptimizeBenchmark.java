@@ -0,0 +1,68 @@
+package com.theblakearnold.stocksolver.benchmark;
+
+import com.theblakearnold.stocksolver.OptimizationOptions;
+import com.theblakearnold.stocksolver.StockSolver;
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.lp.SolverBackends;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole search through {@link StockSolver#optimizeWiggleRoomAdvanced}, for each LP backend and
+ * search strategy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OptimizeBenchmark {
+
+  @Param({"static", "4x20x12", "50x200x30"})
+  public String portfolio;
+
+  /**
+   * A {@link SolverBackends#forName} name.
+   */
+  @Param({"simplex", "clp"})
+  public String backend;
+
+  @Param({"RANDOM_PERMUTATIONS", "LEXICOGRAPHIC", "MINIMUM_AVERAGE"})
+  public OptimizationOptions.SearchStrategy searchStrategy;
+
+  private SolverBackend solverBackend;
+  private StockSolver stockSolver;
+  private OptimizationOptions options;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    BenchmarkLogging.quiet();
+    solverBackend = SolverBackends.forName(backend);
+    stockSolver = new StockSolver(BenchmarkPortfolios.forName(portfolio));
+    options = OptimizationOptions.newBuilder()
+        .setSeed(1)
+        .setPermutations(4)
+        .setOverallWiggleMode(OptimizationOptions.OverallWiggleMode.MINIMAX)
+        .setSearchStrategy(searchStrategy)
+        .build();
+  }
+
+  @Benchmark
+  public void optimize() {
+    stockSolver.optimizeWiggleRoomAdvanced(solverBackend, options);
+  }
+}
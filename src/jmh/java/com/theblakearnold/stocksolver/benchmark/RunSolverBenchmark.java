@@ -0,0 +1,88 @@
+package com.theblakearnold.stocksolver.benchmark;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import com.theblakearnold.stocksolver.StockSolver;
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.lp.SolverBackends;
+import com.theblakearnold.stocksolver.model.AccountModel;
+import com.theblakearnold.stocksolver.model.CategoryGroupModel;
+import com.theblakearnold.stocksolver.model.CategoryModel;
+import com.theblakearnold.stocksolver.storage.StockSolverStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single probes through {@link StockSolver#runSolver}, for each LP backend. Probes after the
+ * first reuse the compiled model, as they do in a search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RunSolverBenchmark {
+
+  /**
+   * Wiggle percents the probes cycle through, like the first steps of a bisection.
+   */
+  private static final double[] PROBE_WIGGLES = {50, 25, 12.5, 6.25, 3.125, 1.5625, 0.78125};
+
+  @Param({"static", "4x20x12", "50x200x30"})
+  public String portfolio;
+
+  /**
+   * A {@link SolverBackends#forName} name.
+   */
+  @Param({"simplex", "clp", "race:clp,glop,simplex"})
+  public String backend;
+
+  private SolverBackend solverBackend;
+  private StockSolver stockSolver;
+  private List<Map<String, Double>> probes;
+  private int nextProbe;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    BenchmarkLogging.quiet();
+    solverBackend = SolverBackends.forName(backend);
+    StockSolverStorage storage = BenchmarkPortfolios.forName(portfolio);
+    stockSolver = new StockSolver(storage);
+    ImmutableList.Builder<Map<String, Double>> probes = ImmutableList.builder();
+    for (double wiggle : PROBE_WIGGLES) {
+      ImmutableMap.Builder<String, Double> probe = ImmutableMap.builder();
+      for (CategoryGroupModel group : storage.getCategoryGroups()) {
+        for (CategoryModel category : group.categories()) {
+          probe.put(category.name(), wiggle);
+        }
+      }
+      probes.add(probe.build());
+    }
+    this.probes = probes.build();
+  }
+
+  @Benchmark
+  public Optional<List<AccountModel>> runSolver() {
+    Map<String, Double> probe = probes.get(nextProbe);
+    nextProbe = (nextProbe + 1) % probes.size();
+    return stockSolver.runSolver(solverBackend, probe, false);
+  }
+}
@@ -0,0 +1,50 @@
+package com.theblakearnold.stocksolver.benchmark;
+
+import com.theblakearnold.stocksolver.InputValidator;
+import com.theblakearnold.stocksolver.storage.StockSolverStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link InputValidator#validate} on an in memory portfolio.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ValidateBenchmark {
+
+  @Param({"static", "4x20x12", "50x200x30", "500x500x60"})
+  public String portfolio;
+
+  private StockSolverStorage storage;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    BenchmarkLogging.quiet();
+    storage = BenchmarkPortfolios.forName(portfolio);
+  }
+
+  @Benchmark
+  public InputValidator validate() {
+    // A new validator each time, validate() keeps state between calls.
+    InputValidator validator = new InputValidator(storage);
+    validator.validate();
+    return validator;
+  }
+}
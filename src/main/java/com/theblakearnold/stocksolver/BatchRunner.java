@@ -0,0 +1,264 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
+import com.theblakearnold.stocksolver.storage.XlsStockSolverStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Rebalances many households at once, one workbook each, in a single JVM.
+ *
+ * <p>The input is a directory, whose {@code .xlsx} files are each a household, or a manifest
+ * file listing one workbook path per line. Blank lines and lines starting with {@code #} are
+ * skipped, and relative paths are resolved against the manifest's directory. Households are
+ * loaded and solved on a work stealing pool with {@code threads} workers; each optimization runs
+ * on a single thread so households don't compete for cores.
+ *
+ * <p>Each household is checked by {@link InputValidator}, then writes {@code <name>.json} to the
+ * output directory, in the format {@link StockSolverServer} responds with, or
+ * {@code <name>.error.json} if it failed validation or solving. A failure doesn't stop the other
+ * households. {@code summary.json} records the counts, households per second and the p50 and p99
+ * solve latency, and {@code metrics.json} the {@link SolverMetrics}.
+ *
+ * <p>A household's name is its workbook's file name, so workbooks whose names differ only in
+ * case are rejected before anything is solved.
+ *
+ * <p>Given a {@link WarmStartStore}, each household starts from its last run, keyed by its name,
+ * and saves this run for the next.
+ */
+public class BatchRunner {
+
+  private final static Logger log = Logger.getLogger(BatchRunner.class.getName());
+
+  static final String SUMMARY_FILE_NAME = "summary.json";
+  static final String METRICS_FILE_NAME = "metrics.json";
+
+  private final SolverBackend backend;
+  private final OptimizationOptions options;
+  private final int threads;
+  @Nullable private final WarmStartStore warmStartStore;
+
+  /**
+   * @param options the optimization settings, whose thread count is replaced by 1
+   */
+  public BatchRunner(SolverBackend backend, OptimizationOptions options, int threads) {
+    this(backend, options, threads, null);
+  }
+
+  /**
+   * @param options the optimization settings, whose thread count is replaced by 1
+   * @param warmStartStore where households start from and save their runs, or null to always
+   *     start cold
+   */
+  public BatchRunner(SolverBackend backend, OptimizationOptions options, int threads,
+      @Nullable WarmStartStore warmStartStore) {
+    this.backend = backend;
+    this.options = options.toBuilder().setThreads(1).build();
+    this.threads = threads;
+    this.warmStartStore = warmStartStore;
+  }
+
+  /**
+   * Solves every household in {@code input} and writes the results to {@code outputDirectory}.
+   *
+   * @return the number of households that failed
+   * @throws IllegalArgumentException if two workbooks have the same household name
+   */
+  public int run(File input, File outputDirectory) throws IOException, InterruptedException {
+    List<File> workbooks = workbooks(input);
+    checkUniqueNames(workbooks);
+    if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+      throw new IOException("Can't create output directory " + outputDirectory);
+    }
+    log.info(String.format("Solving %s households on %s threads", workbooks.size(), threads));
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    long start = System.nanoTime();
+    List<HouseholdResult> results = new ArrayList<>();
+    try {
+      List<Future<HouseholdResult>> futures = new ArrayList<>();
+      for (File workbook : workbooks) {
+        futures.add(pool.submit(new Household(workbook, outputDirectory)));
+      }
+      for (Future<HouseholdResult> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          // Household catches its own failures, so this is a bug, but only in one household.
+          log.log(Level.SEVERE, "Household escaped its own error handling", e.getCause());
+          results.add(new HouseholdResult(false, 0));
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    String summary = summary(results, elapsedNanos);
+    Files.write(summary, new File(outputDirectory, SUMMARY_FILE_NAME), Charsets.UTF_8);
+    log.info("Batch summary: " + summary);
+    Files.write(SolverMetrics.get().toJson(), new File(outputDirectory, METRICS_FILE_NAME),
+        Charsets.UTF_8);
+    int failures = 0;
+    for (HouseholdResult result : results) {
+      if (!result.succeeded) {
+        failures++;
+      }
+    }
+    return failures;
+  }
+
+  /**
+   * Returns the workbooks in a directory, sorted by name, or listed in a manifest.
+   */
+  static List<File> workbooks(File input) throws IOException {
+    if (input.isDirectory()) {
+      File[] files = input.listFiles();
+      List<File> workbooks = new ArrayList<>();
+      for (File file : files == null ? new File[0] : files) {
+        // Skip the lock files spreadsheet programs leave next to open workbooks.
+        String name = file.getName();
+        if (file.isFile() && name.endsWith(".xlsx") && !name.startsWith("~$")) {
+          workbooks.add(file);
+        }
+      }
+      Collections.sort(workbooks);
+      return workbooks;
+    }
+    ImmutableList.Builder<File> workbooks = ImmutableList.builder();
+    for (String line : Files.readLines(input, Charsets.UTF_8)) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      File workbook = new File(line);
+      workbooks.add(workbook.isAbsolute()
+          ? workbook : new File(input.getAbsoluteFile().getParentFile(), line));
+    }
+    return workbooks.build();
+  }
+
+  /**
+   * @throws IllegalArgumentException if two workbooks' household names differ only in case,
+   *     since their results and warm starts would overwrite each other
+   */
+  static void checkUniqueNames(List<File> workbooks) {
+    Map<String, File> workbooksByName = new HashMap<>();
+    for (File workbook : workbooks) {
+      File previous =
+          workbooksByName.put(householdName(workbook).toLowerCase(Locale.ROOT), workbook);
+      if (previous != null) {
+        throw new IllegalArgumentException(String.format(
+            "Workbooks %s and %s have the same household name", previous, workbook));
+      }
+    }
+  }
+
+  private static String householdName(File workbook) {
+    String name = workbook.getName();
+    return name.endsWith(".xlsx") ? name.substring(0, name.length() - ".xlsx".length()) : name;
+  }
+
+  private static String summary(List<HouseholdResult> results, long elapsedNanos) {
+    List<Long> solveNanos = new ArrayList<>();
+    int succeeded = 0;
+    for (HouseholdResult result : results) {
+      if (result.succeeded) {
+        succeeded++;
+        solveNanos.add(result.solveNanos);
+      }
+    }
+    Collections.sort(solveNanos);
+    double seconds = elapsedNanos / 1e9;
+    return String.format("{\"households\": %s, \"succeeded\": %s, \"failed\": %s,"
+        + " \"seconds\": %s, \"householdsPerSecond\": %s, \"p50SolveMillis\": %s,"
+        + " \"p99SolveMillis\": %s}",
+        results.size(), succeeded, results.size() - succeeded, seconds,
+        results.isEmpty() ? 0 : results.size() / seconds,
+        percentileMillis(solveNanos, 50), percentileMillis(solveNanos, 99));
+  }
+
+  /**
+   * Returns the nearest rank percentile of the sorted durations, in milliseconds.
+   */
+  private static double percentileMillis(List<Long> sortedNanos, int percentile) {
+    if (sortedNanos.isEmpty()) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percentile / 100.0 * sortedNanos.size());
+    return sortedNanos.get(Math.max(rank, 1) - 1) / 1e6;
+  }
+
+  private static class HouseholdResult {
+    private final boolean succeeded;
+    private final long solveNanos;
+
+    HouseholdResult(boolean succeeded, long solveNanos) {
+      this.succeeded = succeeded;
+      this.solveNanos = solveNanos;
+    }
+  }
+
+  /**
+   * Loads, solves and writes the result of one household, turning any failure into an error
+   * file.
+   */
+  private class Household implements Callable<HouseholdResult> {
+    private final File workbook;
+    private final File outputDirectory;
+
+    Household(File workbook, File outputDirectory) {
+      this.workbook = workbook;
+      this.outputDirectory = outputDirectory;
+    }
+
+    @Override
+    public HouseholdResult call() {
+      String name = householdName(workbook);
+      try {
+        XlsStockSolverStorage storage = new XlsStockSolverStorage(workbook.getPath());
+        storage.load();
+        StockSolver stockSolver = new StockSolver(storage);
+        new InputValidator(storage, stockSolver).validate();
+        long start = System.nanoTime();
+        OptimizationResult result = warmStartStore == null
+            ? stockSolver.optimizeWiggleRoomAdvanced(backend, options)
+            : stockSolver.optimizeWiggleRoomAdvanced(backend, options, warmStartStore, name);
+        long solveNanos = System.nanoTime() - start;
+        Files.write(Json.toJson(result), new File(outputDirectory, name + ".json"),
+            Charsets.UTF_8);
+        log.info(String.format("%s solved in %s ms", name,
+            TimeUnit.NANOSECONDS.toMillis(solveNanos)));
+        return new HouseholdResult(true, solveNanos);
+      } catch (Throwable e) {
+        log.log(Level.WARNING, "Household " + name + " failed", e);
+        File errorFile = new File(outputDirectory, name + ".error.json");
+        try {
+          Files.write(Json.error(String.valueOf(e)), errorFile, Charsets.UTF_8);
+        } catch (IOException writeFailure) {
+          log.log(Level.WARNING, "Failed to write " + errorFile, writeFailure);
+        }
+        return new HouseholdResult(false, 0);
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.theblakearnold.stocksolver;
+
+/**
+ * The cash of each category in each account for one value of every holding of a
+ * {@link PortfolioIndex}, worked out in a single pass over the holdings.
+ *
+ * <p>Category by account values are kept in one category major array, so a category's accounts
+ * are adjacent. Account, category and portfolio totals are summed in the same pass, and the drift
+ * of a category is its value less its target. The category report, the input validator and the
+ * holding diff all read from here.
+ *
+ * <p>{@link #setHoldingValue} moves one holding, touching only its account and the categories
+ * of its stock, which is what lets {@link IncrementalValidator} re-check a single edit.
+ */
+final class CategoryExposures {
+
+  private final PortfolioIndex index;
+  private final double[] holdingValues;
+  private final double[] accountValues;
+  private final double[] categoryValues;
+  private final double[] categoryAccountValues;
+  private double totalValue;
+
+  private CategoryExposures(PortfolioIndex index, double[] holdingValues, double[] accountValues,
+      double[] categoryValues, double[] categoryAccountValues, double totalValue) {
+    this.index = index;
+    this.totalValue = totalValue;
+    this.holdingValues = holdingValues;
+    this.accountValues = accountValues;
+    this.categoryValues = categoryValues;
+    this.categoryAccountValues = categoryAccountValues;
+  }
+
+  /**
+   * @param holdingValues the value of every holding, indexed by holding id, copied
+   */
+  static CategoryExposures of(PortfolioIndex index, double[] holdingValues) {
+    int accountCount = index.accountCount();
+    double[] accountValues = new double[accountCount];
+    double[] categoryValues = new double[index.categoryCount()];
+    double[] categoryAccountValues = new double[index.categoryCount() * accountCount];
+    holdingValues = holdingValues.clone();
+    double totalValue = 0;
+    for (int h = 0; h < holdingValues.length; h++) {
+      int account = index.holdingAccount(h);
+      int stock = index.holdingStock(h);
+      double value = holdingValues[h];
+      accountValues[account] += value;
+      totalValue += value;
+      for (int i = index.stockExposureStart(stock); i < index.stockExposureStart(stock + 1);
+          i++) {
+        int category = index.stockExposureCategory(i);
+        double categoryValue = value * index.stockExposureFraction(i);
+        categoryValues[category] += categoryValue;
+        categoryAccountValues[category * accountCount + account] += categoryValue;
+      }
+    }
+    return new CategoryExposures(index, holdingValues, accountValues, categoryValues,
+        categoryAccountValues, totalValue);
+  }
+
+  /**
+   * Changes the value of one holding, updating the totals of its account and of the categories
+   * its stock is in.
+   */
+  void setHoldingValue(int holding, double value) {
+    double change = value - holdingValues[holding];
+    holdingValues[holding] = value;
+    int account = index.holdingAccount(holding);
+    int stock = index.holdingStock(holding);
+    accountValues[account] += change;
+    totalValue += change;
+    for (int i = index.stockExposureStart(stock); i < index.stockExposureStart(stock + 1); i++) {
+      int category = index.stockExposureCategory(i);
+      double categoryChange = change * index.stockExposureFraction(i);
+      categoryValues[category] += categoryChange;
+      categoryAccountValues[category * accountValues.length + account] += categoryChange;
+    }
+  }
+
+  PortfolioIndex index() {
+    return index;
+  }
+
+  double holdingValue(int holding) {
+    return holdingValues[holding];
+  }
+
+  /**
+   * The sum of the account's holdings.
+   */
+  double accountValue(int account) {
+    return accountValues[account];
+  }
+
+  /**
+   * The sum of every holding.
+   */
+  double totalValue() {
+    return totalValue;
+  }
+
+  double categoryValue(int category) {
+    return categoryValues[category];
+  }
+
+  /**
+   * The category's share of the portfolio, as {@link PortfolioIndex#categoryTarget}.
+   */
+  double categoryTarget(int category) {
+    return index.categoryTarget(category);
+  }
+
+  /**
+   * The category value less its target, positive when over.
+   */
+  double drift(int category) {
+    return categoryValues[category] - index.categoryTarget(category);
+  }
+
+  /**
+   * The cash of the category held in the account.
+   */
+  double value(int category, int account) {
+    return categoryAccountValues[category * accountValues.length + account];
+  }
+}
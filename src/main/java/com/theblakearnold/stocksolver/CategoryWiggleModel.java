@@ -0,0 +1,134 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.common.base.Optional;
+
+import com.theblakearnold.stocksolver.lp.LinearSolver;
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
+
+import java.util.logging.Logger;
+
+/**
+ * Allocation linear program with a wiggle variable per category.
+ *
+ * <p>Each category gets the band of {@link WiggleModel}, against its own wiggle:
+ * <pre>
+ *   sum(stock * percent_in_category) - categoryTarget / 100 * wiggle_c <= categoryTarget
+ *   sum(stock * percent_in_category) + categoryTarget / 100 * wiggle_c >= categoryTarget
+ * </pre>
+ * Minimizing the sum of the wiggles finds, in a single solve, the category wiggles with the
+ * lowest average, which the random category orders of the permutation search only approach.
+ * Minimizing a single wiggle with the others held finds where the category's band stops being
+ * feasible exactly, instead of bisecting for it.
+ *
+ * <p>Categories are referred to by their {@link PortfolioIndex} id. Instances own a solver and
+ * are not thread safe.
+ */
+class CategoryWiggleModel {
+
+  private final static Logger log = Logger.getLogger(CategoryWiggleModel.class.getName());
+
+  private final PortfolioIndex index;
+  private final LinearSolver solver;
+  private final int[] wiggles;
+  private final boolean infeasible;
+
+  private CategoryWiggleModel(PortfolioIndex index, LinearSolver solver, int[] wiggles,
+      boolean infeasible) {
+    this.index = index;
+    this.solver = solver;
+    this.wiggles = wiggles;
+    this.infeasible = infeasible;
+  }
+
+  static CategoryWiggleModel compile(PortfolioIndex index, SolverBackend backend) {
+    return compile(index, backend, true);
+  }
+
+  /**
+   * @param presolve whether to reduce the holding columns, see {@link PresolvedHoldings}
+   */
+  static CategoryWiggleModel compile(PortfolioIndex index, SolverBackend backend,
+      boolean presolve) {
+    long start = System.nanoTime();
+    LinearSolver solver = backend.createSolver("CategoryWiggleModel");
+    double infinity = Double.POSITIVE_INFINITY;
+    PresolvedHoldings holdings = PresolvedHoldings.of(index, presolve);
+    holdings.addVariables(solver);
+
+    int[] wiggles = new int[index.categoryCount()];
+    for (int category = 0; category < index.categoryCount(); category++) {
+      wiggles[category] = solver.addVariable(0, 100, "_wiggle_" + category);
+      double categoryTarget = index.categoryTarget(category);
+      double free = categoryTarget - holdings.categoryOffset(category);
+      int upperConstraint = solver.addConstraint(-infinity, free);
+      holdings.setCategoryCoefficients(solver, upperConstraint, category);
+      solver.setCoefficient(upperConstraint, wiggles[category], -categoryTarget / 100);
+      int lowerConstraint = solver.addConstraint(free, infinity);
+      holdings.setCategoryCoefficients(solver, lowerConstraint, category);
+      solver.setCoefficient(lowerConstraint, wiggles[category], categoryTarget / 100);
+    }
+
+    log.fine("Number of variables = " + solver.numVariables());
+    log.fine("Number of constraints = " + solver.numConstraints());
+    SolverMetrics.get().recordNanos(SolverMetrics.COMPILE_WIGGLE, System.nanoTime() - start);
+    return new CategoryWiggleModel(index, solver, wiggles, holdings.isInfeasible());
+  }
+
+  /**
+   * Finds the category wiggles, each at most {@code maxWiggle}, with the smallest sum.
+   *
+   * @return the wiggle percent of each category, indexed by category id, or absent if no
+   *     wiggles up to {@code maxWiggle} are feasible
+   */
+  Optional<double[]> minimizeTotalWiggle(double maxWiggle) {
+    if (infeasible) {
+      return Optional.absent();
+    }
+    for (int category = 0; category < wiggles.length; category++) {
+      solver.setVariableBounds(wiggles[category], 0, maxWiggle);
+      solver.setObjectiveCoefficient(wiggles[category], 1);
+    }
+
+    LinearSolver.ResultStatus resultStatus =
+        CompiledModel.solve(solver, SolverMetrics.SOLVE_WIGGLE);
+    log.fine(resultStatus.toString() + " Solution found");
+    if (resultStatus != LinearSolver.ResultStatus.OPTIMAL) {
+      return Optional.absent();
+    }
+    log.fine("Problem solved in " + solver.wallTime() + " milliseconds");
+    log.fine("Problem solved in " + solver.iterations() + " iterations");
+    double[] categoryWiggles = new double[wiggles.length];
+    for (int category = 0; category < wiggles.length; category++) {
+      categoryWiggles[category] = Math.min(maxWiggle,
+          solver.value(wiggles[category]) + WiggleModel.WIGGLE_TOLERANCE);
+    }
+    return Optional.of(categoryWiggles);
+  }
+
+  /**
+   * Finds the smallest wiggle of the category with every other category held within its wiggle
+   * in {@code categoryWiggles}, indexed by category id.
+   *
+   * @return the wiggle percent, or absent if no wiggle up to 100 percent is feasible
+   */
+  Optional<Double> minimizeCategoryWiggle(int category, double[] categoryWiggles) {
+    if (infeasible) {
+      return Optional.absent();
+    }
+    for (int other = 0; other < wiggles.length; other++) {
+      solver.setVariableBounds(wiggles[other], 0,
+          other == category ? 100 : categoryWiggles[other]);
+      solver.setObjectiveCoefficient(wiggles[other], other == category ? 1 : 0);
+    }
+
+    LinearSolver.ResultStatus resultStatus =
+        CompiledModel.solve(solver, SolverMetrics.SOLVE_WIGGLE);
+    log.fine(resultStatus.toString() + " Solution found");
+    if (resultStatus != LinearSolver.ResultStatus.OPTIMAL) {
+      return Optional.absent();
+    }
+    return Optional.of(
+        Math.min(100, solver.value(wiggles[category]) + WiggleModel.WIGGLE_TOLERANCE));
+  }
+}
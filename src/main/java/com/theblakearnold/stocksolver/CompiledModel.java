@@ -0,0 +1,197 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.common.base.Optional;
+
+import com.theblakearnold.stocksolver.lp.LinearSolver;
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.lp.SolverFailedException;
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
+import com.theblakearnold.stocksolver.model.AccountModel;
+import com.theblakearnold.stocksolver.storage.StockSolverStorage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * The allocation linear program for one snapshot of a {@link StockSolverStorage}.
+ *
+ * <p>Variables, account constraints, category coefficients and the expense ratio objective are
+ * built once by {@link #compile}. Each call to {@link #solve} only moves the category constraint
+ * bounds to the requested wiggle room and re-solves the same {@link LinearSolver}, so backends
+ * that keep their basis start each probe from the last one.
+ *
+ * <p>The variables are the columns of {@link PresolvedHoldings}, not one per holding, and
+ * categories with no column get no constraint; their fixed cash is checked against the band
+ * without a solve.
+ *
+ * <p>Instances own a solver and are not thread safe.
+ */
+class CompiledModel {
+
+  private final static Logger log = Logger.getLogger(CompiledModel.class.getName());
+
+  private final PortfolioIndex index;
+  private final SolverBackend backend;
+  private final boolean presolve;
+  private final PresolvedHoldings holdings;
+  private final LinearSolver solver;
+  private final int[] categoryConstraints;
+
+  private CompiledModel(PortfolioIndex index, SolverBackend backend, boolean presolve,
+      PresolvedHoldings holdings, LinearSolver solver, int[] categoryConstraints) {
+    this.index = index;
+    this.backend = backend;
+    this.presolve = presolve;
+    this.holdings = holdings;
+    this.solver = solver;
+    this.categoryConstraints = categoryConstraints;
+  }
+
+  /**
+   * Builds the model for the indexed portfolio.
+   */
+  static CompiledModel compile(PortfolioIndex index, SolverBackend backend) {
+    return compile(index, backend, true);
+  }
+
+  /**
+   * Builds the model for the indexed portfolio.
+   *
+   * @param presolve whether to reduce the holding columns, see {@link PresolvedHoldings}
+   */
+  static CompiledModel compile(PortfolioIndex index, SolverBackend backend, boolean presolve) {
+    long start = System.nanoTime();
+    LinearSolver solver = backend.createSolver("IntegerProgrammingExample");
+    double infinity = Double.POSITIVE_INFINITY;
+    PresolvedHoldings holdings = PresolvedHoldings.of(index, presolve);
+    holdings.addVariables(solver);
+
+    // Add one constraint per category with a column, -1 for the rest. The bounds start open and
+    // are set by each solve to the requested wiggle room around the category target.
+    int[] categoryConstraints = new int[index.categoryCount()];
+    for (int category = 0; category < index.categoryCount(); category++) {
+      if (!holdings.hasColumns(category)) {
+        categoryConstraints[category] = -1;
+        continue;
+      }
+      categoryConstraints[category] = solver.addConstraint(-infinity, infinity);
+      // categoryTarget - wiggleRoomCategoryCash <= stock_1 *
+      // percent_in_category + stock_2 + percent_in_category + ... <=
+      // categoryTarget + wiggleRoomCategoryGroupCash
+      holdings.setCategoryCoefficients(solver, categoryConstraints[category], category);
+    }
+
+    // Add objective that ensure minimum expense ratio
+    holdings.setExpenseObjective(solver);
+
+    log.fine("Number of variables = " + solver.numVariables());
+    log.fine("Number of constraints = " + solver.numConstraints());
+    SolverMetrics.get().recordNanos(SolverMetrics.COMPILE_ALLOCATION, System.nanoTime() - start);
+    return new CompiledModel(index, backend, presolve, holdings, solver, categoryConstraints);
+  }
+
+  /**
+   * Returns true if this model was compiled from the data {@code storage} currently holds, for
+   * the given backend and presolve setting.
+   */
+  boolean isCompiledFrom(StockSolverStorage storage, SolverBackend backend, boolean presolve) {
+    return this.backend.equals(backend) && this.presolve == presolve
+        && index.isIndexOf(storage);
+  }
+
+  PortfolioIndex index() {
+    return index;
+  }
+
+  /**
+   * Solves the model with each category held within its wiggle percent of its target.
+   *
+   * @return the new holdings, or absent if no optimal solution exists for the wiggle room
+   */
+  Optional<List<AccountModel>> solve(Map<String, Double> categoryWiggleRoom, boolean debugOn) {
+    double[] wiggles = new double[index.categoryCount()];
+    for (int category = 0; category < wiggles.length; category++) {
+      wiggles[category] = categoryWiggleRoom.get(index.categoryName(category));
+    }
+    return solve(wiggles, debugOn);
+  }
+
+  /**
+   * Solves the model with each category held within its wiggle percent of its target, indexed
+   * by category id.
+   */
+  Optional<List<AccountModel>> solve(double[] categoryWiggleRoom, boolean debugOn) {
+    if (holdings.isInfeasible()) {
+      return Optional.absent();
+    }
+    for (int category = 0; category < categoryConstraints.length; category++) {
+      double categoryTarget = index.categoryTarget(category);
+      double wiggleRoomCategoryCash = categoryWiggleRoom[category] / 100.0 * categoryTarget;
+      double lb = categoryTarget - wiggleRoomCategoryCash - holdings.categoryOffset(category);
+      double ub = categoryTarget + wiggleRoomCategoryCash - holdings.categoryOffset(category);
+      if (categoryConstraints[category] < 0) {
+        // Nothing left to solve for, the fixed cash is in the band or not.
+        double tolerance = PresolvedHoldings.TOLERANCE * categoryTarget;
+        if (lb > tolerance || ub < -tolerance) {
+          return Optional.absent();
+        }
+        continue;
+      }
+      solver.setConstraintBounds(categoryConstraints[category], lb, ub);
+      log.fine(String.format("Constraint #%s lb: %s, ub: %s", index.categoryName(category),
+          lb, ub));
+    }
+    if (holdings.columnCount() == 0) {
+      return Optional.of(index.buildAccounts(holdings.holdingValues(solver)));
+    }
+
+    LinearSolver.ResultStatus resultStatus = solve(solver, SolverMetrics.SOLVE_ALLOCATION);
+    log.fine(resultStatus.toString() + " Solution found");
+
+    // Check that the problem has an optimal solution.
+    if (resultStatus != LinearSolver.ResultStatus.OPTIMAL) {
+      return Optional.absent();
+    }
+    log.fine("Problem solved in " + solver.wallTime() + " milliseconds");
+    log.fine("Problem solved in " + solver.iterations() + " iterations");
+
+    if (debugOn) {
+      // The objective value of the solution.
+      log.info("Yearly Fees = " + (solver.objectiveValue() + holdings.fixedExpense())/100);
+    }
+
+    // Build account Models for new holdings
+    return Optional.of(index.buildAccounts(holdings.holdingValues(solver)));
+  }
+
+  /**
+   * Solves, recording the time under {@code timer} and the iterations and outcome in
+   * {@link SolverMetrics}.
+   *
+   * @return {@link LinearSolver.ResultStatus#OPTIMAL} or
+   *     {@link LinearSolver.ResultStatus#INFEASIBLE}
+   * @throws SolverFailedException if the solver returned anything else. Every model here has a
+   *     bounded objective, so an unbounded or unfinished solve is a solver failure, not an
+   *     answer.
+   */
+  static LinearSolver.ResultStatus solve(LinearSolver solver, String timer) {
+    long start = System.nanoTime();
+    LinearSolver.ResultStatus resultStatus = solver.solve();
+    SolverMetrics metrics = SolverMetrics.get();
+    metrics.recordNanos(timer, System.nanoTime() - start);
+    metrics.add(SolverMetrics.ITERATIONS, solver.iterations());
+    switch (resultStatus) {
+      case OPTIMAL:
+        metrics.increment(SolverMetrics.FEASIBLE);
+        return resultStatus;
+      case INFEASIBLE:
+        metrics.increment(SolverMetrics.INFEASIBLE);
+        return resultStatus;
+      default:
+        metrics.increment(SolverMetrics.FAILED);
+        throw new SolverFailedException(String.format("Solve ended %s after %s iterations",
+            resultStatus, solver.iterations()));
+    }
+  }
+}
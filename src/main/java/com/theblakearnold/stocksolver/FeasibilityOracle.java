@@ -0,0 +1,136 @@
+package com.theblakearnold.stocksolver;
+
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers whether a vector of category wiggles is feasible, solving only when the answer does
+ * not follow from earlier solves.
+ *
+ * <p>Feasibility is monotone in the wiggles: loosening any category keeps a feasible vector
+ * feasible, and tightening any category keeps an infeasible vector infeasible. The oracle keeps
+ * the minimal feasible vectors and the maximal infeasible vectors seen so far. A query that is
+ * componentwise at least a feasible vector, or at most an infeasible one, is answered without a
+ * solve. Before either, {@link ReachableBounds} rejects vectors with a category band that no
+ * allocation of the holdings can reach.
+ *
+ * <p>The frontiers are shared and safe to use from several threads. Each caller solves with its
+ * own {@link CompiledModel}, outside the lock.
+ */
+class FeasibilityOracle {
+
+  private final PortfolioIndex index;
+  private final ReachableBounds bounds;
+  private final SearchProgress progress;
+  private final List<double[]> feasible = new ArrayList<>();
+  private final List<double[]> infeasible = new ArrayList<>();
+  private int queries;
+  private int hits;
+  private int screened;
+
+  /**
+   * @param progress the run to count solves against
+   */
+  FeasibilityOracle(PortfolioIndex index, SearchProgress progress) {
+    this.index = index;
+    this.bounds = ReachableBounds.of(index);
+    this.progress = progress;
+  }
+
+  /**
+   * Returns true if every category can be held within its wiggle percent, keyed by category
+   * name.
+   *
+   * @param phase the {@link SolverMetrics} phase to count the probe under
+   */
+  boolean isFeasible(CompiledModel model, Map<String, Double> categoryWiggleRoom, String phase) {
+    double[] wiggles = new double[index.categoryCount()];
+    for (int category = 0; category < wiggles.length; category++) {
+      wiggles[category] = categoryWiggleRoom.get(index.categoryName(category));
+    }
+    return isFeasible(model, wiggles, phase);
+  }
+
+  /**
+   * Returns true if every category can be held within its wiggle percent, indexed by category
+   * id.
+   */
+  boolean isFeasible(CompiledModel model, double[] wiggles, String phase) {
+    SolverMetrics.get().increment(phase + SolverMetrics.PROBES);
+    synchronized (this) {
+      queries++;
+      if (bounds.rejects(wiggles)) {
+        screened++;
+        SolverMetrics.get().increment(phase + SolverMetrics.SCREENED);
+        return false;
+      }
+      for (double[] point : feasible) {
+        if (dominates(wiggles, point)) {
+          hits++;
+          return true;
+        }
+      }
+      for (double[] point : infeasible) {
+        if (dominates(point, wiggles)) {
+          hits++;
+          return false;
+        }
+      }
+    }
+    SolverMetrics.get().increment(phase + SolverMetrics.SOLVES);
+    progress.countSolve();
+    boolean result = model.solve(wiggles, false).isPresent();
+    synchronized (this) {
+      if (result) {
+        addToFrontier(feasible, wiggles, false);
+      } else {
+        addToFrontier(infeasible, wiggles, true);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds {@code wiggles} to the frontier, dropping the points it covers. A feasible point covers
+   * every larger point, an infeasible one every smaller point.
+   */
+  private static void addToFrontier(List<double[]> frontier, double[] wiggles, boolean keepMax) {
+    for (Iterator<double[]> it = frontier.iterator(); it.hasNext(); ) {
+      double[] point = it.next();
+      if (keepMax ? dominates(wiggles, point) : dominates(point, wiggles)) {
+        it.remove();
+      }
+    }
+    frontier.add(wiggles.clone());
+  }
+
+  /**
+   * Returns true if {@code a} is at least {@code b} in every category.
+   */
+  private static boolean dominates(double[] a, double[] b) {
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] < b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the fraction of queries answered without a solve, by screening or the frontiers.
+   */
+  private synchronized double hitRate() {
+    return queries == 0 ? 0 : (double) (hits + screened) / queries;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%s queries, %s answered without solving (%.1f%%; %s screened by"
+        + " reachable bounds), frontiers %s feasible / %s infeasible", queries, hits + screened,
+        100 * hitRate(), screened, feasible.size(), infeasible.size());
+  }
+}
@@ -0,0 +1,43 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * How one holding moves from its current value to its value in a solution.
+ */
+@AutoValue
+public abstract class HoldingChange {
+
+  HoldingChange() {
+  }
+
+  public static HoldingChange create(String account, String ticker, double currentValue,
+      double newValue, boolean locked, double minimumBalance, double percentOfAccount) {
+    return new AutoValue_HoldingChange(account, ticker, currentValue, newValue, locked,
+        minimumBalance, percentOfAccount);
+  }
+
+  public abstract String account();
+
+  public abstract String ticker();
+
+  public abstract double currentValue();
+
+  public abstract double newValue();
+
+  public abstract boolean isLocked();
+
+  public abstract double minimumBalance();
+
+  /**
+   * The new value as a percent of the account value.
+   */
+  public abstract double percentOfAccount();
+
+  /**
+   * The amount to buy, or to sell if negative.
+   */
+  public double diff() {
+    return newValue() - currentValue();
+  }
+}
@@ -0,0 +1,246 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.common.base.Joiner;
+
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
+import com.theblakearnold.stocksolver.storage.StockSolverStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Runs the rules of {@link InputValidator}, keeping what they read so that a change to one
+ * holding only re-checks the rules it can affect.
+ *
+ * <p>The validator keeps the most cash each account could put in each category, the account
+ * each category relies on and how much, and which rules currently fail. An account's value is
+ * the sum of its current values, so changing a holding's current value moves the account value
+ * by the same amount, and the total and every category target with it. The targets are rescaled
+ * in place, the maximum of the holding and of the account's unlocked holdings is moved, and
+ * every category and account is re-checked.
+ *
+ * <p>When only a holding's lock changes, only the categories of its stock see a new maximum. For
+ * each of those it re-finds the reliant account and re-checks:
+ * <ul>
+ *   <li>that the accounts can buy enough of the category.
+ *   <li>that the accounts it was and is now reliant on can hold every category relying on them.
+ *   <li>that its reliant account has a stock to buy it with.
+ * </ul>
+ * No other rule can change its answer.
+ *
+ * <p>Not thread safe.
+ */
+public class IncrementalValidator {
+
+  private final static Logger log = Logger.getLogger(IncrementalValidator.class.getName());
+
+  private final PortfolioIndex index;
+  private final double[] holdingCurrent;
+  private final boolean[] holdingLocked;
+  private final double[] accountValues;
+  private final double[] categoryTargets;
+  private double totalValue;
+  private final CategoryExposures maxExposures;
+  private final int[] accountOrder;
+  private final double[] scratch;
+  private final InputValidator.DependentAccountValue[] dependents;
+  private final boolean[] categoryShort;
+  private final boolean[] stockMissing;
+  private final boolean[] accountOverDependent;
+  private int failures;
+
+  private IncrementalValidator(PortfolioIndex index) {
+    this.index = index;
+    holdingCurrent = new double[index.holdingCount()];
+    holdingLocked = new boolean[index.holdingCount()];
+    for (int holding = 0; holding < index.holdingCount(); holding++) {
+      holdingCurrent[holding] = index.holdingCurrent(holding);
+      holdingLocked[holding] = index.holdingLocked(holding);
+    }
+    accountValues = new double[index.accountCount()];
+    for (int account = 0; account < index.accountCount(); account++) {
+      accountValues[account] = index.accountValue(account);
+    }
+    totalValue = index.totalValue();
+    categoryTargets = new double[index.categoryCount()];
+    for (int category = 0; category < index.categoryCount(); category++) {
+      categoryTargets[category] = index.categoryTarget(category);
+    }
+    double[] maxHoldingValues = new double[index.holdingCount()];
+    for (int holding = 0; holding < maxHoldingValues.length; holding++) {
+      maxHoldingValues[holding] = maxHoldingValue(holding);
+    }
+    maxExposures = CategoryExposures.of(index, maxHoldingValues);
+    accountOrder = InputValidator.accountTieOrder(index);
+    scratch = new double[index.accountCount()];
+    dependents = new InputValidator.DependentAccountValue[index.categoryCount()];
+    categoryShort = new boolean[index.categoryCount()];
+    stockMissing = new boolean[index.categoryCount()];
+    accountOverDependent = new boolean[index.accountCount()];
+    checkAll();
+  }
+
+  public static IncrementalValidator of(StockSolverStorage storage) {
+    long start = System.nanoTime();
+    IncrementalValidator validator = new IncrementalValidator(PortfolioIndex.of(storage));
+    SolverMetrics.get().recordNanos(SolverMetrics.VALIDATE, System.nanoTime() - start);
+    return validator;
+  }
+
+  /**
+   * Changes the current value and lock of the holding of the ticker in the account, then
+   * re-checks the rules that touch it.
+   *
+   * @throws IllegalArgumentException if the account doesn't hold the ticker
+   */
+  public void update(String accountName, String ticker, double currentValue, boolean locked) {
+    update(holding(accountName, ticker), currentValue, locked);
+  }
+
+  void update(int holding, double currentValue, boolean locked) {
+    long start = System.nanoTime();
+    double change = currentValue - holdingCurrent[holding];
+    holdingCurrent[holding] = currentValue;
+    holdingLocked[holding] = locked;
+    if (change != 0) {
+      int account = index.holdingAccount(holding);
+      accountValues[account] += change;
+      // Summed and scaled as PortfolioIndex does, so the targets match a fresh index.
+      totalValue = 0;
+      for (double accountValue : accountValues) {
+        totalValue += accountValue;
+      }
+      for (int category = 0; category < index.categoryCount(); category++) {
+        categoryTargets[category] = index.category(category).percent() / 100 * totalValue;
+      }
+      // Locked holdings elsewhere are capped at their own current value, which didn't change.
+      for (int i = index.holdingStart(account); i < index.holdingStart(account + 1); i++) {
+        if (i == holding || !holdingLocked[i]) {
+          maxExposures.setHoldingValue(i, maxHoldingValue(i));
+        }
+      }
+      checkAll();
+    } else {
+      maxExposures.setHoldingValue(holding, maxHoldingValue(holding));
+      int stock = index.holdingStock(holding);
+      for (int i = index.stockExposureStart(stock); i < index.stockExposureStart(stock + 1);
+          i++) {
+        int category = index.stockExposureCategory(i);
+        int previousAccount = dependents[category].account;
+        checkCategory(category);
+        checkAccount(previousAccount);
+        if (dependents[category].account != previousAccount) {
+          checkAccount(dependents[category].account);
+        }
+      }
+    }
+    SolverMetrics.get().recordNanos(SolverMetrics.VALIDATE_INCREMENTAL,
+        System.nanoTime() - start);
+  }
+
+  /**
+   * Returns true if every rule passes.
+   */
+  public boolean isValid() {
+    return failures == 0;
+  }
+
+  /**
+   * @throws IllegalArgumentException listing every rule that fails
+   */
+  public void validate() {
+    if (isValid()) {
+      return;
+    }
+    List<String> problems = new ArrayList<>();
+    for (int category = 0; category < index.categoryCount(); category++) {
+      if (categoryShort[category]) {
+        problems.add("Accounts cant buy enough for category " + index.categoryName(category));
+      }
+    }
+    for (int account = 0; account < index.accountCount(); account++) {
+      if (accountOverDependent[account]) {
+        problems.add("Too many categories are dependent on account: "
+            + index.accountName(account));
+      }
+    }
+    for (int category = 0; category < index.categoryCount(); category++) {
+      if (stockMissing[category]) {
+        problems.add(String.format("Unable to find stock for category %s in account %s",
+            index.categoryName(category), dependents[category].accountName));
+      }
+    }
+    throw new IllegalArgumentException(Joiner.on("; ").join(problems));
+  }
+
+  private int holding(String accountName, String ticker) {
+    for (int account = 0; account < index.accountCount(); account++) {
+      if (!index.accountName(account).equals(accountName)) {
+        continue;
+      }
+      for (int holding = index.holdingStart(account); holding < index.holdingStart(account + 1);
+          holding++) {
+        if (index.stock(index.holdingStock(holding)).ticker().equals(ticker)) {
+          return holding;
+        }
+      }
+    }
+    throw new IllegalArgumentException(
+        String.format("Account %s doesn't hold %s", accountName, ticker));
+  }
+
+  private double maxHoldingValue(int holding) {
+    return InputValidator.maxHoldingValue(accountValues[index.holdingAccount(holding)],
+        holdingCurrent[holding], holdingLocked[holding]);
+  }
+
+  /**
+   * Re-checks every rule against the current maximums and targets.
+   */
+  private void checkAll() {
+    for (int category = 0; category < index.categoryCount(); category++) {
+      checkCategory(category);
+    }
+    for (int account = 0; account < index.accountCount(); account++) {
+      checkAccount(account);
+    }
+  }
+
+  /**
+   * Re-finds the account the category relies on, then re-checks the category's rules.
+   */
+  private void checkCategory(int category) {
+    double categoryTarget = categoryTargets[category];
+    dependents[category] =
+        InputValidator.calculateReliantAccount(maxExposures, category, categoryTarget,
+        accountOrder, scratch);
+    setFailing(categoryShort, category,
+        !InputValidator.canBuy(maxExposures, category, categoryTarget));
+    InputValidator.DependentAccountValue dependent = dependents[category];
+    StringBuilder errorMessages = new StringBuilder();
+    boolean missing = dependent.dependentValue > 0 && !InputValidator.hasStockFor(
+        index, categoryTargets, totalValue, dependent, errorMessages);
+    if (missing && !stockMissing[category]) {
+      log.warning(errorMessages.toString());
+    }
+    setFailing(stockMissing, category, missing);
+  }
+
+  private void checkAccount(int account) {
+    double sumForAccount = 0;
+    for (InputValidator.DependentAccountValue dependent : dependents) {
+      if (dependent.account == account && dependent.dependentValue > 0) {
+        sumForAccount += dependent.dependentValue;
+      }
+    }
+    setFailing(accountOverDependent, account, sumForAccount > accountValues[account]);
+  }
+
+  private void setFailing(boolean[] rule, int i, boolean failing) {
+    if (rule[i] != failing) {
+      failures += failing ? 1 : -1;
+      rule[i] = failing;
+    }
+  }
+}
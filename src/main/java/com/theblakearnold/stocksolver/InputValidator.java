@@ -4,21 +4,18 @@ import com.google.common.base.Objects;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Multimap;
 
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
 import com.theblakearnold.stocksolver.model.AccountModel;
-import com.theblakearnold.stocksolver.model.CategoryGroupModel;
-import com.theblakearnold.stocksolver.model.CategoryModel;
-import com.theblakearnold.stocksolver.model.StockHoldingModel;
 import com.theblakearnold.stocksolver.storage.StockSolverStorage;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
@@ -32,28 +29,29 @@ public class InputValidator {
   private final static Logger log = Logger.getLogger(InputValidator.class.getName());
 
   private final static NumberFormat formatter = new DecimalFormat("#0.00");
-  private static final double WIGGLE = .1;
+  static final double WIGGLE = .1;
 
   private final StockSolverStorage stockSolverStorage;
-  private double totalValue;
+  private final StockSolver stockSolver;
 
-  @Inject
   public InputValidator(StockSolverStorage stockSolverStorage) {
-    this.stockSolverStorage = stockSolverStorage;
-  }
-
-  public void validate() {
-    precompute();
-    accountsHaveCategories();
+    this(stockSolverStorage, new StockSolver(stockSolverStorage));
   }
 
   /**
-   * Sets local variables.
+   * @param stockSolver the solver of the same storage, whose portfolio index is shared
    */
-  private void precompute() {
-    for (AccountModel account : stockSolverStorage.getAccounts()) {
-      totalValue += account.value();
-    }
+  @Inject
+  public InputValidator(StockSolverStorage stockSolverStorage, StockSolver stockSolver) {
+    this.stockSolverStorage = stockSolverStorage;
+    this.stockSolver = stockSolver;
+  }
+
+  public void validate() {
+    long start = System.nanoTime();
+    PortfolioIndex index = stockSolver.portfolioIndex();
+    accountsHaveCategories(index);
+    SolverMetrics.get().recordNanos(SolverMetrics.VALIDATE, System.nanoTime() - start);
   }
 
   /**
@@ -62,54 +60,62 @@ public class InputValidator {
    * 2. for categories that only target one account, the total dependent amount is less than the
    * accounts value
    */
-  private void accountsHaveCategories() {
+  private void accountsHaveCategories(PortfolioIndex index) {
     // Map of account names to the categories fully reliant amount to hit the target.
     Multimap<String, DependentAccountValue> reliantCategoriesByAccountName =
         LinkedListMultimap.create();
-    Map<String, Double> targetValueByCategory = new HashMap<>();
-    for (CategoryGroupModel categoryGroupModel : stockSolverStorage.getCategoryGroups()) {
-      for (CategoryModel category : categoryGroupModel.categories()) {
-        double targetValue = category.percent() * totalValue / 100;
-        targetValueByCategory.put(category.name(), targetValue);
-        double maxTotalValue = 0;
-        Map<String, Double> maxAccountCategoryValueByAccount = new HashMap<>();
-        for (AccountModel account : stockSolverStorage.getAccounts()) {
-          double maxAccountValueOfCategory = 0;
-          for (StockHoldingModel stockHoldingModel : account.stocks()) {
-            if (stockHoldingModel.stockModel().hasCategoryAllocation(category.name())) {
-              double percent = stockHoldingModel.stockModel().percentage(category.name()) / 100;
-              if (stockHoldingModel.isLocked()) {
-                // If locked, only add current value percent.
-                maxAccountValueOfCategory += stockHoldingModel.currentHolding() * percent;
-              } else {
-                maxAccountValueOfCategory += account.value() * percent;
-              }
-            }
-          }
-          maxAccountCategoryValueByAccount.put(account.name(), maxAccountValueOfCategory);
-          maxTotalValue += maxAccountValueOfCategory;
-          log.info(String.format("Category %s - Account %s - Target: $%s, Max avail: $%s",
-              category.name(), account.name(), formatter.format(targetValue),
-              formatter.format(maxAccountValueOfCategory)));
-        }
-        DependentAccountValue relientAccountValue = calculateReliantAccount(category.name(),
-            targetValue, maxAccountCategoryValueByAccount);
-        if (relientAccountValue.dependentValue > 0) {
-          reliantCategoriesByAccountName.put(relientAccountValue.accountName, relientAccountValue);
-        }
-        log.info(String.format("Category %s - Target: $%s, Max avail: $%s",
-            category.name(), formatter.format(targetValue), formatter.format(maxTotalValue)));
+    double[] targetValueByCategory = new double[index.categoryCount()];
+    double[] maxHoldingValues = new double[index.holdingCount()];
+    for (int holding = 0; holding < maxHoldingValues.length; holding++) {
+      maxHoldingValues[holding] = maxHoldingValue(index.accountValue(index.holdingAccount(holding)),
+          index.holdingCurrent(holding), index.holdingLocked(holding));
+    }
+    CategoryExposures maxExposures = CategoryExposures.of(index, maxHoldingValues);
+    int[] accountOrder = accountTieOrder(index);
+    double[] scratch = new double[index.accountCount()];
+    boolean logAccounts = log.isLoggable(Level.INFO);
+    for (int category = 0; category < index.categoryCount(); category++) {
+      String categoryName = index.categoryName(category);
+      double targetValue = index.categoryTarget(category);
+      targetValueByCategory[category] = targetValue;
+      double maxTotalValue = maxExposures.categoryValue(category);
+      for (int account = 0; logAccounts && account < index.accountCount(); account++) {
+        log.info(String.format("Category %s - Account %s - Target: $%s, Max avail: $%s",
+            categoryName, index.accountName(account), formatter.format(targetValue),
+            formatter.format(maxExposures.value(category, account))));
+      }
+      DependentAccountValue relientAccountValue =
+          calculateReliantAccount(maxExposures, category, targetValue, accountOrder, scratch);
+      if (relientAccountValue.dependentValue > 0) {
+        reliantCategoriesByAccountName.put(relientAccountValue.accountName, relientAccountValue);
+      }
+      log.info(String.format("Category %s - Target: $%s, Max avail: $%s",
+          categoryName, formatter.format(targetValue), formatter.format(maxTotalValue)));
 
-        double tragetValueMin = (1-WIGGLE) * targetValue;
-        if (maxTotalValue < tragetValueMin)  {
-          throw new IllegalArgumentException("Accounts cant buy enough for category "
-              + category.name());
-        }
+      if (!canBuy(maxExposures, category, targetValue))  {
+        throw new IllegalArgumentException("Accounts cant buy enough for category "
+            + categoryName);
       }
     }
     log.info(reliantCategoriesByAccountName.toString());
     verifyDependentAmountWorks(reliantCategoriesByAccountName);
-    verifyDependentAmountWorksDeeper(reliantCategoriesByAccountName, targetValueByCategory);
+    verifyDependentAmountWorksDeeper(index, targetValueByCategory, reliantCategoriesByAccountName);
+  }
+
+  /**
+   * The most a holding could be: if locked, only its current value, otherwise the whole
+   * account.
+   */
+  static double maxHoldingValue(double accountValue, double currentValue, boolean locked) {
+    return locked ? currentValue : accountValue;
+  }
+
+  /**
+   * Returns true if the accounts can hold enough of the category to come within the wiggle of
+   * its target, given the most each holding could be.
+   */
+  static boolean canBuy(CategoryExposures maxExposures, int category, double categoryTarget) {
+    return maxExposures.categoryValue(category) >= (1 - WIGGLE) * categoryTarget;
   }
 
   private void verifyDependentAmountWorks(
@@ -134,50 +140,21 @@ public class InputValidator {
     }
   }
 
-  private void verifyDependentAmountWorksDeeper(
-      Multimap<String, DependentAccountValue> reliantCategoriesByAccountName,
-      Map<String, Double> targetValueByCategory) {
+  private void verifyDependentAmountWorksDeeper(PortfolioIndex index, double[] categoryTargets,
+      Multimap<String, DependentAccountValue> reliantCategoriesByAccountName) {
     boolean failures = false;
-    for (AccountModel account : stockSolverStorage.getAccounts()) {
-      if (reliantCategoriesByAccountName.containsKey(account.name())) {
-        for (DependentAccountValue dependentAccountValue :
-            reliantCategoriesByAccountName.get(account.name())) {
-          boolean successful = false;
-          StringBuilder errorMessagesForStock = new StringBuilder();
-          for (StockHoldingModel stockHoldingModel : account.stocks()) {
-            if (stockHoldingModel.stockModel().hasCategoryAllocation(
-                dependentAccountValue.category)) {
-              double percent = stockHoldingModel.stockModel().percentage(
-                  dependentAccountValue.category) / 100;
-              double totalStockPrice = dependentAccountValue.dependentValue / percent;
-              boolean succeededForThisStock = true;
-              for (String category : targetValueByCategory.keySet()) {
-                if (stockHoldingModel.stockModel().hasCategoryAllocation(category)) {
-                  double categoryValueIfPurchased =
-                      stockHoldingModel.stockModel().percentage(category) / 100 * totalStockPrice;
-                  if (categoryValueIfPurchased > targetValueByCategory.get(category)) {
-                    double offBy = categoryValueIfPurchased - targetValueByCategory.get(category);
-                    errorMessagesForStock.append(String.format(
-                        "Stock %s in account %s must be purchased for category %s, but doing so "
-                            + "puts category %s over its target value by %s - %s%%\n",
-                        stockHoldingModel.stockModel().ticker(),
-                        account.name(),
-                        dependentAccountValue.category,
-                        category,
-                        offBy,
-                        offBy / totalValue * 100));
-                    succeededForThisStock = false;
-                  }
-                }
-              }
-              successful |= succeededForThisStock;
-            }
-          }
-          if (!successful) {
-            log.warning(errorMessagesForStock.toString());
-            failures = true;
-          }
-
+    for (int account = 0; account < index.accountCount(); account++) {
+      String accountName = index.accountName(account);
+      if (!reliantCategoriesByAccountName.containsKey(accountName)) {
+        continue;
+      }
+      for (DependentAccountValue dependentAccountValue :
+          reliantCategoriesByAccountName.get(accountName)) {
+        StringBuilder errorMessagesForStock = new StringBuilder();
+        if (!hasStockFor(index, categoryTargets, index.totalValue(), dependentAccountValue,
+            errorMessagesForStock)) {
+          log.warning(errorMessagesForStock.toString());
+          failures = true;
         }
       }
     }
@@ -187,40 +164,131 @@ public class InputValidator {
     }
   }
 
-  private DependentAccountValue calculateReliantAccount(String category, double categoryTarget,
-      Map<String, Double> maxAccountCategoryValueByAccount) {
-    SortedSet<Map.Entry<String, Double>> sortedEntries =
-        entriesSortedByValues(maxAccountCategoryValueByAccount);
-    Map.Entry<String, Double> largest = sortedEntries.last();
+  /**
+   * Returns true if the reliant account has a stock in the dependent category that can be bought
+   * for the dependent value without putting any of its categories over target. Explains each
+   * stock that can't in {@code errorMessages}.
+   *
+   * @param categoryTargets the target value of every category, indexed by category id
+   * @param totalValue the value of every account together
+   */
+  static boolean hasStockFor(PortfolioIndex index, double[] categoryTargets, double totalValue,
+      DependentAccountValue dependentAccountValue, StringBuilder errorMessages) {
+    int account = dependentAccountValue.account;
+    int dependentCategory = dependentAccountValue.categoryId;
+    boolean successful = false;
+    for (int holding = index.holdingStart(account); holding < index.holdingStart(account + 1);
+        holding++) {
+      int stock = index.holdingStock(holding);
+      double percent = exposure(index, stock, dependentCategory);
+      if (percent == 0) {
+        continue;
+      }
+      double totalStockPrice = dependentAccountValue.dependentValue / percent;
+      boolean succeededForThisStock = true;
+      for (int i = index.stockExposureStart(stock); i < index.stockExposureStart(stock + 1);
+          i++) {
+        int category = index.stockExposureCategory(i);
+        double categoryValueIfPurchased = index.stockExposureFraction(i) * totalStockPrice;
+        if (categoryValueIfPurchased > categoryTargets[category]) {
+          double offBy = categoryValueIfPurchased - categoryTargets[category];
+          errorMessages.append(String.format(
+              "Stock %s in account %s must be purchased for category %s, but doing so "
+                  + "puts category %s over its target value by %s - %s%%\n",
+              index.stock(stock).ticker(),
+              dependentAccountValue.accountName,
+              dependentAccountValue.category,
+              index.categoryName(category),
+              offBy,
+              offBy / totalValue * 100));
+          succeededForThisStock = false;
+        }
+      }
+      successful |= succeededForThisStock;
+    }
+    return successful;
+  }
+
+  /**
+   * Returns the fraction of the stock in the category, or 0 if it is not in the category.
+   */
+  private static double exposure(PortfolioIndex index, int stock, int category) {
+    for (int i = index.stockExposureStart(stock); i < index.stockExposureStart(stock + 1); i++) {
+      if (index.stockExposureCategory(i) == category) {
+        return index.stockExposureFraction(i);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns how much of the category target the account with the most room for the category
+   * must hold when every other account holds as much of it as it can.
+   *
+   * <p>Accounts are told apart only by their room, as they were when kept in a set sorted by it:
+   * of accounts with the same room only one is subtracted, and of those with the most the first
+   * in {@code accountOrder} is relied on.
+   *
+   * @param accountOrder every account id, in the order ties are broken, see
+   *     {@link #accountTieOrder}
+   * @param scratch room for one value per account
+   */
+  static DependentAccountValue calculateReliantAccount(CategoryExposures maxExposures,
+      int category, double categoryTarget, int[] accountOrder, double[] scratch) {
+    PortfolioIndex index = maxExposures.index();
+    int largest = accountOrder[0];
+    for (int account : accountOrder) {
+      if (Double.compare(maxExposures.value(category, account),
+          maxExposures.value(category, largest)) > 0) {
+        largest = account;
+      }
+    }
+    double largestValue = maxExposures.value(category, largest);
+    int accountCount = index.accountCount();
+    for (int account = 0; account < accountCount; account++) {
+      scratch[account] = maxExposures.value(category, account);
+    }
+    Arrays.sort(scratch, 0, accountCount);
     double valueLeft = categoryTarget;
-    for (Map.Entry<String, Double> smallerEntry : sortedEntries.headSet(largest)) {
-      valueLeft -= smallerEntry.getValue();
+    for (int i = 0; i < accountCount && Double.compare(scratch[i], largestValue) < 0; i++) {
+      if (i == 0 || Double.compare(scratch[i], scratch[i - 1]) != 0) {
+        valueLeft -= scratch[i];
+      }
     }
-    return new DependentAccountValue(largest.getKey(), valueLeft, category, categoryTarget);
+    return new DependentAccountValue(largest, index.accountName(largest), valueLeft, category,
+        index.categoryName(category), categoryTarget);
   }
 
-  static <K,V extends Comparable<? super V>> SortedSet<Map.Entry<K,V>> entriesSortedByValues(
-      Map<K,V> map) {
-    SortedSet<Map.Entry<K,V>> sortedEntries = new TreeSet<Map.Entry<K,V>>(
-        new Comparator<Map.Entry<K,V>>() {
-          @Override public int compare(Map.Entry<K,V> e1, Map.Entry<K,V> e2) {
-            return e1.getValue().compareTo(e2.getValue());
-          }
-        }
-    );
-    sortedEntries.addAll(map.entrySet());
-    return sortedEntries;
+  /**
+   * Returns every account id in the order a {@link HashMap} keyed by account name iterates
+   * them, which is how ties on room were broken when accounts were kept in one.
+   */
+  static int[] accountTieOrder(PortfolioIndex index) {
+    Map<String, Integer> accountsByName = new HashMap<>();
+    for (int account = 0; account < index.accountCount(); account++) {
+      accountsByName.put(index.accountName(account), account);
+    }
+    int[] order = new int[accountsByName.size()];
+    int i = 0;
+    for (int account : accountsByName.values()) {
+      order[i++] = account;
+    }
+    return order;
   }
 
-  class DependentAccountValue {
-    private final String accountName;
-    private final double dependentValue;
-    private final String category;
+  static class DependentAccountValue {
+    final int account;
+    final String accountName;
+    final double dependentValue;
+    final int categoryId;
+    final String category;
     private final double categoryTarget;
 
-    public DependentAccountValue(String accountName, double dependentValue, String category,
-        double categoryTarget) {
+    public DependentAccountValue(int account, String accountName, double dependentValue,
+        int categoryId, String category, double categoryTarget) {
+      this.account = account;
       this.accountName = accountName;
+      this.categoryId = categoryId;
       this.dependentValue = dependentValue;
       this.category = category;
       this.categoryTarget = categoryTarget;
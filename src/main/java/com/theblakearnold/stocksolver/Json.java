@@ -0,0 +1,73 @@
+package com.theblakearnold.stocksolver;
+
+import com.theblakearnold.stocksolver.model.AccountModel;
+
+import java.util.Map;
+
+/**
+ * Writes results as JSON for {@link StockSolverServer} and {@link BatchRunner}.
+ */
+final class Json {
+
+  private Json() {
+  }
+
+  static String toJson(OptimizationResult result) {
+    StringBuilder json = new StringBuilder("{\"categoryWiggles\": {");
+    String separator = "";
+    for (Map.Entry<String, Double> wiggle : result.categoryWiggles().entrySet()) {
+      json.append(separator).append(quote(wiggle.getKey())).append(": ")
+          .append(wiggle.getValue());
+      separator = ", ";
+    }
+    json.append("}, \"accounts\": [");
+    separator = "";
+    for (AccountModel account : result.accounts()) {
+      json.append(separator).append("{\"name\": ").append(quote(account.name()))
+          .append(", \"value\": ").append(account.value()).append('}');
+      separator = ", ";
+    }
+    json.append("], \"changes\": [");
+    separator = "";
+    for (HoldingChange change : result.changes()) {
+      json.append(separator)
+          .append("{\"account\": ").append(quote(change.account()))
+          .append(", \"ticker\": ").append(quote(change.ticker()))
+          .append(", \"currentValue\": ").append(change.currentValue())
+          .append(", \"newValue\": ").append(change.newValue())
+          .append(", \"diff\": ").append(change.diff())
+          .append(", \"locked\": ").append(change.isLocked())
+          .append(", \"minimumBalance\": ").append(change.minimumBalance())
+          .append(", \"percentOfAccount\": ").append(change.percentOfAccount())
+          .append('}');
+      separator = ", ";
+    }
+    return json.append("], \"complete\": ").append(result.complete()).append('}').toString();
+  }
+
+  static String error(String message) {
+    return "{\"error\": " + quote(String.valueOf(message)) + "}";
+  }
+
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          quoted.append("\\\"");
+          break;
+        case '\\':
+          quoted.append("\\\\");
+          break;
+        default:
+          if (c < 0x20) {
+            quoted.append(String.format("\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
@@ -0,0 +1,107 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Finds category wiggles by lexicographic min-max instead of random category orders.
+ *
+ * <p>Each round minimizes the largest wiggle of the categories that are still free, then fixes
+ * the categories whose bands limit that wiggle. Those are the categories that depend on each
+ * other for the current optimum; the rest are free to tighten further in the next round. Every
+ * round fixes at least one category, so there are at most as many solves as categories, and the
+ * same input always gives the same wiggles.
+ *
+ * <p>When the time budget runs out between rounds, the categories still free are fixed at the
+ * last round's wiggle, which they can all be held within together.
+ */
+class LexicographicOptimizer {
+
+  private final static Logger log = Logger.getLogger(LexicographicOptimizer.class.getName());
+
+  private final WiggleModel model;
+
+  LexicographicOptimizer(WiggleModel model) {
+    this.model = model;
+  }
+
+  /**
+   * Returns the wiggle percent of each category.
+   *
+   * @param progress the run's deadline and solve count
+   * @throws RuntimeException if the categories can't be held within 100 percent
+   */
+  Map<String, Double> optimize(SearchProgress progress) {
+    PortfolioIndex index = model.index();
+    Set<Integer> free = new LinkedHashSet<>();
+    double[] categoryWiggles = new double[index.categoryCount()];
+    for (int category = 0; category < index.categoryCount(); category++) {
+      model.freeCategory(category);
+      free.add(category);
+    }
+    int round = 0;
+    while (!free.isEmpty()) {
+      Optional<Double> wiggle = model.minimizeWiggle();
+      progress.countSolve();
+      if (!wiggle.isPresent()) {
+        log.warning("Failed to optimize wiggle percent.");
+        throw new RuntimeException("Failed to optimize");
+      }
+      List<Integer> binding = new ArrayList<>();
+      for (int category : free) {
+        if (model.isBinding(category)) {
+          binding.add(category);
+        }
+      }
+      if (binding.isEmpty()) {
+        // Degenerate duals, fall back to the categories sitting at the wiggle.
+        binding = atWiggle(free, wiggle.get());
+      }
+      log.info(String.format("Round %s: wiggle %s, fixing %s categories", round++, wiggle.get(),
+          binding.size()));
+      SolverMetrics.get().increment(SolverMetrics.LEXICOGRAPHIC_ROUNDS);
+      for (int category : binding) {
+        model.fixCategory(category, wiggle.get());
+        categoryWiggles[category] = wiggle.get();
+        free.remove(category);
+      }
+      if (!free.isEmpty() && progress.shouldStop()) {
+        log.info(String.format("Time budget ran out, leaving %s categories at wiggle %s",
+            free.size(), wiggle.get()));
+        for (int category : free) {
+          categoryWiggles[category] = wiggle.get();
+        }
+        break;
+      }
+    }
+    ImmutableMap.Builder<String, Double> result = ImmutableMap.builder();
+    for (int category = 0; category < categoryWiggles.length; category++) {
+      result.put(index.categoryName(category), categoryWiggles[category]);
+    }
+    return result.build();
+  }
+
+  /**
+   * Returns the free categories whose deviation is at the wiggle, or every free category if
+   * none are within tolerance.
+   */
+  private List<Integer> atWiggle(Set<Integer> free, double wiggle) {
+    double[] deviations = model.categoryDeviations();
+    List<Integer> atWiggle = new ArrayList<>();
+    for (int category : free) {
+      if (deviations[category] >= wiggle - 2 * WiggleModel.WIGGLE_TOLERANCE) {
+        atWiggle.add(category);
+      }
+    }
+    return atWiggle.isEmpty() ? new ArrayList<>(free) : atWiggle;
+  }
+}
@@ -0,0 +1,219 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+
+/**
+ * Settings for {@link StockSolver#optimizeWiggleRoomAdvanced}.
+ */
+@AutoValue
+public abstract class OptimizationOptions {
+
+  /**
+   * How the smallest wiggle shared by every category is found.
+   */
+  public enum OverallWiggleMode {
+    /** Bisect over [0, 100], one solve per step. */
+    BISECTION,
+    /** Make the wiggle an LP variable and minimize it in a single solve. */
+    MINIMAX;
+  }
+
+  /**
+   * How each category's wiggle is tightened in a category order.
+   */
+  public enum CategoryWiggleMode {
+    /** Bisect over [0, 100], one solve per step. */
+    BISECTION,
+    /**
+     * Make the category's wiggle an LP variable, holding the others, and minimize it in a single
+     * solve.
+     */
+    EXACT;
+  }
+
+  /**
+   * How the per category wiggles are searched for.
+   */
+  public enum SearchStrategy {
+    /** Bisect each category in random orders and keep the lowest average. */
+    RANDOM_PERMUTATIONS,
+    /** Repeatedly minimize the largest free category wiggle and fix the binding categories. */
+    LEXICOGRAPHIC,
+    /**
+     * Make each category wiggle an LP variable, at most the overall wiggle, and minimize their
+     * sum in a single solve.
+     */
+    MINIMUM_AVERAGE;
+  }
+
+  OptimizationOptions() {
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns a builder holding these options.
+   */
+  public Builder toBuilder() {
+    return newBuilder()
+        .setOptimizeTil(optimizeTil())
+        .setPermutations(permutations())
+        .setThreads(threads())
+        .setSeed(seed())
+        .setOverallWiggleMode(overallWiggleMode())
+        .setCategoryWiggleMode(categoryWiggleMode())
+        .setSearchStrategy(searchStrategy())
+        .setDecompose(decompose())
+        .setPresolve(presolve())
+        .setTimeBudgetMillis(timeBudgetMillis());
+  }
+
+  /**
+   * The wiggle percent precision each search runs until.
+   */
+  public abstract double optimizeTil();
+
+  /**
+   * Number of random category orders to try.
+   */
+  public abstract int permutations();
+
+  /**
+   * Number of worker threads the permutation search is spread across. Each worker owns its own
+   * solver.
+   */
+  public abstract int threads();
+
+  /**
+   * Seed for the random category orders. The same seed gives the same result for any number of
+   * threads.
+   */
+  public abstract long seed();
+
+  /**
+   * How the overall wiggle is found before the per category search. Defaults to
+   * {@link OverallWiggleMode#BISECTION}.
+   */
+  public abstract OverallWiggleMode overallWiggleMode();
+
+  /**
+   * How {@link SearchStrategy#RANDOM_PERMUTATIONS} tightens each category. Defaults to
+   * {@link CategoryWiggleMode#BISECTION}.
+   */
+  public abstract CategoryWiggleMode categoryWiggleMode();
+
+  /**
+   * How the per category wiggles are searched for. Defaults to
+   * {@link SearchStrategy#RANDOM_PERMUTATIONS}.
+   */
+  public abstract SearchStrategy searchStrategy();
+
+  /**
+   * Whether {@link SearchStrategy#RANDOM_PERMUTATIONS} and {@link SearchStrategy#MINIMUM_AVERAGE}
+   * search each {@link PortfolioComponent} on its own. Defaults to true. Splitting doesn't
+   * change which wiggles are feasible, it only makes each search smaller.
+   */
+  public abstract boolean decompose();
+
+  /**
+   * Whether the holding columns are reduced before any solve, see {@link PresolvedHoldings}.
+   * Defaults to true. Presolving doesn't change the optimum, it only makes each solve smaller.
+   */
+  public abstract boolean presolve();
+
+  /**
+   * Wall clock milliseconds the search may take, or 0, the default, for no limit. The overall
+   * wiggle, or with {@link SearchStrategy#LEXICOGRAPHIC} the first round, is always found; once
+   * the budget runs out no more category orders, categories or rounds are tightened, and the
+   * lowest average found so far is returned, see {@link OptimizationResult#complete}.
+   * {@link SearchStrategy#MINIMUM_AVERAGE} is a single solve, skipped if the overall wiggle used
+   * up the budget. The budget is only checked between solves, so a search runs over it by the
+   * solve in progress. A budgeted result depends on how fast the solves ran, not just on the
+   * seed.
+   */
+  public abstract long timeBudgetMillis();
+
+  public static class Builder {
+
+    private double optimizeTil = .01;
+    private int permutations = 100;
+    private int threads = 1;
+    private long seed = new Random().nextLong();
+    private OverallWiggleMode overallWiggleMode = OverallWiggleMode.BISECTION;
+    private CategoryWiggleMode categoryWiggleMode = CategoryWiggleMode.BISECTION;
+    private SearchStrategy searchStrategy = SearchStrategy.RANDOM_PERMUTATIONS;
+    private boolean decompose = true;
+    private boolean presolve = true;
+    private long timeBudgetMillis;
+
+    private Builder() {
+    }
+
+    public Builder setOptimizeTil(double optimizeTil) {
+      this.optimizeTil = optimizeTil;
+      return this;
+    }
+
+    public Builder setPermutations(int permutations) {
+      this.permutations = permutations;
+      return this;
+    }
+
+    public Builder setThreads(int threads) {
+      this.threads = threads;
+      return this;
+    }
+
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public Builder setOverallWiggleMode(OverallWiggleMode overallWiggleMode) {
+      this.overallWiggleMode = Preconditions.checkNotNull(overallWiggleMode);
+      return this;
+    }
+
+    public Builder setCategoryWiggleMode(CategoryWiggleMode categoryWiggleMode) {
+      this.categoryWiggleMode = Preconditions.checkNotNull(categoryWiggleMode);
+      return this;
+    }
+
+    public Builder setSearchStrategy(SearchStrategy searchStrategy) {
+      this.searchStrategy = Preconditions.checkNotNull(searchStrategy);
+      return this;
+    }
+
+    public Builder setDecompose(boolean decompose) {
+      this.decompose = decompose;
+      return this;
+    }
+
+    public Builder setPresolve(boolean presolve) {
+      this.presolve = presolve;
+      return this;
+    }
+
+    public Builder setTimeBudgetMillis(long timeBudgetMillis) {
+      this.timeBudgetMillis = timeBudgetMillis;
+      return this;
+    }
+
+    public OptimizationOptions build() {
+      Preconditions.checkState(optimizeTil > 0, "optimizeTil must be positive: %s", optimizeTil);
+      Preconditions.checkState(permutations > 0, "permutations must be positive: %s",
+          permutations);
+      Preconditions.checkState(threads > 0, "threads must be positive: %s", threads);
+      Preconditions.checkState(timeBudgetMillis >= 0, "timeBudgetMillis must not be negative: %s",
+          timeBudgetMillis);
+      return new AutoValue_OptimizationOptions(optimizeTil, permutations, threads, seed,
+          overallWiggleMode, categoryWiggleMode, searchStrategy, decompose, presolve,
+          timeBudgetMillis);
+    }
+  }
+}
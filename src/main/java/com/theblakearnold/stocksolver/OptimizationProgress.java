@@ -0,0 +1,51 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * How far a run of {@link StockSolver#optimizeWiggleRoomAdvanced} has got, see
+ * {@link ProgressListener}.
+ */
+@AutoValue
+public abstract class OptimizationProgress {
+
+  OptimizationProgress() {
+  }
+
+  public static OptimizationProgress create(int permutationsTried, double bestAverage,
+      long solves, long elapsedMillis, boolean done) {
+    return new AutoValue_OptimizationProgress(permutationsTried, bestAverage, solves,
+        elapsedMillis, done);
+  }
+
+  /**
+   * Category orders tried so far, over every independent component.
+   */
+  public abstract int permutationsTried();
+
+  /**
+   * The lowest average category wiggle found so far. Until an order improves on it, the overall
+   * wiggle every category shares.
+   */
+  public abstract double bestAverage();
+
+  /**
+   * LP solves of the overall and per category searches so far, not counting probes answered
+   * without one.
+   */
+  public abstract long solves();
+
+  /**
+   * Wall clock milliseconds since the search started.
+   */
+  public abstract long elapsedMillis();
+
+  /**
+   * Whether this is the last report, made when the search ends.
+   */
+  public abstract boolean done();
+
+  public double solvesPerSecond() {
+    return elapsedMillis() == 0 ? 0 : solves() * 1000.0 / elapsedMillis();
+  }
+}
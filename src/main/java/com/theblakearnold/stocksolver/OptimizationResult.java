@@ -0,0 +1,53 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import com.theblakearnold.stocksolver.model.AccountModel;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of {@link StockSolver#optimizeWiggleRoomAdvanced}.
+ */
+@AutoValue
+public abstract class OptimizationResult {
+
+  OptimizationResult() {
+  }
+
+  public static OptimizationResult create(Map<String, Double> categoryWiggles,
+      List<AccountModel> accounts, List<HoldingChange> changes) {
+    return create(categoryWiggles, accounts, changes, true);
+  }
+
+  public static OptimizationResult create(Map<String, Double> categoryWiggles,
+      List<AccountModel> accounts, List<HoldingChange> changes, boolean complete) {
+    return new AutoValue_OptimizationResult(ImmutableMap.copyOf(categoryWiggles),
+        ImmutableList.copyOf(accounts), ImmutableList.copyOf(changes), complete);
+  }
+
+  /**
+   * The wiggle percent each category is held within, keyed by category name.
+   */
+  public abstract ImmutableMap<String, Double> categoryWiggles();
+
+  /**
+   * The new holdings.
+   */
+  public abstract ImmutableList<AccountModel> accounts();
+
+  /**
+   * Every holding's change from its current value, in account order.
+   */
+  public abstract ImmutableList<HoldingChange> changes();
+
+  /**
+   * False if the search stopped early because its
+   * {@link OptimizationOptions#timeBudgetMillis time budget} ran out. The wiggles are still
+   * feasible, but a longer search may have found lower ones.
+   */
+  public abstract boolean complete();
+}
@@ -0,0 +1,158 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import com.theblakearnold.stocksolver.model.AccountModel;
+import com.theblakearnold.stocksolver.model.CategoryGroupModel;
+import com.theblakearnold.stocksolver.model.CategoryModel;
+import com.theblakearnold.stocksolver.storage.StockSolverStorage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A set of accounts and categories that shares no holding with the rest of the portfolio.
+ *
+ * <p>Accounts and categories are linked when a holding of the account has a share in the
+ * category. Each connected part of that graph is a component. No LP variable spans two
+ * components, so the allocation LP is block diagonal over them: a vector of category wiggles is
+ * feasible exactly when each component's part of it is, and the least expense is the sum of each
+ * component's least expense. Each component can therefore search its category wiggles on its
+ * own, with a smaller model and factorially fewer category orders, and the optimum for the whole
+ * portfolio is unchanged.
+ *
+ * <p>A component is itself a {@link StockSolverStorage}. Its category percents are rescaled to
+ * its own total value, so each category keeps the same target in cash and the same wiggle
+ * band.
+ */
+class PortfolioComponent implements StockSolverStorage {
+
+  private final static Logger log = Logger.getLogger(PortfolioComponent.class.getName());
+
+  private final ImmutableList<AccountModel> accounts;
+  private final ImmutableList<CategoryGroupModel> categoryGroups;
+
+  private PortfolioComponent(ImmutableList<AccountModel> accounts,
+      ImmutableList<CategoryGroupModel> categoryGroups) {
+    this.accounts = accounts;
+    this.categoryGroups = categoryGroups;
+  }
+
+  /**
+   * Splits the indexed portfolio into its components that have at least one category, in
+   * category order. Accounts with no category need no wiggle search and are left out.
+   *
+   * @return the components, or an empty list if a category has no holding at all, since its
+   *     target can't be rescaled to a component without value
+   */
+  static List<PortfolioComponent> split(PortfolioIndex index) {
+    int accountCount = index.accountCount();
+    int[] parent = new int[accountCount + index.categoryCount()];
+    for (int node = 0; node < parent.length; node++) {
+      parent[node] = node;
+    }
+    for (int category = 0; category < index.categoryCount(); category++) {
+      for (int i = index.categoryExposureStart(category);
+          i < index.categoryExposureStart(category + 1); i++) {
+        union(parent, accountCount + category,
+            index.holdingAccount(index.categoryExposureHolding(i)));
+      }
+    }
+
+    Map<Integer, List<Integer>> categoriesByRoot = new LinkedHashMap<>();
+    for (int category = 0; category < index.categoryCount(); category++) {
+      int root = find(parent, accountCount + category);
+      if (!categoriesByRoot.containsKey(root)) {
+        categoriesByRoot.put(root, new ArrayList<Integer>());
+      }
+      categoriesByRoot.get(root).add(category);
+    }
+
+    ImmutableList.Builder<PortfolioComponent> components = ImmutableList.builder();
+    for (Map.Entry<Integer, List<Integer>> component : categoriesByRoot.entrySet()) {
+      ImmutableList.Builder<AccountModel> accounts = ImmutableList.builder();
+      double value = 0;
+      for (int account = 0; account < accountCount; account++) {
+        if (find(parent, account) == component.getKey()) {
+          accounts.add(index.accounts().get(account));
+          value += index.accountValue(account);
+        }
+      }
+      if (value == 0) {
+        log.fine("Not splitting, no holding is in category "
+            + index.categoryName(component.getValue().get(0)));
+        return ImmutableList.of();
+      }
+      components.add(new PortfolioComponent(accounts.build(),
+          categoryGroups(index, component.getValue(), index.totalValue() / value)));
+    }
+    return components.build();
+  }
+
+  /**
+   * Returns the category groups cut down to the given categories, dropping empty groups, with
+   * each percent multiplied by {@code scale}.
+   */
+  private static ImmutableList<CategoryGroupModel> categoryGroups(PortfolioIndex index,
+      List<Integer> categories, double scale) {
+    ImmutableList.Builder<CategoryGroupModel> categoryGroups = ImmutableList.builder();
+    for (CategoryGroupModel categoryGroup : index.categoryGroups()) {
+      CategoryGroupModel.Builder builder = null;
+      for (CategoryModel category : categoryGroup.categories()) {
+        if (!categories.contains(index.categoryId(category.name()))) {
+          continue;
+        }
+        if (builder == null) {
+          builder = CategoryGroupModel.newBuilder().setName(categoryGroup.name());
+        }
+        builder.addCategory(CategoryModel.create(category.name(), category.percent() * scale));
+      }
+      if (builder != null) {
+        categoryGroups.add(builder.build());
+      }
+    }
+    return categoryGroups.build();
+  }
+
+  private static int find(int[] parent, int node) {
+    while (parent[node] != node) {
+      parent[node] = parent[parent[node]];
+      node = parent[node];
+    }
+    return node;
+  }
+
+  private static void union(int[] parent, int a, int b) {
+    parent[find(parent, a)] = find(parent, b);
+  }
+
+  @Override
+  public List<AccountModel> getAccounts() {
+    return accounts;
+  }
+
+  @Override
+  public List<CategoryGroupModel> getCategoryGroups() {
+    return categoryGroups;
+  }
+
+  @Override
+  public String toString() {
+    List<String> accountNames = new ArrayList<>();
+    for (AccountModel account : accounts) {
+      accountNames.add(account.name());
+    }
+    List<String> categoryNames = new ArrayList<>();
+    for (CategoryGroupModel categoryGroup : categoryGroups) {
+      for (CategoryModel category : categoryGroup.categories()) {
+        categoryNames.add(category.name());
+      }
+    }
+    return "accounts " + Joiner.on(", ").join(accountNames)
+        + "; categories " + Joiner.on(", ").join(categoryNames);
+  }
+}
@@ -0,0 +1,375 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import com.theblakearnold.stocksolver.model.AccountModel;
+import com.theblakearnold.stocksolver.model.CategoryGroupModel;
+import com.theblakearnold.stocksolver.model.CategoryModel;
+import com.theblakearnold.stocksolver.model.StockHoldingModel;
+import com.theblakearnold.stocksolver.model.StockModel;
+import com.theblakearnold.stocksolver.storage.StockSolverStorage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Integer indexed view of one snapshot of a {@link StockSolverStorage}.
+ *
+ * <p>Accounts, tickers and categories are interned to dense ids, in storage order. Holdings are
+ * numbered account by account, so the holdings of account {@code a} are
+ * {@code [holdingStart(a), holdingStart(a + 1))}.
+ *
+ * <p>Category exposures are kept as two compressed sparse row (CSR) matrices so consumers only
+ * visit the non-zeros:
+ * <ul>
+ *   <li>by ticker: for each ticker, the categories it is in and the fraction in each.
+ *   <li>by category: for each category, the holdings in it and the fraction of each.
+ * </ul>
+ * Allocations to categories that have no target are dropped.
+ */
+public final class PortfolioIndex {
+
+  private final List<AccountModel> accounts;
+  private final List<CategoryGroupModel> categoryGroups;
+  private final double totalValue;
+
+  private final double[] accountValues;
+  private final int[] accountHoldingStart;
+
+  private final ImmutableList<StockModel> stocks;
+
+  private final ImmutableList<CategoryModel> categories;
+  private final ImmutableMap<String, Integer> categoryIds;
+  private final double[] categoryTargets;
+
+  private final int[] holdingAccount;
+  private final int[] holdingStock;
+  private final double[] holdingMinimums;
+  private final boolean[] holdingLocked;
+  private final double[] holdingCurrent;
+
+  private final int[] stockExposureStart;
+  private final int[] stockExposureCategory;
+  private final double[] stockExposureFraction;
+
+  private final int[] categoryExposureStart;
+  private final int[] categoryExposureHolding;
+  private final double[] categoryExposureFraction;
+
+  private PortfolioIndex(StockSolverStorage storage) {
+    accounts = storage.getAccounts();
+    categoryGroups = storage.getCategoryGroups();
+
+    // Categories, in group order.
+    ImmutableList.Builder<CategoryModel> categoriesBuilder = ImmutableList.builder();
+    Map<String, Integer> categoryIdsBuilder = new HashMap<>();
+    for (CategoryGroupModel categoryGroupModel : categoryGroups) {
+      for (CategoryModel category : categoryGroupModel.categories()) {
+        Preconditions.checkArgument(!categoryIdsBuilder.containsKey(category.name()),
+            "Category %s is in more than one group", category.name());
+        categoryIdsBuilder.put(category.name(), categoryIdsBuilder.size());
+        categoriesBuilder.add(category);
+      }
+    }
+    categories = categoriesBuilder.build();
+    categoryIds = ImmutableMap.copyOf(categoryIdsBuilder);
+
+    // Accounts, holdings and tickers.
+    int holdingCount = 0;
+    for (AccountModel account : accounts) {
+      holdingCount += account.stocks().size();
+    }
+    accountValues = new double[accounts.size()];
+    accountHoldingStart = new int[accounts.size() + 1];
+    holdingAccount = new int[holdingCount];
+    holdingStock = new int[holdingCount];
+    holdingMinimums = new double[holdingCount];
+    holdingLocked = new boolean[holdingCount];
+    holdingCurrent = new double[holdingCount];
+    List<StockModel> stocksBuilder = new ArrayList<>();
+    Map<String, Integer> tickerIds = new HashMap<>();
+    double total = 0;
+    int holding = 0;
+    for (int account = 0; account < accounts.size(); account++) {
+      AccountModel accountModel = accounts.get(account);
+      accountValues[account] = accountModel.value();
+      total += accountModel.value();
+      accountHoldingStart[account] = holding;
+      for (StockHoldingModel stockHolding : accountModel.stocks()) {
+        String ticker = stockHolding.stockModel().ticker();
+        Integer stock = tickerIds.get(ticker);
+        if (stock == null) {
+          stock = stocksBuilder.size();
+          tickerIds.put(ticker, stock);
+          stocksBuilder.add(stockHolding.stockModel());
+        }
+        holdingAccount[holding] = account;
+        holdingStock[holding] = stock;
+        holdingMinimums[holding] = stockHolding.minimumBalance();
+        holdingLocked[holding] = stockHolding.isLocked();
+        holdingCurrent[holding] = stockHolding.currentHolding();
+        holding++;
+      }
+    }
+    accountHoldingStart[accounts.size()] = holding;
+    totalValue = total;
+    stocks = ImmutableList.copyOf(stocksBuilder);
+
+    categoryTargets = new double[categories.size()];
+    for (int category = 0; category < categories.size(); category++) {
+      categoryTargets[category] = categories.get(category).percent() / 100 * totalValue;
+    }
+
+    // Ticker by category exposures.
+    stockExposureStart = new int[stocks.size() + 1];
+    List<Integer> exposureCategories = new ArrayList<>();
+    List<Double> exposureFractions = new ArrayList<>();
+    int[] categoryNonZeros = new int[categories.size()];
+    for (int stock = 0; stock < stocks.size(); stock++) {
+      stockExposureStart[stock] = exposureCategories.size();
+      for (Map.Entry<String, Double> allocation : stocks.get(stock).percentages().entrySet()) {
+        Integer category = categoryIds.get(allocation.getKey());
+        if (category == null || allocation.getValue() == 0) {
+          continue;
+        }
+        exposureCategories.add(category);
+        exposureFractions.add(allocation.getValue() / 100);
+      }
+    }
+    stockExposureStart[stocks.size()] = exposureCategories.size();
+    stockExposureCategory = new int[exposureCategories.size()];
+    stockExposureFraction = new double[exposureFractions.size()];
+    for (int i = 0; i < stockExposureCategory.length; i++) {
+      stockExposureCategory[i] = exposureCategories.get(i);
+      stockExposureFraction[i] = exposureFractions.get(i);
+    }
+
+    // Category by holding exposures, the transpose expanded to holdings.
+    for (int h = 0; h < holdingCount; h++) {
+      int stock = holdingStock[h];
+      for (int i = stockExposureStart[stock]; i < stockExposureStart[stock + 1]; i++) {
+        categoryNonZeros[stockExposureCategory[i]]++;
+      }
+    }
+    categoryExposureStart = new int[categories.size() + 1];
+    for (int category = 0; category < categories.size(); category++) {
+      categoryExposureStart[category + 1] =
+          categoryExposureStart[category] + categoryNonZeros[category];
+    }
+    categoryExposureHolding = new int[categoryExposureStart[categories.size()]];
+    categoryExposureFraction = new double[categoryExposureHolding.length];
+    int[] next = new int[categories.size()];
+    System.arraycopy(categoryExposureStart, 0, next, 0, categories.size());
+    for (int h = 0; h < holdingCount; h++) {
+      int stock = holdingStock[h];
+      for (int i = stockExposureStart[stock]; i < stockExposureStart[stock + 1]; i++) {
+        int slot = next[stockExposureCategory[i]]++;
+        categoryExposureHolding[slot] = h;
+        categoryExposureFraction[slot] = stockExposureFraction[i];
+      }
+    }
+  }
+
+  /**
+   * Builds the index for the accounts and category groups currently in {@code storage}.
+   */
+  public static PortfolioIndex of(StockSolverStorage storage) {
+    return new PortfolioIndex(storage);
+  }
+
+  /**
+   * Returns true if this index was built from the data {@code storage} currently holds.
+   */
+  public boolean isIndexOf(StockSolverStorage storage) {
+    return accounts == storage.getAccounts() && categoryGroups == storage.getCategoryGroups();
+  }
+
+  public List<AccountModel> accounts() {
+    return accounts;
+  }
+
+  public List<CategoryGroupModel> categoryGroups() {
+    return categoryGroups;
+  }
+
+  /**
+   * The sum of every account value.
+   */
+  public double totalValue() {
+    return totalValue;
+  }
+
+  public int accountCount() {
+    return accountValues.length;
+  }
+
+  public String accountName(int account) {
+    return accounts.get(account).name();
+  }
+
+  public double accountValue(int account) {
+    return accountValues[account];
+  }
+
+  /**
+   * The first holding of the account. The holdings of the account end at
+   * {@code holdingStart(account + 1)}.
+   */
+  public int holdingStart(int account) {
+    return accountHoldingStart[account];
+  }
+
+  public int stockCount() {
+    return stocks.size();
+  }
+
+  public StockModel stock(int stock) {
+    return stocks.get(stock);
+  }
+
+  public int categoryCount() {
+    return categories.size();
+  }
+
+  public CategoryModel category(int category) {
+    return categories.get(category);
+  }
+
+  public String categoryName(int category) {
+    return categories.get(category).name();
+  }
+
+  /**
+   * Returns the id of the category, or -1 if it has no target.
+   */
+  public int categoryId(String categoryName) {
+    Integer category = categoryIds.get(categoryName);
+    return category == null ? -1 : category;
+  }
+
+  /**
+   * The category target in cash, its percent of the total value.
+   */
+  public double categoryTarget(int category) {
+    return categoryTargets[category];
+  }
+
+  public int holdingCount() {
+    return holdingStock.length;
+  }
+
+  public int holdingAccount(int holding) {
+    return holdingAccount[holding];
+  }
+
+  public int holdingStock(int holding) {
+    return holdingStock[holding];
+  }
+
+  public double holdingMinimum(int holding) {
+    return holdingMinimums[holding];
+  }
+
+  public boolean holdingLocked(int holding) {
+    return holdingLocked[holding];
+  }
+
+  public double holdingCurrent(int holding) {
+    return holdingCurrent[holding];
+  }
+
+  /**
+   * The first non-zero of the ticker row. The row ends at {@code stockExposureStart(stock + 1)}.
+   */
+  public int stockExposureStart(int stock) {
+    return stockExposureStart[stock];
+  }
+
+  public int stockExposureCategory(int nonZero) {
+    return stockExposureCategory[nonZero];
+  }
+
+  /**
+   * The fraction, between 0 and 1, of the ticker in the category.
+   */
+  public double stockExposureFraction(int nonZero) {
+    return stockExposureFraction[nonZero];
+  }
+
+  /**
+   * The first non-zero of the category row. The row ends at
+   * {@code categoryExposureStart(category + 1)}.
+   */
+  public int categoryExposureStart(int category) {
+    return categoryExposureStart[category];
+  }
+
+  public int categoryExposureHolding(int nonZero) {
+    return categoryExposureHolding[nonZero];
+  }
+
+  /**
+   * The fraction, between 0 and 1, of the holding's ticker in the category.
+   */
+  public double categoryExposureFraction(int nonZero) {
+    return categoryExposureFraction[nonZero];
+  }
+
+  /**
+   * Returns the cash each category holds given a value for every holding.
+   */
+  public double[] categoryValues(double[] holdingValues) {
+    double[] categoryValues = new double[categories.size()];
+    for (int category = 0; category < categories.size(); category++) {
+      double value = 0;
+      for (int i = categoryExposureStart[category]; i < categoryExposureStart[category + 1]; i++) {
+        value += holdingValues[categoryExposureHolding[i]] * categoryExposureFraction[i];
+      }
+      categoryValues[category] = value;
+    }
+    return categoryValues;
+  }
+
+  /**
+   * Returns the current value of each holding in {@code accounts}, which must have the same
+   * accounts and holdings, in the same order, as this index.
+   */
+  public double[] holdingValues(List<AccountModel> accounts) {
+    Preconditions.checkArgument(accounts.size() == accountValues.length,
+        "Expected %s accounts, got %s", accountValues.length, accounts.size());
+    double[] values = new double[holdingStock.length];
+    for (int account = 0; account < accounts.size(); account++) {
+      List<StockHoldingModel> stockHoldings = accounts.get(account).stocks();
+      Preconditions.checkArgument(
+          stockHoldings.size() == accountHoldingStart[account + 1] - accountHoldingStart[account],
+          "Holdings of account %s don't match", accounts.get(account).name());
+      for (int i = 0; i < stockHoldings.size(); i++) {
+        values[accountHoldingStart[account] + i] = stockHoldings.get(i).currentHolding();
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Builds account models holding the given value of each holding.
+   */
+  public List<AccountModel> buildAccounts(double[] holdingValues) {
+    ImmutableList.Builder<AccountModel> newHoldings = ImmutableList.builder();
+    for (int account = 0; account < accountValues.length; account++) {
+      AccountModel.Builder accountModelBuilder = AccountModel.newBuilder();
+      double accountActual = 0;
+      for (int h = accountHoldingStart[account]; h < accountHoldingStart[account + 1]; h++) {
+        accountActual += holdingValues[h];
+        accountModelBuilder.addStockHoldingModel(
+            StockHoldingModel.create(stocks.get(holdingStock[h]), 0, false, holdingValues[h]));
+      }
+      newHoldings.add(
+          accountModelBuilder.setName(accountName(account)).setValue(accountActual).build());
+    }
+    return newHoldings.build();
+  }
+}
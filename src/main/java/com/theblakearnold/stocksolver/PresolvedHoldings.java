@@ -0,0 +1,283 @@
+package com.theblakearnold.stocksolver;
+
+import com.theblakearnold.stocksolver.lp.LinearSolver;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * The holding variables of the allocation linear program, reduced before any solve.
+ *
+ * <p>Holding {@code h} is written as {@code minimum(h) + x}, and the minimums are folded into
+ * the right-hand sides: each account row balances only the account's free value, the value over
+ * its minimums, and each category row is offset by the cash the minimums already put in it.
+ * Then:
+ * <ul>
+ *   <li>locked holdings have no column left, they are held at their minimum.
+ *   <li>unlocked holdings of one account with the same category fractions share a column, since
+ *       no constraint can tell them apart. The column takes the lowest expense ratio and its
+ *       value goes to the cheapest of them, the first on ties.
+ *   <li>each column is bounded above by its account's free value instead of infinity.
+ *   <li>an account with one column, or no free value, fixes its columns, so the column and the
+ *       account row are dropped. An account with no column drops its row too.
+ * </ul>
+ * {@link #holdingValues} expands a solution back out to every holding.
+ *
+ * <p>Dropping a row can leave a category with no columns at all, see {@link #hasColumns}; its
+ * cash is then the fixed {@link #categoryOffset}. Accounts that can't balance, minimums over the
+ * account value or free value with no unlocked holding, make every solve infeasible, see
+ * {@link #isInfeasible}.
+ *
+ * <p>{@link #of(PortfolioIndex, boolean)} can skip the reductions, keeping a column per unlocked
+ * holding, unbounded above, and every account row, so tests can check they don't change the
+ * optimum.
+ */
+class PresolvedHoldings {
+
+  private final static Logger log = Logger.getLogger(PresolvedHoldings.class.getName());
+
+  /**
+   * Free value, relative to the account value, small enough to be rounding.
+   */
+  static final double TOLERANCE = 1e-9;
+
+  private final PortfolioIndex index;
+  private final double[] fixedValues;
+  private final int[] columnHoldings;
+  private final double[] columnUpperBounds;
+  private final int[] accountColumnStart;
+  private final double[] accountFreeValues;
+  private final int[] holdingColumns;
+  private final double[] categoryOffsets;
+  private final double fixedExpense;
+  private final boolean infeasible;
+
+  private PresolvedHoldings(PortfolioIndex index, double[] fixedValues, int[] columnHoldings,
+      double[] columnUpperBounds, int[] accountColumnStart, double[] accountFreeValues,
+      boolean infeasible) {
+    this.index = index;
+    this.fixedValues = fixedValues;
+    this.columnHoldings = columnHoldings;
+    this.columnUpperBounds = columnUpperBounds;
+    this.accountColumnStart = accountColumnStart;
+    this.accountFreeValues = accountFreeValues;
+    this.infeasible = infeasible;
+
+    holdingColumns = new int[index.holdingCount()];
+    Arrays.fill(holdingColumns, -1);
+    for (int column = 0; column < columnHoldings.length; column++) {
+      holdingColumns[columnHoldings[column]] = column;
+    }
+    categoryOffsets = index.categoryValues(fixedValues);
+    double expense = 0;
+    for (int h = 0; h < fixedValues.length; h++) {
+      expense += fixedValues[h] * index.stock(index.holdingStock(h)).expenseRatio();
+    }
+    fixedExpense = expense;
+  }
+
+  static PresolvedHoldings of(PortfolioIndex index) {
+    return of(index, true);
+  }
+
+  /**
+   * @param reduce whether to merge, bound and fix columns as described above, or only fold in
+   *     the minimums and locked holdings
+   */
+  static PresolvedHoldings of(PortfolioIndex index, boolean reduce) {
+    double[] fixedValues = new double[index.holdingCount()];
+    int[] columnHoldings = new int[index.holdingCount()];
+    double[] columnUpperBounds = new double[index.holdingCount()];
+    int[] accountColumnStart = new int[index.accountCount() + 1];
+    double[] accountFreeValues = new double[index.accountCount()];
+    int columns = 0;
+    boolean infeasible = false;
+    int[] accountColumns = new int[index.holdingCount()];
+    for (int account = 0; account < index.accountCount(); account++) {
+      accountColumnStart[account] = columns;
+      double free = index.accountValue(account);
+      int count = 0;
+      for (int h = index.holdingStart(account); h < index.holdingStart(account + 1); h++) {
+        fixedValues[h] = index.holdingMinimum(h);
+        free -= index.holdingMinimum(h);
+        if (index.holdingLocked(h)) {
+          continue;
+        }
+        if (reduce) {
+          count = addToColumns(index, accountColumns, count, h);
+        } else {
+          accountColumns[count++] = h;
+        }
+      }
+      double tolerance = TOLERANCE * Math.abs(index.accountValue(account));
+      if (free < -tolerance || (free > tolerance && count == 0)) {
+        log.fine("Account can't balance: " + index.accountName(account));
+        infeasible = true;
+      }
+      if (count == 0 || (reduce && free <= tolerance)) {
+        continue;
+      }
+      if (reduce && count == 1) {
+        fixedValues[accountColumns[0]] += free;
+        continue;
+      }
+      accountFreeValues[account] = free <= tolerance ? 0 : free;
+      for (int i = 0; i < count; i++) {
+        columnHoldings[columns] = accountColumns[i];
+        columnUpperBounds[columns] = reduce ? free : Double.POSITIVE_INFINITY;
+        columns++;
+      }
+    }
+    accountColumnStart[index.accountCount()] = columns;
+    log.fine(String.format("Presolve kept %s of %s holdings as columns", columns,
+        index.holdingCount()));
+    return new PresolvedHoldings(index, fixedValues, Arrays.copyOf(columnHoldings, columns),
+        Arrays.copyOf(columnUpperBounds, columns), accountColumnStart, accountFreeValues,
+        infeasible);
+  }
+
+  /**
+   * Adds the unlocked holding to the account's columns, or merges it into the column of a
+   * holding with the same category fractions, keeping the cheaper one.
+   *
+   * @return the new number of columns
+   */
+  private static int addToColumns(PortfolioIndex index, int[] accountColumns, int count,
+      int holding) {
+    for (int i = 0; i < count; i++) {
+      if (sameExposures(index, index.holdingStock(accountColumns[i]),
+          index.holdingStock(holding))) {
+        if (expenseRatio(index, holding) < expenseRatio(index, accountColumns[i])) {
+          accountColumns[i] = holding;
+        }
+        return count;
+      }
+    }
+    accountColumns[count] = holding;
+    return count + 1;
+  }
+
+  private static boolean sameExposures(PortfolioIndex index, int stock, int otherStock) {
+    int start = index.stockExposureStart(stock);
+    int otherStart = index.stockExposureStart(otherStock);
+    int length = index.stockExposureStart(stock + 1) - start;
+    if (length != index.stockExposureStart(otherStock + 1) - otherStart) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (index.stockExposureCategory(start + i) != index.stockExposureCategory(otherStart + i)
+          || index.stockExposureFraction(start + i)
+              != index.stockExposureFraction(otherStart + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static double expenseRatio(PortfolioIndex index, int holding) {
+    return index.stock(index.holdingStock(holding)).expenseRatio();
+  }
+
+  /**
+   * Adds one variable per column, plus constraints that ensure the columns of each account add
+   * up to the account's free value. Must be called on an empty solver, so that variable
+   * {@code c} is column {@code c}.
+   */
+  void addVariables(LinearSolver solver) {
+    for (int account = 0; account < index.accountCount(); account++) {
+      if (accountColumnStart[account] == accountColumnStart[account + 1]) {
+        continue;
+      }
+      // x1 + x2 + x3 + ... = ACCOUNT VALUE - MINIMUMS.
+      double free = accountFreeValues[account];
+      int constraint = solver.addConstraint(free, free);
+      log.fine(String.format("Constraint #%s lb: %s, ub: %s", index.accountName(account),
+          free, free));
+      for (int column = accountColumnStart[account]; column < accountColumnStart[account + 1];
+          column++) {
+        // Start name with '_' to ensure it doesn't start with a number, which is not accepted for
+        // cp solver.
+        int h = columnHoldings[column];
+        String name = "_" + index.accountName(account) + "_"
+            + index.stock(index.holdingStock(h)).ticker();
+        int variable = solver.addVariable(0, columnUpperBounds[column], name);
+        log.fine(String.format("Added Ticker %s ub: %s", name, columnUpperBounds[column]));
+        solver.setCoefficient(constraint, variable, 1);
+      }
+    }
+  }
+
+  /**
+   * Adds every column in the category to the constraint, weighted by the fraction of the stock
+   * that is in the category.
+   */
+  void setCategoryCoefficients(LinearSolver solver, int constraint, int category) {
+    for (int i = index.categoryExposureStart(category);
+        i < index.categoryExposureStart(category + 1); i++) {
+      int column = holdingColumns[index.categoryExposureHolding(i)];
+      if (column >= 0) {
+        solver.setCoefficient(constraint, column, index.categoryExposureFraction(i));
+      }
+    }
+  }
+
+  /**
+   * Sets the objective to minimize the expense ratio of the columns. The fixed values add
+   * {@link #fixedExpense} on top.
+   */
+  void setExpenseObjective(LinearSolver solver) {
+    // Minimize x1 + x2 + x3 + ....
+    for (int column = 0; column < columnHoldings.length; column++) {
+      solver.setObjectiveCoefficient(column, expenseRatio(index, columnHoldings[column]));
+    }
+  }
+
+  int columnCount() {
+    return columnHoldings.length;
+  }
+
+  /**
+   * Returns true if some column is in the category.
+   */
+  boolean hasColumns(int category) {
+    for (int i = index.categoryExposureStart(category);
+        i < index.categoryExposureStart(category + 1); i++) {
+      if (holdingColumns[index.categoryExposureHolding(i)] >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The cash the fixed values put in the category, to subtract from its bounds.
+   */
+  double categoryOffset(int category) {
+    return categoryOffsets[category];
+  }
+
+  /**
+   * The expense of the fixed values, to add to the objective.
+   */
+  double fixedExpense() {
+    return fixedExpense;
+  }
+
+  /**
+   * Returns true if some account can't balance, whatever the category bounds.
+   */
+  boolean isInfeasible() {
+    return infeasible;
+  }
+
+  /**
+   * Returns the value of every holding given the last solve.
+   */
+  double[] holdingValues(LinearSolver solver) {
+    double[] values = fixedValues.clone();
+    for (int column = 0; column < columnHoldings.length; column++) {
+      values[columnHoldings[column]] += solver.value(column);
+    }
+    return values;
+  }
+}
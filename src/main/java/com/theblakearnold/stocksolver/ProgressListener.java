@@ -0,0 +1,13 @@
+package com.theblakearnold.stocksolver;
+
+/**
+ * Receives the progress of {@link StockSolver#optimizeWiggleRoomAdvanced} while it searches.
+ */
+public interface ProgressListener {
+
+  /**
+   * Called after each category order is tried, and once more when the search ends. Calls come
+   * from the search's worker threads one at a time, so they should return quickly.
+   */
+  void onProgress(OptimizationProgress progress);
+}
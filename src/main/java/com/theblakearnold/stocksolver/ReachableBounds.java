@@ -0,0 +1,107 @@
+package com.theblakearnold.stocksolver;
+
+import java.util.Arrays;
+
+/**
+ * The least and most cash each category can hold in any allocation, worked out once from the
+ * holdings, to screen out wiggles no solve could meet.
+ *
+ * <p>In each account, locked holdings and minimum balances are fixed, and the rest of the account
+ * value can go to any unlocked holding. A category therefore holds at least its share of the fixed
+ * cash plus the rest times the smallest category fraction among the unlocked holdings, and at
+ * most the same with the largest fraction. Summed over accounts, these bound the category
+ * whatever the other categories do, so a wiggle whose band around the target misses
+ * {@code [lower, upper]} is infeasible on its own. The converse does not hold: bands that each meet
+ * their bounds may still be infeasible together, and are left to the solver.
+ */
+class ReachableBounds {
+
+  /**
+   * Leaves room, in wiggle percent, for the solver's own tolerances.
+   */
+  private static final double TOLERANCE = 1e-6;
+
+  private final double[] minimumWiggles;
+  private final boolean infeasible;
+
+  private ReachableBounds(double[] minimumWiggles, boolean infeasible) {
+    this.minimumWiggles = minimumWiggles;
+    this.infeasible = infeasible;
+  }
+
+  static ReachableBounds of(PortfolioIndex index) {
+    int accountCount = index.accountCount();
+    double[] freeValues = new double[accountCount];
+    int[] unlockedCounts = new int[accountCount];
+    boolean infeasible = false;
+    for (int account = 0; account < accountCount; account++) {
+      double free = index.accountValue(account);
+      for (int h = index.holdingStart(account); h < index.holdingStart(account + 1); h++) {
+        free -= index.holdingMinimum(h);
+        if (!index.holdingLocked(h)) {
+          unlockedCounts[account]++;
+        }
+      }
+      // Minimums over the account value, or cash with nowhere to go, can't balance the account.
+      if (free < -TOLERANCE * index.accountValue(account)
+          || (free > TOLERANCE * index.accountValue(account) && unlockedCounts[account] == 0)) {
+        infeasible = true;
+      }
+      freeValues[account] = Math.max(0, free);
+    }
+
+    int categoryCount = index.categoryCount();
+    double[] minimumWiggles = new double[categoryCount];
+    double[] smallestFraction = new double[accountCount];
+    double[] largestFraction = new double[accountCount];
+    int[] exposedUnlocked = new int[accountCount];
+    for (int category = 0; category < categoryCount; category++) {
+      Arrays.fill(smallestFraction, Double.POSITIVE_INFINITY);
+      Arrays.fill(largestFraction, 0);
+      Arrays.fill(exposedUnlocked, 0);
+      double fixed = 0;
+      for (int i = index.categoryExposureStart(category);
+          i < index.categoryExposureStart(category + 1); i++) {
+        int holding = index.categoryExposureHolding(i);
+        double fraction = index.categoryExposureFraction(i);
+        fixed += fraction * index.holdingMinimum(holding);
+        if (!index.holdingLocked(holding)) {
+          int account = index.holdingAccount(holding);
+          exposedUnlocked[account]++;
+          smallestFraction[account] = Math.min(smallestFraction[account], fraction);
+          largestFraction[account] = Math.max(largestFraction[account], fraction);
+        }
+      }
+      double lower = fixed;
+      double upper = fixed;
+      for (int account = 0; account < accountCount; account++) {
+        // An unlocked holding outside the category can take the free cash instead.
+        if (exposedUnlocked[account] == unlockedCounts[account] && exposedUnlocked[account] > 0) {
+          lower += freeValues[account] * smallestFraction[account];
+        }
+        upper += freeValues[account] * largestFraction[account];
+      }
+      // The smallest wiggle percent whose band around the target meets the bounds.
+      double target = index.categoryTarget(category);
+      minimumWiggles[category] =
+          Math.max(0, Math.max((lower / target - 1) * 100, (1 - upper / target) * 100));
+    }
+    return new ReachableBounds(minimumWiggles, infeasible);
+  }
+
+  /**
+   * Returns true if the wiggles, indexed by category id, can't be feasible: an account can't
+   * balance, or a category's band misses its bounds.
+   */
+  boolean rejects(double[] wiggles) {
+    if (infeasible) {
+      return true;
+    }
+    for (int category = 0; category < wiggles.length; category++) {
+      if (wiggles[category] < minimumWiggles[category] - TOLERANCE) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,95 @@
+package com.theblakearnold.stocksolver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * One run of {@link StockSolver#optimizeWiggleRoomAdvanced}: its deadline, its solves and the
+ * best category wiggles found so far, reported to a {@link ProgressListener}.
+ *
+ * <p>The best wiggles start at the overall wiggle and take each improvement of any component,
+ * so with independent components they are always the best of each combined. Safe to share
+ * between the workers and components of the run; reports are made one at a time.
+ */
+final class SearchProgress {
+
+  private final long startNanos = System.nanoTime();
+  private final long budgetNanos;
+  @Nullable private final ProgressListener listener;
+  private final AtomicLong solves = new AtomicLong();
+  private final Map<String, Double> bestWiggles = new HashMap<>();
+  private int permutationsTried;
+  private volatile boolean cutShort;
+
+  /**
+   * @param listener where to report progress, or null to only keep the deadline
+   */
+  SearchProgress(OptimizationOptions options, @Nullable ProgressListener listener) {
+    this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(options.timeBudgetMillis());
+    this.listener = listener;
+  }
+
+  /**
+   * Returns true if the time budget has run out, remembering that the search stopped early.
+   * Called before work the search would otherwise do.
+   */
+  boolean shouldStop() {
+    if (budgetNanos > 0 && System.nanoTime() - startNanos >= budgetNanos) {
+      cutShort = true;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Whether the search skipped work because the time budget ran out.
+   */
+  boolean cutShort() {
+    return cutShort;
+  }
+
+  void countSolve() {
+    solves.incrementAndGet();
+  }
+
+  /**
+   * Starts the best wiggles at the overall wiggle, which is always feasible.
+   */
+  synchronized void overallWiggleFound(Map<String, Double> baseCategoryWiggles) {
+    bestWiggles.putAll(baseCategoryWiggles);
+  }
+
+  /**
+   * Takes a component's new best wiggles.
+   */
+  synchronized void improved(Map<String, Double> categoryWiggles) {
+    bestWiggles.putAll(categoryWiggles);
+  }
+
+  synchronized void orderTried() {
+    permutationsTried++;
+    report(false);
+  }
+
+  synchronized void done(Map<String, Double> categoryWiggles) {
+    bestWiggles.putAll(categoryWiggles);
+    report(true);
+  }
+
+  private void report(boolean done) {
+    if (listener == null) {
+      return;
+    }
+    double total = 0;
+    for (double wiggle : bestWiggles.values()) {
+      total += wiggle;
+    }
+    listener.onProgress(OptimizationProgress.create(permutationsTried,
+        bestWiggles.isEmpty() ? 0 : total / bestWiggles.size(), solves.get(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), done));
+  }
+}
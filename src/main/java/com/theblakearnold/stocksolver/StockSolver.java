@@ -2,149 +2,536 @@ package com.theblakearnold.stocksolver;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.collect.HashBasedTable;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Table;
-import com.google.ortools.linearsolver.MPConstraint;
-import com.google.ortools.linearsolver.MPObjective;
-import com.google.ortools.linearsolver.MPSolver;
-import com.google.ortools.linearsolver.MPSolver.OptimizationProblemType;
-import com.google.ortools.linearsolver.MPVariable;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Doubles;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
 import com.theblakearnold.stocksolver.model.AccountModel;
 import com.theblakearnold.stocksolver.model.CategoryGroupModel;
 import com.theblakearnold.stocksolver.model.CategoryModel;
-import com.theblakearnold.stocksolver.model.StockHoldingModel;
-import com.theblakearnold.stocksolver.model.StockModel;
 import com.theblakearnold.stocksolver.storage.StockSolverStorage;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 /**
  * Linear programming example that shows how to use the API.
  */
-
+@Singleton
 public class StockSolver {
 
   private final StockSolverStorage stockSolverStorage;
 
   private final static Logger log = Logger.getLogger(StockSolver.class.getName());
 
+  private PortfolioIndex portfolioIndex;
+  private CompiledModel compiledModel;
+
   @Inject
   public StockSolver(StockSolverStorage stockSolverStorage) {
     this.stockSolverStorage = stockSolverStorage;
   }
 
-  static {
-    System.loadLibrary("jniortools");
-  }
-
-  private static MPSolver createSolver(OptimizationProblemType solverType) {
-    return new MPSolver("IntegerProgrammingExample", solverType);
-  }
-
   public void printCurrentPercentage() {
-    printPercentage(stockSolverStorage.getAccounts());
+    if (!log.isLoggable(Level.INFO)) {
+      return;
+    }
+    PortfolioIndex index = portfolioIndex();
+    printPercentage(CategoryExposures.of(index,
+        index.holdingValues(stockSolverStorage.getAccounts())));
   }
 
-  private void printPercentage(List<AccountModel> accounts) {
-    double totalCash = 0;
-    for (AccountModel accountModel : accounts) {
-      // Sum up all money
-      totalCash += accountModel.value();
+  /**
+   * Logs each category's actual value and drift against its target.
+   */
+  private void printPercentage(CategoryExposures exposures) {
+    if (!log.isLoggable(Level.INFO)) {
+      return;
     }
-    for (CategoryGroupModel categoryGroupModel : stockSolverStorage.getCategoryGroups()) {
+    PortfolioIndex index = exposures.index();
+    double totalCash = index.totalValue();
+    int categoryId = 0;
+    for (CategoryGroupModel categoryGroupModel : index.categoryGroups()) {
       double categoryGroupTargetPercentage = 0;
       double categoryGroupTarget = 0;
       double categoryGroupActual = 0;
+      double categoryGroupDrift = 0;
       log.info("---Category Group---" + categoryGroupModel.name());
       for (CategoryModel category : categoryGroupModel.categories()) {
-        double categoryTarget = category.percent() / 100.0 * totalCash;
+        double categoryTarget = exposures.categoryTarget(categoryId);
+        double actual = exposures.categoryValue(categoryId);
+        double drift = exposures.drift(categoryId);
+        categoryId++;
         categoryGroupTarget += categoryTarget;
         categoryGroupTargetPercentage += category.percent();
-        double actual = 0;
-
-        for (AccountModel account : accounts) {
-          for (StockHoldingModel stockHolding : account.stocks()) {
-            if (stockHolding.stockModel().hasCategoryAllocation(category.name())) {
-              // setCoefficient of the percent the stock is in the category
-              double percent = stockHolding.stockModel().percentage(category.name());
-              actual += stockHolding.currentHolding() * (percent / 100.0);
-            }
-          }
-        }
         categoryGroupActual += actual;
-        log.info(String.format("%s: Target %s, %s, Actual %s, %s", category,
+        categoryGroupDrift += drift;
+        log.info(String.format("%s: Target %s, %s, Actual %s, %s, Drift %s", category,
             categoryTarget, category.percent(), actual,
-            actual / totalCash * 100));
+            actual / totalCash * 100, drift));
       }
-      log.info(String.format("--- GROUP Totals: Target %s, %s, Actual %s, %s",
+      log.info(String.format("--- GROUP Totals: Target %s, %s, Actual %s, %s, Drift %s",
           categoryGroupTarget, categoryGroupTargetPercentage,
           categoryGroupActual,
-          categoryGroupActual / totalCash * 100));
+          categoryGroupActual / totalCash * 100, categoryGroupDrift));
     }
-    for (AccountModel account : accounts) {
-      log.info(String.format("%s: Cash Invested: %s", account.name(), account.value()));
+    for (int account = 0; account < index.accountCount(); account++) {
+      log.info(String.format("%s: Cash Invested: %s", index.accountName(account),
+          exposures.accountValue(account)));
     }
-    log.info(String.format("Total Cash Invested: %s", totalCash));
+    log.info(String.format("Total Cash Invested: %s", exposures.totalValue()));
   }
 
-  public void optimizeWiggleRoomAdvanced(final OptimizationProblemType solverType,
+  public OptimizationResult optimizeWiggleRoomAdvanced(final SolverBackend backend,
       double optimizeTil) {
+    return optimizeWiggleRoomAdvanced(backend,
+        OptimizationOptions.newBuilder().setOptimizeTil(optimizeTil).build());
+  }
+
+  public OptimizationResult optimizeWiggleRoomAdvanced(final SolverBackend backend,
+      OptimizationOptions options) {
+    return optimize(backend, options, Optional.<WarmStart>absent(), null);
+  }
+
+  /**
+   * Optimizes like {@link #optimizeWiggleRoomAdvanced(SolverBackend, OptimizationOptions)},
+   * reporting to {@code listener} after each category order and when the search ends.
+   *
+   * <p>With a {@link OptimizationOptions#timeBudgetMillis time budget} this is an anytime
+   * search: it answers within about the budget, plus the overall search and the category being
+   * tightened when the budget runs out, with the lowest average found so far.
+   */
+  public OptimizationResult optimizeWiggleRoomAdvanced(SolverBackend backend,
+      OptimizationOptions options, ProgressListener listener) {
+    return optimize(backend, options, Optional.<WarmStart>absent(),
+        Preconditions.checkNotNull(listener));
+  }
+
+  /**
+   * Optimizes like {@link #optimizeWiggleRoomAdvanced(SolverBackend, OptimizationOptions)},
+   * starting from the household's last run in {@code store}, and saves this run for the next.
+   *
+   * <p>If nothing the result depends on changed, the last solution is returned without a solve.
+   * If only values changed, the overall bisection starts from the last overall wiggle, and
+   * {@link OptimizationOptions.SearchStrategy#RANDOM_PERMUTATIONS} tightens the categories once,
+   * in the last best order, instead of trying random orders, starting each category from its last
+   * wiggle. If the categories, accounts or holdings changed, the last run doesn't map onto this
+   * one and the search starts cold. A search cut short by its time budget is saved only as a
+   * starting point, never returned as the answer.
+   */
+  public OptimizationResult optimizeWiggleRoomAdvanced(SolverBackend backend,
+      OptimizationOptions options, WarmStartStore store, String household) {
+    PortfolioIndex index = portfolioIndex();
+    Optional<WarmStart> warmStart = store.load(household);
+    if (warmStart.isPresent() && !warmStart.get().shape().equals(WarmStart.shapeOf(index))) {
+      log.info("Portfolio changed shape since the last run, starting cold: " + household);
+      warmStart = Optional.absent();
+    }
+    if (warmStart.isPresent()
+        && warmStart.get().inputs().equals(WarmStart.inputsOf(index, options))) {
+      log.info("Portfolio unchanged since the last run: " + household);
+      return result(index, warmStart.get().categoryWiggles(),
+          index.buildAccounts(Doubles.toArray(warmStart.get().holdingValues())), true);
+    }
+    OptimizationResult result = optimize(backend, options, warmStart, null);
+    WarmStart next = WarmStart.of(index, options, result.categoryWiggles(),
+        index.holdingValues(result.accounts()));
+    if (!result.complete()) {
+      // Without the inputs fingerprint the next run searches again, from these wiggles.
+      next = WarmStart.create(next.shape(), "", next.categoryWiggles(), next.holdingValues());
+    }
+    store.save(household, next);
+    return result;
+  }
+
+  /**
+   * @param listener where to report progress, or null
+   */
+  private OptimizationResult optimize(SolverBackend backend, OptimizationOptions options,
+      Optional<WarmStart> warmStart, @Nullable ProgressListener listener) {
+    SearchProgress progress = new SearchProgress(options, listener);
+    // Every probe below only changes category bounds, so share one compiled model.
+    CompiledModel model = compiledModel(backend, options.presolve());
+
+    Map<String, Double> lowestSolution;
+    switch (options.searchStrategy()) {
+      case LEXICOGRAPHIC:
+        lowestSolution = new LexicographicOptimizer(
+            WiggleModel.compile(model.index(), backend, options.presolve())).optimize(progress);
+        break;
+      default:
+        lowestSolution = searchPermutations(model, backend, options, warmStart, progress);
+    }
+    progress.done(lowestSolution);
+    if (progress.cutShort()) {
+      log.info("Time budget ran out, keeping the best wiggles found so far");
+    }
+
+    log.info(String.format("Smallest wiggle found %s", lowestSolution));
+    Optional<List<AccountModel>> solution = model.solve(lowestSolution, true);
+    return result(model.index(), lowestSolution, solution.get(), !progress.cutShort());
+  }
+
+  private OptimizationResult result(PortfolioIndex index, Map<String, Double> categoryWiggles,
+      List<AccountModel> accounts, boolean complete) {
+    CategoryExposures exposures = CategoryExposures.of(index, index.holdingValues(accounts));
+    List<HoldingChange> changes = diff(exposures);
+    printDiff(exposures, changes);
+    printPercentage(exposures);
+    return OptimizationResult.create(categoryWiggles, accounts, changes, complete);
+  }
+
+  /**
+   * Finds the overall wiggle, then bisects each category in random orders, returning the
+   * category wiggles with the lowest average, in the order they were tightened. Independent
+   * components are searched separately.
+   */
+  private Map<String, Double> searchPermutations(CompiledModel model,
+      SolverBackend backend, OptimizationOptions options, Optional<WarmStart> warmStart,
+      SearchProgress progress) {
+    // Probes from the overall search and every permutation share what they learn about which
+    // wiggles are feasible.
+    FeasibilityOracle oracle = new FeasibilityOracle(model.index(), progress);
+
     // Find overall optimization
-    double overallWiggle = findOverallWiggle(solverType, optimizeTil);
+    double overallWiggle;
+    switch (options.overallWiggleMode()) {
+      case MINIMAX:
+        overallWiggle = findOverallWiggleMinimax(model.index(), backend, options.presolve());
+        progress.countSolve();
+        break;
+      default:
+        overallWiggle = findOverallWiggle(model, oracle, options.optimizeTil(), warmStart);
+    }
+    progress.overallWiggleFound(buildCategoryMap(overallWiggle));
+
+    List<PortfolioComponent> components = options.decompose()
+        ? PortfolioComponent.split(model.index()) : ImmutableList.<PortfolioComponent>of();
+    if (components.size() > 1) {
+      return searchComponents(components, backend, options, overallWiggle, warmStart,
+          progress);
+    }
+    return searchCategories(model, backend, options, overallWiggle, oracle, warmStart,
+        progress);
+  }
 
+  /**
+   * Bisects each category in random orders, starting every category at the overall wiggle,
+   * returning the category wiggles with the lowest average. With
+   * {@link OptimizationOptions.SearchStrategy#MINIMUM_AVERAGE}, solves for the lowest average
+   * directly instead, if the time budget hasn't run out. With a warm start, only tries the warm
+   * start's order. Stops early when the time budget runs out.
+   */
+  private Map<String, Double> searchCategories(CompiledModel model, SolverBackend backend,
+      OptimizationOptions options, double overallWiggle, FeasibilityOracle oracle,
+      Optional<WarmStart> warmStart, SearchProgress progress) {
+    if (options.searchStrategy() == OptimizationOptions.SearchStrategy.MINIMUM_AVERAGE) {
+      // One solve that can't be stopped part way, so only start it with budget left.
+      if (progress.shouldStop()) {
+        return buildCategoryMap(overallWiggle);
+      }
+      progress.countSolve();
+      return findMinimumAverage(model.index(), backend, options.presolve(), overallWiggle);
+    }
     // Find each category optimization.
     Map<String, Double> baseCategoryWiggles = buildCategoryMap(overallWiggle);
-    List<String> categories = ImmutableList.copyOf(baseCategoryWiggles.keySet());
-    Set<List<String>> tried = new HashSet<>();
-    List<Map<String, Double>> solutions = new ArrayList<>();
-    Map<String, Double> lowestSolution = null;
-    double lowestAverage = 100;
-    // Look through 1000 random combos.
+    BestSolution best = new BestSolution(progress);
+
+    if (warmStart.isPresent()) {
+      List<String> order = new ArrayList<>();
+      for (String category : warmStart.get().categoryWiggles().keySet()) {
+        if (baseCategoryWiggles.containsKey(category)) {
+          order.add(category);
+        }
+      }
+      new PermutationWorker(model.index(), model, backend, options, baseCategoryWiggles,
+          new HashSet<List<String>>(), new AtomicInteger(), oracle, best, progress)
+          .tryOrder(order, warmStart.get().categoryWiggles());
+      log.info("Feasibility oracle: " + oracle);
+      return best.categoryWiggles(baseCategoryWiggles);
+    }
 
     // TODO(blake): We should probably find dependent categories and mess with those
-    // instead of just finding random orders.
-    for (int i = 0; i < 100; i++) {
-      log.info("Trying " + i);
-      List<String> categoriesPerm = buildRandomOrder(categories);
-      if (!tried.add(categoriesPerm)) {
-        log.info("Skipping");
-        continue;
+    // instead of just finding random orders. Independent ones are already split off, see
+    // PortfolioComponent and SearchStrategy.LEXICOGRAPHIC.
+    if (options.threads() == 1) {
+      new PermutationWorker(model.index(), model, backend, options, baseCategoryWiggles,
+          new HashSet<List<String>>(), new AtomicInteger(), oracle, best, progress).call();
+    } else {
+      searchPermutationsInParallel(model.index(), backend, options, baseCategoryWiggles, oracle,
+          best, progress);
+    }
+    log.info("Feasibility oracle: " + oracle);
+    return best.categoryWiggles(baseCategoryWiggles);
+  }
+
+  /**
+   * Runs {@link #searchCategories} on each component with its own solver, merging the category
+   * wiggles. Components run at once, sharing {@code options.threads()} between them.
+   *
+   * <p>Every component starts from the overall wiggle of the whole portfolio, as the categories
+   * would without the split. A category's bisection then depends only on the order of the
+   * categories in its own component, so the split tries every result a whole order would, and
+   * the average over all categories is lowest when each component's sum is.
+   */
+  private Map<String, Double> searchComponents(List<PortfolioComponent> components,
+      final SolverBackend backend, OptimizationOptions options, final double overallWiggle,
+      final Optional<WarmStart> warmStart, final SearchProgress progress) {
+    log.info(String.format("Searching %s independent components", components.size()));
+    final OptimizationOptions componentOptions = options.toBuilder()
+        .setThreads(Math.max(1, options.threads() / components.size()))
+        .build();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(options.threads(), components.size()),
+            new ThreadFactoryBuilder().setNameFormat("stock-solver-component-%d")
+                .setDaemon(true).build());
+    try {
+      List<Future<Map<String, Double>>> searches = new ArrayList<>();
+      for (final PortfolioComponent component : components) {
+        searches.add(executor.submit(new Callable<Map<String, Double>>() {
+          @Override
+          public Map<String, Double> call() {
+            log.info("Searching component with " + component);
+            StockSolver componentSolver = new StockSolver(component);
+            CompiledModel componentModel =
+                componentSolver.compiledModel(backend, componentOptions.presolve());
+            return componentSolver.searchCategories(componentModel, backend, componentOptions,
+                overallWiggle, new FeasibilityOracle(componentModel.index(), progress), warmStart,
+                progress);
+          }
+        }));
+      }
+      Map<String, Double> categoryWiggles = new LinkedHashMap<>();
+      for (Future<Map<String, Double>> search : searches) {
+        categoryWiggles.putAll(search.get());
+      }
+      return categoryWiggles;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while optimizing", e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Spreads the random category orders across {@code options.threads()} workers, each with its
+   * own compiled model. Workers share the set of tried orders and the best solution.
+   */
+  private void searchPermutationsInParallel(PortfolioIndex index,
+      SolverBackend backend, OptimizationOptions options,
+      Map<String, Double> baseCategoryWiggles, FeasibilityOracle oracle, BestSolution best,
+      SearchProgress progress) {
+    Set<List<String>> tried =
+        Collections.newSetFromMap(new ConcurrentHashMap<List<String>, Boolean>());
+    AtomicInteger nextPermutation = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(options.threads(),
+        new ThreadFactoryBuilder().setNameFormat("stock-solver-%d").setDaemon(true).build());
+    try {
+      List<Future<Void>> workers = new ArrayList<>();
+      for (int i = 0; i < options.threads(); i++) {
+        workers.add(executor.submit(new PermutationWorker(index, null, backend, options,
+            baseCategoryWiggles, tried, nextPermutation, oracle, best, progress)));
       }
+      for (Future<Void> worker : workers) {
+        worker.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while optimizing", e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Takes permutation indexes from a shared counter until all have been tried. Permutation
+   * {@code i} is always built from {@code seed} and {@code i}, so which worker runs it does not
+   * matter.
+   * Stops taking permutations, and tightening categories, once the time budget runs out.
+   */
+  private class PermutationWorker implements Callable<Void> {
+    private final PortfolioIndex index;
+    @Nullable private CompiledModel model;
+    private final SolverBackend backend;
+    private final OptimizationOptions options;
+    private final Map<String, Double> baseCategoryWiggles;
+    private final List<String> categories;
+    private final Set<List<String>> tried;
+    private final AtomicInteger nextPermutation;
+    private final FeasibilityOracle oracle;
+    private final BestSolution best;
+    private final SearchProgress progress;
+
+    /**
+     * @param model the model to solve with, or null to compile one on the worker thread
+     */
+    PermutationWorker(PortfolioIndex index, @Nullable CompiledModel model,
+        SolverBackend backend, OptimizationOptions options,
+        Map<String, Double> baseCategoryWiggles, Set<List<String>> tried,
+        AtomicInteger nextPermutation, FeasibilityOracle oracle, BestSolution best,
+        SearchProgress progress) {
+      this.index = index;
+      this.model = model;
+      this.backend = backend;
+      this.options = options;
+      this.baseCategoryWiggles = baseCategoryWiggles;
+      this.categories = ImmutableList.copyOf(baseCategoryWiggles.keySet());
+      this.tried = tried;
+      this.nextPermutation = nextPermutation;
+      this.oracle = oracle;
+      this.best = best;
+      this.progress = progress;
+    }
+
+    @Override
+    public Void call() {
+      for (int i = nextPermutation.getAndIncrement(); i < options.permutations();
+          i = nextPermutation.getAndIncrement()) {
+        if (progress.shouldStop()) {
+          break;
+        }
+        log.info("Trying " + i);
+        List<String> categoriesPerm =
+            buildRandomOrder(categories, permutationRandom(i));
+        if (!tried.add(categoriesPerm)) {
+          log.info("Skipping");
+          continue;
+        }
+        tryOrder(categoriesPerm, ImmutableMap.<String, Double>of());
+      }
+      return null;
+    }
+
+    /**
+     * Returns the random source of permutation {@code i}. The seed is hashed with {@code i}, since
+     * {@link Random}s seeded {@code seed + i} start with nearly the same numbers, which gave
+     * every permutation of a small component the same order.
+     */
+    private Random permutationRandom(int i) {
+      return new Random(Hashing.murmur3_128().newHasher()
+          .putLong(options.seed())
+          .putInt(i)
+          .hash().asLong());
+    }
+
+    /**
+     * Tightens each category in turn, starting from its wiggle in {@code hints} if it has one,
+     * and offers the wiggles, in that order, to the best solution. If the time budget runs out,
+     * the categories not yet tightened keep their base wiggle, which is still feasible.
+     *
+     * <p>In {@link OptimizationOptions.CategoryWiggleMode#EXACT} mode each order gets a newly
+     * compiled model. A warm started solve lands on the same vertex but can differ in the low
+     * bits, so sharing one model across orders would make the result depend on which orders
+     * the worker tried before, and so on the number of threads.
+     */
+    void tryOrder(List<String> order, Map<String, Double> hints) {
+      if (model == null) {
+        model = CompiledModel.compile(index, backend, options.presolve());
+      }
+      CategoryWiggleModel wiggleModel =
+          options.categoryWiggleMode() == OptimizationOptions.CategoryWiggleMode.EXACT
+              ? CategoryWiggleModel.compile(index, backend, options.presolve())
+              : null;
+      SolverMetrics.get().increment(SolverMetrics.PERMUTATIONS);
       Map<String, Double> categoryWiggles = new HashMap<>(baseCategoryWiggles);
-      log.info("Optimizing with order: " + categoriesPerm);
-      for (String category : categoriesPerm) {
-        double categoryWiggle = findCategoryWiggle(solverType, optimizeTil, categoryWiggles,
-            category);
+      log.info("Optimizing with order: " + order);
+      for (String category : order) {
+        if (progress.shouldStop()) {
+          break;
+        }
+        double categoryWiggle;
+        if (wiggleModel != null) {
+          categoryWiggle = findCategoryWiggleExact(wiggleModel, index, categoryWiggles, category);
+          progress.countSolve();
+        } else {
+          categoryWiggle = findCategoryWiggle(model, oracle, options.optimizeTil(),
+              categoryWiggles, category, Optional.fromNullable(hints.get(category)));
+        }
         categoryWiggles.put(category, categoryWiggle);
       }
       double average = calculateAverage(categoryWiggles.values());
-      if (average < lowestAverage) {
-        lowestAverage = average;
-        lowestSolution = categoryWiggles;
+      Map<String, Double> orderedWiggles = new LinkedHashMap<>();
+      for (String category : order) {
+        orderedWiggles.put(category, categoryWiggles.get(category));
+      }
+      orderedWiggles.putAll(categoryWiggles);
+      if (best.offer(average, order, orderedWiggles)) {
         log.info(String.format("found next smallest %s", average));
       }
-      solutions.add(categoryWiggles);
+      progress.orderTried();
     }
+  }
 
-    log.info(String.format("Smallest wiggle found %s", lowestSolution));
-    Optional<List<AccountModel>> solution = runSolver(solverType, lowestSolution, true);
-    printDiff(stockSolverStorage.getAccounts(), solution.get());
-    printPercentage(solution.get());
+  /**
+   * The lowest average wiggle found so far, safe to share between workers.
+   *
+   * <p>Ties on the average are broken by the category order, so the winner does not depend on
+   * which worker finished first. Each improvement is passed on to the run's progress.
+   */
+  private static class BestSolution {
+    private final SearchProgress progress;
+    private double lowestAverage = 100;
+    private List<String> order;
+    private Map<String, Double> categoryWiggles;
+
+    BestSolution(SearchProgress progress) {
+      this.progress = progress;
+    }
+
+    synchronized boolean offer(double average, List<String> order,
+        Map<String, Double> categoryWiggles) {
+      if (average < lowestAverage || (average == lowestAverage && this.order != null
+          && Ordering.<String>natural().lexicographical().compare(order, this.order) < 0)) {
+        this.lowestAverage = average;
+        this.order = order;
+        this.categoryWiggles = categoryWiggles;
+        progress.improved(categoryWiggles);
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Returns the best wiggles, or {@code fallback} if the time budget ran out before any order
+     * was offered.
+     */
+    synchronized Map<String, Double> categoryWiggles(Map<String, Double> fallback) {
+      return categoryWiggles != null ? categoryWiggles : fallback;
+    }
   }
 
   private double calculateAverage(Collection<Double> values) {
@@ -155,17 +542,18 @@ public class StockSolver {
     return total/values.size();
   }
 
-  private double findOverallWiggle(final OptimizationProblemType solverType,
-      double optimizeTil) {
-    Optional<Double> overallOptimization =
-        binarySearch(optimizeTil, 100, new Function<Double, Boolean>() {
-          @Override
-          public Boolean apply(Double wigglePercent) {
-            Optional<List<AccountModel>> solution = runSolver(
-                solverType, buildCategoryMap(wigglePercent), false);
-            return solution.isPresent();
-          }
-        });
+  private double findOverallWiggle(final CompiledModel model, final FeasibilityOracle oracle,
+      double optimizeTil, Optional<WarmStart> warmStart) {
+    Function<Double, Boolean> feasible = new Function<Double, Boolean>() {
+      @Override
+      public Boolean apply(Double wigglePercent) {
+        return oracle.isFeasible(model, buildCategoryMap(wigglePercent),
+            SolverMetrics.PHASE_OVERALL);
+      }
+    };
+    Optional<Double> overallOptimization = warmStart.isPresent()
+        ? searchFrom(optimizeTil, warmStart.get().overallWiggle(), 100, feasible)
+        : binarySearch(optimizeTil, 100, feasible);
     if (!overallOptimization.isPresent()) {
       log.warning("Failed to optimize wiggle percent.");
       throw new RuntimeException("Failed to optimize");
@@ -174,19 +562,55 @@ public class StockSolver {
     return overallOptimization.get();
   }
 
-  private double findCategoryWiggle(final OptimizationProblemType solverType,
-      double optimizeTil, final Map<String, Double> categoryWiggle, final String category) {
+  private double findOverallWiggleMinimax(PortfolioIndex index,
+      SolverBackend backend, boolean presolve) {
     Optional<Double> overallOptimization =
-        binarySearch(optimizeTil, categoryWiggle.get(category), new Function<Double, Boolean>() {
-          @Override
-          public Boolean apply(Double wigglePercent) {
-            Map<String, Double> modifiedCategoryWiggle = new HashMap<>(categoryWiggle);
-            modifiedCategoryWiggle.put(category, wigglePercent);
-            Optional<List<AccountModel>> solution = runSolver(solverType, modifiedCategoryWiggle,
-                false);
-            return solution.isPresent();
-          }
-        });
+        WiggleModel.compile(index, backend, presolve).minimizeWiggle();
+    if (!overallOptimization.isPresent()) {
+      log.warning("Failed to optimize wiggle percent.");
+      throw new RuntimeException("Failed to optimize");
+    }
+    log.info(String.format("Overall Optimized with percent %s.", overallOptimization.get()));
+    return overallOptimization.get();
+  }
+
+  private Map<String, Double> findMinimumAverage(PortfolioIndex index, SolverBackend backend,
+      boolean presolve, double overallWiggle) {
+    Optional<double[]> categoryWiggles = CategoryWiggleModel.compile(index, backend, presolve)
+        .minimizeTotalWiggle(overallWiggle);
+    if (!categoryWiggles.isPresent()) {
+      log.warning("Failed to optimize wiggle percent.");
+      throw new RuntimeException("Failed to optimize");
+    }
+    Map<String, Double> result = new LinkedHashMap<>();
+    for (int category = 0; category < index.categoryCount(); category++) {
+      result.put(index.categoryName(category), categoryWiggles.get()[category]);
+    }
+    log.info(String.format("Minimum average %s.", calculateAverage(result.values())));
+    return result;
+  }
+
+  /**
+   * @param hint a wiggle to try first, or absent to bisect from scratch
+   */
+  private double findCategoryWiggle(final CompiledModel model, final FeasibilityOracle oracle,
+      double optimizeTil, final Map<String, Double> categoryWiggle, final String category,
+      Optional<Double> hint) {
+    Function<Double, Boolean> feasible = new Function<Double, Boolean>() {
+      @Override
+      public Boolean apply(Double wigglePercent) {
+        Map<String, Double> modifiedCategoryWiggle = new HashMap<>(categoryWiggle);
+        modifiedCategoryWiggle.put(category, wigglePercent);
+        return oracle.isFeasible(model, modifiedCategoryWiggle,
+            SolverMetrics.PHASE_CATEGORY);
+      }
+    };
+    // The category's current wiggle is always feasible, so never start above it.
+    double current = categoryWiggle.get(category);
+    Optional<Double> overallOptimization = hint.isPresent()
+        ? Optional.of(searchFrom(optimizeTil, Math.min(hint.get(), current), current, feasible)
+            .or(current))
+        : binarySearch(optimizeTil, current, feasible);
     if (!overallOptimization.isPresent()) {
       log.warning("Failed to optimize wiggle percent.");
       throw new RuntimeException("Failed to optimize");
@@ -194,10 +618,26 @@ public class StockSolver {
     return overallOptimization.get();
   }
 
-  private <T> List<T> buildRandomOrder(List<T> items) {
+  private double findCategoryWiggleExact(CategoryWiggleModel model, PortfolioIndex index,
+      Map<String, Double> categoryWiggle, String category) {
+    double[] wiggles = new double[index.categoryCount()];
+    for (int c = 0; c < wiggles.length; c++) {
+      wiggles[c] = categoryWiggle.get(index.categoryName(c));
+    }
+    SolverMetrics.get().increment(SolverMetrics.PHASE_CATEGORY + SolverMetrics.PROBES);
+    SolverMetrics.get().increment(SolverMetrics.PHASE_CATEGORY + SolverMetrics.SOLVES);
+    Optional<Double> categoryOptimization =
+        model.minimizeCategoryWiggle(index.categoryId(category), wiggles);
+    if (!categoryOptimization.isPresent()) {
+      log.warning("Failed to optimize wiggle percent.");
+      throw new RuntimeException("Failed to optimize");
+    }
+    return categoryOptimization.get();
+  }
+
+  private <T> List<T> buildRandomOrder(List<T> items, Random random) {
     List<T> copyOfList = new ArrayList<>(items);
     ImmutableList.Builder<T> result = ImmutableList.builder();
-    Random random = new Random();
     while (copyOfList.size() > 1) {
       result.add(copyOfList.remove(random.nextInt(copyOfList.size())));
     }
@@ -211,8 +651,15 @@ public class StockSolver {
    */
   private Optional<Double> binarySearch(double optimizeTil, double maxBound,
       Function<Double, Boolean> function) {
-    double lowerBound = 0;
-    double upperBound = 100;
+    return binarySearch(optimizeTil, 0, 100, function);
+  }
+
+  /**
+   * Searches between the bounds for a successful run, minimizing the input.
+   * Returns the minimum input found that runs successfully.
+   */
+  private Optional<Double> binarySearch(double optimizeTil, double lowerBound,
+      double upperBound, Function<Double, Boolean> function) {
     Optional<Double> lastGoodPercent= Optional.absent();
     // Run until we hit the optimize percent, or the last run was not successful.
     while (Math.abs(lowerBound - upperBound) > optimizeTil) {
@@ -229,6 +676,41 @@ public class StockSolver {
 
   }
 
+  /**
+   * Searches like {@link #binarySearch}, starting from a guess. Steps of {@code optimizeTil},
+   * doubling each time, walk away from the guess until the runs change from failing to
+   * successful, then the last step is bisected. If the guess runs successfully and
+   * {@code optimizeTil} below it doesn't, that takes two runs instead of a whole bisection.
+   *
+   * @param upperBound how far above the guess to search if the guess doesn't run successfully
+   */
+  private Optional<Double> searchFrom(double optimizeTil, double guess, double upperBound,
+      Function<Double, Boolean> function) {
+    double step = optimizeTil;
+    if (function.apply(guess)) {
+      double good = guess;
+      while (good > 0) {
+        double next = Math.max(0, good - step);
+        if (!function.apply(next)) {
+          return binarySearch(optimizeTil, next, good, function).or(Optional.of(good));
+        }
+        good = next;
+        step *= 2;
+      }
+      return Optional.of(good);
+    }
+    double bad = guess;
+    while (bad < upperBound) {
+      double next = Math.min(upperBound, bad + step);
+      if (function.apply(next)) {
+        return binarySearch(optimizeTil, bad, next, function).or(Optional.of(next));
+      }
+      bad = next;
+      step *= 2;
+    }
+    return Optional.absent();
+  }
+
   private Map<String, Double> buildCategoryMap(double wigglePercent) {
     ImmutableMap.Builder wigglePercentsBuilder = ImmutableMap.builder();
     for (CategoryGroupModel categoryGroupModel : stockSolverStorage.getCategoryGroups()) {
@@ -239,162 +721,97 @@ public class StockSolver {
     return wigglePercentsBuilder.build();
   }
 
-  public Optional<List<AccountModel>> runSolver(
-      MPSolver.OptimizationProblemType solverType, Map<String, Double> categoryWiggleRoom,
+  /**
+   * Solves the allocation with each category held within its wiggle percent of its target.
+   */
+  public Optional<List<AccountModel>> runSolver(SolverBackend backend,
+      Map<String, Double> categoryWiggleRoom, boolean debugOn) {
+    return compiledModel(backend, true).solve(categoryWiggleRoom, debugOn);
+  }
+
+  /**
+   * Finds the smallest wiggle every category can share in one solve, then minimizes the expense
+   * ratio with that wiggle fixed.
+   */
+  public Optional<List<AccountModel>> runMinimaxSolver(SolverBackend backend,
       boolean debugOn) {
-    MPSolver solver = createSolver(solverType);
-    if (solver == null) {
-      throw new IllegalArgumentException("Could not create solver " + solverType);
-    }
-    double infinity = MPSolver.infinity();
-    Map<AccountModel, Map<StockModel, MPVariable>> mpVariables = new HashMap<>();
-    List<MPConstraint> otherConstraints = new ArrayList<>();
-    double totalCash = 0;
-
-    // Initialize variables, one per stock.
-    // Also count the amount of total cash in all accounts for later use.
-    for (AccountModel accountModel : stockSolverStorage.getAccounts()) {
-      // Sum up all money
-      totalCash += accountModel.value();
-      Map<StockModel, MPVariable> stockModelVariables = new HashMap<>();
-      for (StockHoldingModel stockHoldingModel : accountModel.stocks()) {
-        // Start name with '_' to ensure it doesn't start with a number, which is not accepted for
-        // cp solver.
-        String name = "_" + accountModel.name() + "_" + stockHoldingModel.stockModel().ticker();
-        // Set stock holdings to be account minimum holdings to infinity.
-        MPVariable mpVariable;
-        if (!stockHoldingModel.isLocked()) {
-          mpVariable = solver.makeNumVar(stockHoldingModel.minimumBalance(), infinity, name);
-        } else {
-          mpVariable = solver.makeNumVar(stockHoldingModel.minimumBalance(),
-                                         stockHoldingModel.minimumBalance(), name);
-        }
-        stockModelVariables.put(stockHoldingModel.stockModel(), mpVariable);
-        log.fine(String.format("Added Ticker %s lb: %s",
-                                         name, stockHoldingModel.minimumBalance()));
-      }
-      mpVariables.put(accountModel, stockModelVariables);
-    }
-
-    // Add constraints that ensure total of stocks in each account is less than
-    // or equal to account value
-    for (AccountModel account : mpVariables.keySet()) {
-      // x1 + x2 + x3 + ... <= ACCOUNT VALUE.
-      MPConstraint constraint = solver.makeConstraint(account.value(), account.value());
-      log.fine(String.format("Constraint #%s lb: %s, ub: %s", account.name(),
-                                       constraint.lb(), constraint.ub()));
-      Map<StockModel, MPVariable> variablesByStock = mpVariables.get(account);
-      // Add stocks to contraints.
-      for (StockModel stock : variablesByStock.keySet()) {
-        constraint.setCoefficient(variablesByStock.get(stock), 1);
-        otherConstraints.add(constraint);
-      }
+    WiggleModel model = WiggleModel.compile(portfolioIndex(), backend);
+    Optional<Double> wigglePercent = model.minimizeWiggle();
+    if (!wigglePercent.isPresent()) {
+      return Optional.absent();
     }
-
-    // Add constraint that each category is within the wiggle range
-    for (CategoryGroupModel categoryGroupModel : stockSolverStorage.getCategoryGroups()) {
-      for (CategoryModel category : categoryGroupModel.categories()) {
-        double categoryTarget = category.percent() / 100 * totalCash;
-        double wiggleRoomCategoryCash =
-            categoryWiggleRoom.get(category.name()) / 100.0 * categoryTarget;
-        MPConstraint constraint = solver.makeConstraint(categoryTarget - wiggleRoomCategoryCash,
-                                                        categoryTarget + wiggleRoomCategoryCash);
-        log.fine(String.format("Constraint #%s lb: %s, ub: %s", category,
-                                         constraint.lb(), constraint.ub()));
-        otherConstraints.add(constraint);
-
-        // categoryTarget - wiggleRoomCategoryCash <= stock_1 *
-        // percent_in_category + stock_2 + percent_in_category + ... <=
-        // categoryTarget + wiggleRoomCategoryGroupCash
-        // Find all stocks in the category and add them to the constraint.
-        for (AccountModel account : mpVariables.keySet()) {
-          Map<StockModel, MPVariable> variablesByStock = mpVariables.get(account);
-          for (StockModel stock : variablesByStock.keySet()) {
-            if (stock.hasCategoryAllocation(category.name())) {
-              // setCoefficient of the percent the stock is in the category
-              double percent = stock.percentage(category.name());
-              constraint.setCoefficient(variablesByStock.get(stock), percent / 100.0);
-            }
-          }
-        }
-      }
+    if (debugOn) {
+      log.info(String.format("Overall Optimized with percent %s.", wigglePercent.get()));
     }
+    return model.minimizeExpense(wigglePercent.get(), debugOn);
+  }
 
-    // Add objective that ensure minimum expense ratio
-    MPObjective objective = solver.objective();
-    for (AccountModel account : mpVariables.keySet()) {
-      // Minimize x1 + x2 + x3 + ....
-      Map<StockModel, MPVariable> variablesByStock = mpVariables.get(account);
-      // Add stocks to obejctive.
-      for (StockModel stock : variablesByStock.keySet()) {
-        objective.setCoefficient(variablesByStock.get(stock), stock.expenseRatio());
-      }
+  /**
+   * Returns the compiled model for the current storage snapshot, compiling it if the storage
+   * changed or a different backend or presolve setting is requested.
+   */
+  private synchronized CompiledModel compiledModel(SolverBackend backend, boolean presolve) {
+    if (compiledModel == null
+        || !compiledModel.isCompiledFrom(stockSolverStorage, backend, presolve)) {
+      compiledModel = CompiledModel.compile(portfolioIndex(), backend, presolve);
     }
-    objective.minimization();
-
-    log.fine("Number of variables = " + solver.numVariables());
-    log.fine("Number of constraints = " + solver.numConstraints());
-
-    MPSolver.ResultStatus resultStatus = solver.solve();
-    log.fine(resultStatus.toString() + " Solution found");
+    return compiledModel;
+  }
 
-    // Check that the problem has an optimal solution.
-    if (resultStatus != MPSolver.ResultStatus.OPTIMAL) {
-      return Optional.absent();
+  /**
+   * Returns the index of the current storage snapshot, rebuilding it if the storage changed.
+   * Shared with the {@link InputValidator} of the same storage.
+   */
+  synchronized PortfolioIndex portfolioIndex() {
+    if (portfolioIndex == null || !portfolioIndex.isIndexOf(stockSolverStorage)) {
+      portfolioIndex = PortfolioIndex.of(stockSolverStorage);
     }
-    log.fine("Problem solved in " + solver.wallTime() + " milliseconds");
-    log.fine("Problem solved in " + solver.iterations() + " iterations");
+    return portfolioIndex;
+  }
 
-    if (debugOn) {
-      // The objective value of the solution.
-      log.info("Yearly Fees = " + solver.objective().value()/100);
-    }
-
-    // Build account Models for new holdings
-    List<AccountModel> newHoldings = new ArrayList<>();
-    for (AccountModel account : mpVariables.keySet()) {
-      AccountModel.Builder accountModelBuilder = AccountModel.newBuilder();
-      double accountActual = 0;
-      Map<StockModel, MPVariable> variablesByStock = mpVariables.get(account);
-      for (StockModel stockModel : variablesByStock.keySet()) {
-        double value = variablesByStock.get(stockModel).solutionValue();
-        accountActual += value;
-        accountModelBuilder.addStockHoldingModel(
-            StockHoldingModel.create(stockModel, 0, false, value));
+  /**
+   * Pairs the new value of every holding with its current holding.
+   *
+   * @param exposures worked out from the new holding values
+   */
+  static List<HoldingChange> diff(CategoryExposures exposures) {
+    PortfolioIndex index = exposures.index();
+    ImmutableList.Builder<HoldingChange> changes = ImmutableList.builder();
+    for (int account = 0; account < index.accountCount(); account++) {
+      for (int h = index.holdingStart(account); h < index.holdingStart(account + 1); h++) {
+        changes.add(HoldingChange.create(index.accountName(account),
+            index.stock(index.holdingStock(h)).ticker(), index.holdingCurrent(h),
+            exposures.holdingValue(h), index.holdingLocked(h), index.holdingMinimum(h),
+            exposures.holdingValue(h) / exposures.accountValue(account) * 100));
       }
-      newHoldings.add(accountModelBuilder.setName(account.name()).setValue(accountActual).build());
     }
-
-    return Optional.<List<AccountModel>>of(ImmutableList.copyOf(newHoldings));
+    return changes.build();
   }
 
-  private void printDiff(List<AccountModel> currentHoldings, List<AccountModel> newHoldings) {
-    Table<String, StockModel, StockHoldingModel> currentHoldingsTable = HashBasedTable.create();
-    Map<String, Double> currentAccountValues = new HashMap<>();
-    for (AccountModel account : currentHoldings) {
-      currentAccountValues.put(account.name(), account.value());
-      for (StockHoldingModel stock : account.stocks()) {
-        currentHoldingsTable.put(account.name(), stock.stockModel(), stock);
-      }
+  private void printDiff(CategoryExposures exposures, List<HoldingChange> changes) {
+    if (!log.isLoggable(Level.INFO)) {
+      return;
     }
+    PortfolioIndex index = exposures.index();
     // The value of each variable in the solution.
-    for (AccountModel account : newHoldings) {
-      for (StockHoldingModel newStockHolding: account.stocks()) {
-        StockHoldingModel currentHolding =
-            currentHoldingsTable.get(account.name(), newStockHolding.stockModel());
-        double diff = newStockHolding.currentHolding() - currentHolding.currentHolding();
+    int change = 0;
+    for (int account = 0; account < index.accountCount(); account++) {
+      for (int h = index.holdingStart(account); h < index.holdingStart(account + 1); h++) {
+        HoldingChange holdingChange = changes.get(change++);
         log.info(String.format("%s - %s = %s [ Locked? = %s, Min = %s, "
                 + "old value = %s, diff = %s, percent = %s ]",
-            account.name(), newStockHolding.stockModel().ticker(),
-            newStockHolding.currentHolding(),
-            currentHolding.isLocked(),
-            currentHolding.minimumBalance(),
-            currentHolding.currentHolding(),
-            diff,
-            newStockHolding.currentHolding() / account.value() * 100));
+            holdingChange.account(), holdingChange.ticker(),
+            holdingChange.newValue(),
+            holdingChange.isLocked(),
+            holdingChange.minimumBalance(),
+            holdingChange.currentValue(),
+            holdingChange.diff(),
+            holdingChange.percentOfAccount()));
       }
-      log.info(String.format("%s: Cash Invested: %s of %s", account.name(), account.value(),
-          currentAccountValues.get(account.name())));
+      log.info(String.format("%s: Cash Invested: %s of %s", index.accountName(account),
+          exposures.accountValue(account), index.accountValue(account)));
     }
+    log.info(String.format("Total Cash Invested: %s of %s", exposures.totalValue(),
+        index.totalValue()));
   }
 }
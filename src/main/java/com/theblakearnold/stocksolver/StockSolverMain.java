@@ -1,7 +1,20 @@
 package com.theblakearnold.stocksolver;
 
-import com.google.ortools.linearsolver.MPSolver.OptimizationProblemType;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
 
+import com.theblakearnold.stocksolver.lp.RacingBackend;
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.lp.SolverBackends;
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import dagger.ObjectGraph;
@@ -17,18 +30,125 @@ public class StockSolverMain {
     this.validator = validator;
   }
 
-  public void run() {
+  /**
+   * @param warmStartStore where the workbook starts from and saves its run, keyed by the
+   *     workbook's name, or null to always start cold
+   */
+  public void run(SolverBackend backend, @Nullable WarmStartStore warmStartStore) {
     System.out.println("Current Value:");
     stockSolver.printCurrentPercentage();
     validator.validate();
     System.out.println("\n\n\n\n\n\n");
-    System.out.println("---- Linear programming example with CLP ----");
-    stockSolver.optimizeWiggleRoomAdvanced(OptimizationProblemType.CLP_LINEAR_PROGRAMMING, .01);
+    System.out.println("---- Linear programming example with " + backend.name() + " ----");
+    if (warmStartStore == null) {
+      stockSolver.optimizeWiggleRoomAdvanced(backend, defaultOptions());
+    } else {
+      stockSolver.optimizeWiggleRoomAdvanced(backend, defaultOptions(), warmStartStore,
+          Files.getNameWithoutExtension(StockSolverModule.WORKBOOK));
+    }
+  }
+
+  private static OptimizationOptions defaultOptions() {
+    return OptimizationOptions.newBuilder()
+        .setOptimizeTil(.01)
+        .setThreads(Runtime.getRuntime().availableProcessors())
+        .setOverallWiggleMode(OptimizationOptions.OverallWiggleMode.MINIMAX)
+        .setCategoryWiggleMode(OptimizationOptions.CategoryWiggleMode.EXACT)
+        .build();
   }
 
+  /**
+   * Runs the optimization. {@code --backend=NAME} picks the LP backend, see
+   * {@link SolverBackends#forName}; defaults to OR-tools CLP, and {@code --backend=race:clp,glop}
+   * races backends, printing which won at the end; {@code --race-statistics=FILE} starts the race
+   * from the wins saved in the file and saves them back on exit. {@code --server=PORT} instead
+   * serves rebalances on localhost, see {@link StockSolverServer}.
+   * {@code --batch=DIR_OR_MANIFEST} solves many households into {@code --output=DIR}, default
+   * {@code batch-results}, see {@link BatchRunner}. {@code --warm-start=DIR} has a batch's
+   * households, or a single run's workbook, start from their last run, see
+   * {@link WarmStartStore}; the server doesn't take it. Metrics are exposed over JMX, see
+   * {@link SolverMetrics}, and a single run or batch prints them as JSON at the end, also writing
+   * them to {@code --metrics=FILE} if set.
+   */
   public static void main(String[] args) throws Exception {
+    String backend = "clp";
+    Integer serverPort = null;
+    String batch = null;
+    String output = "batch-results";
+    String metricsFile = null;
+    String warmStart = null;
+    String raceStatistics = null;
+    for (String arg : args) {
+      if (arg.startsWith("--backend=")) {
+        backend = arg.substring("--backend=".length());
+      } else if (arg.startsWith("--server=")) {
+        serverPort = Integer.parseInt(arg.substring("--server=".length()));
+      } else if (arg.startsWith("--batch=")) {
+        batch = arg.substring("--batch=".length());
+      } else if (arg.startsWith("--output=")) {
+        output = arg.substring("--output=".length());
+      } else if (arg.startsWith("--warm-start=")) {
+        warmStart = arg.substring("--warm-start=".length());
+      } else if (arg.startsWith("--race-statistics=")) {
+        raceStatistics = arg.substring("--race-statistics=".length());
+      } else if (arg.startsWith("--metrics=")) {
+        metricsFile = arg.substring("--metrics=".length());
+      } else {
+        throw new IllegalArgumentException("Unknown argument: " + arg);
+      }
+    }
+    if (serverPort != null && warmStart != null) {
+      throw new IllegalArgumentException("--warm-start doesn't apply to --server");
+    }
+    WarmStartStore warmStartStore =
+        warmStart == null ? null : new WarmStartStore(new File(warmStart));
+    SolverMetrics.get().register();
+    SolverBackend solverBackend = SolverBackends.forName(backend);
+    if (raceStatistics != null) {
+      Preconditions.checkArgument(solverBackend instanceof RacingBackend,
+          "--race-statistics needs a race: backend, not %s", backend);
+      persistStatistics((RacingBackend) solverBackend, new File(raceStatistics));
+    }
+    if (serverPort != null) {
+      new StockSolverServer(solverBackend, defaultOptions())
+          .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverPort));
+      return;
+    }
+    if (batch != null) {
+      int failures = new BatchRunner(solverBackend, defaultOptions(),
+          Runtime.getRuntime().availableProcessors(), warmStartStore)
+          .run(new File(batch), new File(output));
+      dumpMetrics(metricsFile, solverBackend);
+      System.exit(failures == 0 ? 0 : 1);
+    }
     ObjectGraph objectGraph = ObjectGraph.create(new StockSolverModule());
     StockSolverMain stockSolverMain = objectGraph.get(StockSolverMain.class);
-    stockSolverMain.run();
+    stockSolverMain.run(solverBackend, warmStartStore);
+    dumpMetrics(metricsFile, solverBackend);
+  }
+
+  /**
+   * Loads the backend's race statistics from the file, and saves them back when the JVM exits,
+   * which also covers a server stopped with an interrupt.
+   */
+  private static void persistStatistics(final RacingBackend backend, final File file) {
+    backend.loadStatistics(file);
+    Runtime.getRuntime().addShutdownHook(new Thread("save-race-statistics") {
+      @Override
+      public void run() {
+        backend.saveStatistics(file);
+      }
+    });
+  }
+
+  private static void dumpMetrics(String metricsFile, SolverBackend backend) throws IOException {
+    String json = SolverMetrics.get().toJson();
+    System.out.println("Metrics: " + json);
+    if (backend instanceof RacingBackend) {
+      System.out.println("Races: " + ((RacingBackend) backend).statistics());
+    }
+    if (metricsFile != null) {
+      Files.write(json, new File(metricsFile), Charsets.UTF_8);
+    }
   }
 }
@@ -1,7 +1,7 @@
 package com.theblakearnold.stocksolver;
 
 import com.theblakearnold.stocksolver.storage.StockSolverStorage;
-import com.theblakearnold.stocksolver.storage.XlsStockSolverStorage;
+import com.theblakearnold.stocksolver.storage.SnapshotStockSolverStorage;
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 
@@ -21,10 +21,13 @@ import dagger.Provides;
 )
 public class StockSolverModule {
 
+  /** The workbook a command line run solves. */
+  static final String WORKBOOK = "solverTemplate.xlsx";
+
   @Provides
   @Singleton
   StockSolverStorage provideStockSolverStorage() {
-    XlsStockSolverStorage xls = new XlsStockSolverStorage("solverTemplate.xlsx");
+    SnapshotStockSolverStorage xls = new SnapshotStockSolverStorage(WORKBOOK);
     try {
       xls.load();
     } catch (InvalidFormatException | IOException e) {
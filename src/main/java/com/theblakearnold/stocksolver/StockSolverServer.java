@@ -0,0 +1,195 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.lp.SolverBackends;
+import com.theblakearnold.stocksolver.storage.XlsStockSolverStorage;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves rebalances over HTTP from one long running JVM, so the native solver, JIT compiled code
+ * and compiled models stay warm between requests.
+ *
+ * <p>{@code POST /rebalance} takes either a {@code workbook} query parameter naming an xlsx file
+ * on the server's disk, or the xlsx itself as the request body. An optional {@code backend}
+ * parameter picks the LP backend, see {@link SolverBackends#forName}, and {@code budgetMillis}
+ * bounds the search for an interactive answer, see {@link OptimizationOptions#timeBudgetMillis}.
+ * The response is a JSON object with the category wiggles, the new account values, the holding
+ * changes a command line run logs and whether the search finished within its budget:
+ * <pre>
+ *   {"categoryWiggles": {"Bonds": 0.5, ...},
+ *    "accounts": [{"name": "IRA", "value": 1000.0}, ...],
+ *    "changes": [{"account": "IRA", "ticker": "VBMFX", "currentValue": 100.0,
+ *                 "newValue": 150.0, "diff": 50.0, "locked": false, "minimumBalance": 0.0,
+ *                 "percentOfAccount": 15.0}, ...],
+ *    "complete": true}
+ * </pre>
+ * Bad input, including a workbook that fails {@link InputValidator}, gets a 400 and a failed
+ * optimization a 500, both with an {@code error} message.
+ *
+ * <p>Solvers are cached by the SHA-256 of the workbook, so sending the same portfolio again
+ * reuses its index and compiled models. Requests are handled one at a time because a
+ * {@link StockSolver}'s compiled model is not thread safe; each optimization still uses the
+ * threads set in its {@link OptimizationOptions}.
+ */
+public class StockSolverServer {
+
+  private final static Logger log = Logger.getLogger(StockSolverServer.class.getName());
+
+  private static final int CACHED_PORTFOLIOS = 16;
+
+  private final SolverBackend defaultBackend;
+  private final OptimizationOptions options;
+  private final Cache<HashCode, StockSolver> solvers =
+      CacheBuilder.newBuilder().maximumSize(CACHED_PORTFOLIOS).build();
+  private HttpServer server;
+  private ExecutorService executor;
+
+  public StockSolverServer(SolverBackend defaultBackend, OptimizationOptions options) {
+    this.defaultBackend = defaultBackend;
+    this.options = options;
+  }
+
+  public void start(InetSocketAddress address) throws IOException {
+    server = HttpServer.create(address, 0);
+    server.createContext("/rebalance", new RebalanceHandler());
+    executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("stock-solver-server-%d").build());
+    server.setExecutor(executor);
+    server.start();
+    log.info("Listening on " + server.getAddress());
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  private class RebalanceHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+          respond(exchange, 405, Json.error("Only POST is supported"));
+          return;
+        }
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        SolverBackend backend = parameters.containsKey("backend")
+            ? SolverBackends.forName(parameters.get("backend")) : defaultBackend;
+        StockSolver stockSolver;
+        String workbookPath = parameters.get("workbook");
+        if (workbookPath != null) {
+          stockSolver = stockSolver(new File(workbookPath));
+        } else {
+          stockSolver = stockSolver(ByteStreams.toByteArray(exchange.getRequestBody()));
+        }
+        OptimizationOptions requestOptions = parameters.containsKey("budgetMillis")
+            ? options.toBuilder()
+                .setTimeBudgetMillis(Long.parseLong(parameters.get("budgetMillis"))).build()
+            : options;
+        OptimizationResult result =
+            stockSolver.optimizeWiggleRoomAdvanced(backend, requestOptions);
+        respond(exchange, 200, Json.toJson(result));
+      } catch (IllegalArgumentException | IllegalStateException | InvalidFormatException e) {
+        log.log(Level.WARNING, "Bad rebalance request", e);
+        respond(exchange, 400, Json.error(e.getMessage()));
+      } catch (RuntimeException e) {
+        log.log(Level.SEVERE, "Rebalance failed", e);
+        respond(exchange, 500, Json.error(e.getMessage()));
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  private StockSolver stockSolver(File workbook) throws IOException, InvalidFormatException {
+    if (!workbook.isFile()) {
+      throw new IllegalArgumentException("No such workbook: " + workbook);
+    }
+    HashCode hash = Files.hash(workbook, Hashing.sha256());
+    StockSolver stockSolver = solvers.getIfPresent(hash);
+    if (stockSolver == null) {
+      stockSolver = load(workbook);
+      solvers.put(hash, stockSolver);
+    }
+    return stockSolver;
+  }
+
+  private StockSolver stockSolver(byte[] workbook) throws IOException, InvalidFormatException {
+    if (workbook.length == 0) {
+      throw new IllegalArgumentException("Send a workbook parameter or an xlsx request body");
+    }
+    HashCode hash = Hashing.sha256().hashBytes(workbook);
+    StockSolver stockSolver = solvers.getIfPresent(hash);
+    if (stockSolver == null) {
+      File file = File.createTempFile("rebalance", ".xlsx");
+      try {
+        Files.write(workbook, file);
+        stockSolver = load(file);
+      } finally {
+        file.delete();
+      }
+      solvers.put(hash, stockSolver);
+    }
+    return stockSolver;
+  }
+
+  private static StockSolver load(File workbook) throws IOException, InvalidFormatException {
+    log.info("Loading " + workbook);
+    XlsStockSolverStorage storage = new XlsStockSolverStorage(workbook.getPath());
+    storage.load();
+    StockSolver stockSolver = new StockSolver(storage);
+    new InputValidator(storage, stockSolver).validate();
+    return stockSolver;
+  }
+
+  private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+    Map<String, String> parameters = new HashMap<>();
+    if (rawQuery == null) {
+      return parameters;
+    }
+    for (String parameter : rawQuery.split("&")) {
+      int split = parameter.indexOf('=');
+      if (split < 0) {
+        continue;
+      }
+      parameters.put(URLDecoder.decode(parameter.substring(0, split), "UTF-8"),
+          URLDecoder.decode(parameter.substring(split + 1), "UTF-8"));
+    }
+    return parameters;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String json)
+      throws IOException {
+    byte[] body = json.getBytes(Charsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
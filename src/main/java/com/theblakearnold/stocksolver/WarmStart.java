@@ -0,0 +1,116 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Doubles;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What one run of {@link StockSolver#optimizeWiggleRoomAdvanced} learned, to start the next run
+ * of the same household from.
+ *
+ * <p>The shape fingerprint covers the category, account and holding names, in order. While it
+ * matches, the previous wiggles are hints for the next search. The inputs fingerprint also
+ * covers every value and setting the result depends on; while it matches, the previous solution
+ * is still the answer.
+ */
+@AutoValue
+public abstract class WarmStart {
+
+  WarmStart() {
+  }
+
+  public static WarmStart create(String shape, String inputs, Map<String, Double> categoryWiggles,
+      List<Double> holdingValues) {
+    return new AutoValue_WarmStart(shape, inputs, ImmutableMap.copyOf(categoryWiggles),
+        ImmutableList.copyOf(holdingValues));
+  }
+
+  static WarmStart of(PortfolioIndex index, OptimizationOptions options,
+      Map<String, Double> categoryWiggles, double[] holdingValues) {
+    return create(shapeOf(index), inputsOf(index, options), categoryWiggles,
+        Doubles.asList(holdingValues));
+  }
+
+  /**
+   * Fingerprint of the category names and each account's name and tickers, in order.
+   */
+  public abstract String shape();
+
+  /**
+   * Fingerprint of the shape, every value of the portfolio and the options that change the
+   * result.
+   */
+  public abstract String inputs();
+
+  /**
+   * The wiggle percent of every category, in the order the search last tightened them.
+   */
+  public abstract ImmutableMap<String, Double> categoryWiggles();
+
+  /**
+   * The solved value of every holding, in account order.
+   */
+  public abstract ImmutableList<Double> holdingValues();
+
+  /**
+   * The largest category wiggle, which is the overall wiggle every category could share, or 100
+   * without categories.
+   */
+  double overallWiggle() {
+    return categoryWiggles().isEmpty() ? 100 : Collections.max(categoryWiggles().values());
+  }
+
+  static String shapeOf(PortfolioIndex index) {
+    return putShape(Hashing.sha256().newHasher(), index).hash().toString();
+  }
+
+  static String inputsOf(PortfolioIndex index, OptimizationOptions options) {
+    Hasher hasher = putShape(Hashing.sha256().newHasher(), index);
+    for (int category = 0; category < index.categoryCount(); category++) {
+      hasher.putDouble(index.category(category).percent());
+    }
+    for (int account = 0; account < index.accountCount(); account++) {
+      hasher.putDouble(index.accountValue(account));
+    }
+    for (int h = 0; h < index.holdingCount(); h++) {
+      int stock = index.holdingStock(h);
+      hasher.putDouble(index.holdingMinimum(h))
+          .putBoolean(index.holdingLocked(h))
+          .putDouble(index.holdingCurrent(h))
+          .putDouble(index.stock(stock).expenseRatio());
+      for (int i = index.stockExposureStart(stock); i < index.stockExposureStart(stock + 1);
+          i++) {
+        hasher.putInt(index.stockExposureCategory(i)).putDouble(index.stockExposureFraction(i));
+      }
+    }
+    // The seed only picks the random orders, and threads don't change the result. A search cut
+    // short by its time budget isn't saved with this fingerprint, so the budget doesn't either.
+    hasher.putString(options.toBuilder().setSeed(0).setThreads(1).setTimeBudgetMillis(0).build()
+        .toString(), Charsets.UTF_8);
+    return hasher.hash().toString();
+  }
+
+  private static Hasher putShape(Hasher hasher, PortfolioIndex index) {
+    hasher.putInt(index.categoryCount());
+    for (int category = 0; category < index.categoryCount(); category++) {
+      hasher.putString(index.categoryName(category), Charsets.UTF_8);
+    }
+    hasher.putInt(index.accountCount());
+    for (int account = 0; account < index.accountCount(); account++) {
+      hasher.putString(index.accountName(account), Charsets.UTF_8)
+          .putInt(index.holdingStart(account + 1) - index.holdingStart(account));
+      for (int h = index.holdingStart(account); h < index.holdingStart(account + 1); h++) {
+        hasher.putString(index.stock(index.holdingStock(h)).ticker(), Charsets.UTF_8);
+      }
+    }
+    return hasher;
+  }
+}
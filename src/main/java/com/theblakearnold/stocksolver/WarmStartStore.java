@@ -0,0 +1,98 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import com.theblakearnold.stocksolver.storage.VersionedFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the {@link WarmStart} of each household in a directory, one
+ * {@code <household>}{@value #SUFFIX} file each.
+ *
+ * <p>A missing or unreadable file just means a cold start, and failing to write one only costs
+ * the next run its warm start. Files are {@link VersionedFile}s, so households can be saved from
+ * several threads.
+ */
+public class WarmStartStore {
+
+  static final String SUFFIX = ".warmstart";
+
+  private static final int MAGIC = 0x5753544b;
+  private static final int VERSION = 1;
+
+  private final static Logger log = Logger.getLogger(WarmStartStore.class.getName());
+
+  private final File directory;
+
+  public WarmStartStore(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Returns the household's last warm start, or absent if there is none or it can't be read.
+   */
+  public Optional<WarmStart> load(String household) {
+    VersionedFile file = file(household);
+    try {
+      Optional<DataInputStream> contents = file.read();
+      if (!contents.isPresent()) {
+        return Optional.absent();
+      }
+      DataInputStream in = contents.get();
+      String shape = in.readUTF();
+      String inputs = in.readUTF();
+      int categoryCount = in.readInt();
+      Map<String, Double> categoryWiggles = new LinkedHashMap<>();
+      for (int i = 0; i < categoryCount; i++) {
+        categoryWiggles.put(in.readUTF(), in.readDouble());
+      }
+      int holdingCount = in.readInt();
+      ImmutableList.Builder<Double> holdingValues = ImmutableList.builder();
+      for (int i = 0; i < holdingCount; i++) {
+        holdingValues.add(in.readDouble());
+      }
+      return Optional.of(
+          WarmStart.create(shape, inputs, categoryWiggles, holdingValues.build()));
+    } catch (IOException | RuntimeException e) {
+      log.warning("Ignoring unreadable warm start " + file.file() + ": " + e);
+      return Optional.absent();
+    }
+  }
+
+  public void save(String household, final WarmStart warmStart) {
+    VersionedFile file = file(household);
+    try {
+      file.write(new VersionedFile.Contents() {
+        @Override
+        public void write(DataOutputStream out) throws IOException {
+          out.writeUTF(warmStart.shape());
+          out.writeUTF(warmStart.inputs());
+          out.writeInt(warmStart.categoryWiggles().size());
+          for (Map.Entry<String, Double> wiggle : warmStart.categoryWiggles().entrySet()) {
+            out.writeUTF(wiggle.getKey());
+            out.writeDouble(wiggle.getValue());
+          }
+          out.writeInt(warmStart.holdingValues().size());
+          for (double holdingValue : warmStart.holdingValues()) {
+            out.writeDouble(holdingValue);
+          }
+        }
+      });
+      log.fine("Wrote warm start " + file.file());
+    } catch (IOException e) {
+      log.warning("Failed to write warm start " + file.file() + ": " + e);
+    }
+  }
+
+  private VersionedFile file(String household) {
+    return new VersionedFile(new File(directory, household + SUFFIX), MAGIC, VERSION);
+  }
+}
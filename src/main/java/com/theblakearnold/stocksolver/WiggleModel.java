@@ -0,0 +1,201 @@
+package com.theblakearnold.stocksolver;
+
+import com.google.common.base.Optional;
+
+import com.theblakearnold.stocksolver.lp.LinearSolver;
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
+import com.theblakearnold.stocksolver.model.AccountModel;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Allocation linear program where the wiggle percent is itself a variable.
+ *
+ * <p>Each category gets the same band as in {@link CompiledModel}, written as two constraints
+ * against a shared wiggle variable:
+ * <pre>
+ *   sum(stock * percent_in_category) - categoryTarget / 100 * wiggle <= categoryTarget
+ *   sum(stock * percent_in_category) + categoryTarget / 100 * wiggle >= categoryTarget
+ * </pre>
+ * so the smallest uniform wiggle comes out of a single solve instead of a bisection. The
+ * holdings are the columns of {@link PresolvedHoldings}, with each category target offset by
+ * the cash fixed in it.
+ *
+ * <p>Categories can be taken out of the shared wiggle with {@link #fixCategory}, which holds them
+ * to a fixed band instead; the minimized wiggle then only covers the remaining free categories.
+ * Categories are referred to by their {@link PortfolioIndex} id.
+ *
+ * <p>Instances own a solver and are not thread safe.
+ */
+class WiggleModel {
+
+  private final static Logger log = Logger.getLogger(WiggleModel.class.getName());
+
+  /**
+   * Added to the optimal wiggle so the band still holds when re-solved by another model.
+   */
+  static final double WIGGLE_TOLERANCE = 1e-6;
+
+  /**
+   * Duals smaller than this are treated as zero.
+   */
+  private static final double DUAL_TOLERANCE = 1e-9;
+
+  private final PortfolioIndex index;
+  private final PresolvedHoldings holdings;
+  private final LinearSolver solver;
+  private final int wiggle;
+  private final int[] upperConstraints;
+  private final int[] lowerConstraints;
+
+  private WiggleModel(PortfolioIndex index, PresolvedHoldings holdings, LinearSolver solver,
+      int wiggle, int[] upperConstraints, int[] lowerConstraints) {
+    this.index = index;
+    this.holdings = holdings;
+    this.solver = solver;
+    this.wiggle = wiggle;
+    this.upperConstraints = upperConstraints;
+    this.lowerConstraints = lowerConstraints;
+  }
+
+  static WiggleModel compile(PortfolioIndex index, SolverBackend backend) {
+    return compile(index, backend, true);
+  }
+
+  /**
+   * @param presolve whether to reduce the holding columns, see {@link PresolvedHoldings}
+   */
+  static WiggleModel compile(PortfolioIndex index, SolverBackend backend, boolean presolve) {
+    long start = System.nanoTime();
+    LinearSolver solver = backend.createSolver("WiggleModel");
+    double infinity = Double.POSITIVE_INFINITY;
+    PresolvedHoldings holdings = PresolvedHoldings.of(index, presolve);
+    holdings.addVariables(solver);
+    int wiggle = solver.addVariable(0, 100, "_wiggle");
+
+    int[] upperConstraints = new int[index.categoryCount()];
+    int[] lowerConstraints = new int[index.categoryCount()];
+    for (int category = 0; category < index.categoryCount(); category++) {
+      double categoryTarget = index.categoryTarget(category);
+      double free = categoryTarget - holdings.categoryOffset(category);
+      upperConstraints[category] = solver.addConstraint(-infinity, free);
+      holdings.setCategoryCoefficients(solver, upperConstraints[category], category);
+      solver.setCoefficient(upperConstraints[category], wiggle, -categoryTarget / 100);
+      lowerConstraints[category] = solver.addConstraint(free, infinity);
+      holdings.setCategoryCoefficients(solver, lowerConstraints[category], category);
+      solver.setCoefficient(lowerConstraints[category], wiggle, categoryTarget / 100);
+    }
+
+    log.fine("Number of variables = " + solver.numVariables());
+    log.fine("Number of constraints = " + solver.numConstraints());
+    SolverMetrics.get().recordNanos(SolverMetrics.COMPILE_WIGGLE, System.nanoTime() - start);
+    return new WiggleModel(index, holdings, solver, wiggle, upperConstraints, lowerConstraints);
+  }
+
+  PortfolioIndex index() {
+    return index;
+  }
+
+  /**
+   * Holds the category within {@code wigglePercent} of its target, independent of the shared
+   * wiggle.
+   */
+  void fixCategory(int category, double wigglePercent) {
+    double categoryTarget = index.categoryTarget(category);
+    double free = categoryTarget - holdings.categoryOffset(category);
+    double wiggleRoomCategoryCash = wigglePercent / 100.0 * categoryTarget;
+    solver.setCoefficient(upperConstraints[category], wiggle, 0);
+    solver.setConstraintBounds(upperConstraints[category],
+        Double.NEGATIVE_INFINITY, free + wiggleRoomCategoryCash);
+    solver.setCoefficient(lowerConstraints[category], wiggle, 0);
+    solver.setConstraintBounds(lowerConstraints[category],
+        free - wiggleRoomCategoryCash, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Returns the category to the shared wiggle.
+   */
+  void freeCategory(int category) {
+    double categoryTarget = index.categoryTarget(category);
+    double free = categoryTarget - holdings.categoryOffset(category);
+    solver.setCoefficient(upperConstraints[category], wiggle, -categoryTarget / 100);
+    solver.setConstraintBounds(upperConstraints[category], Double.NEGATIVE_INFINITY, free);
+    solver.setCoefficient(lowerConstraints[category], wiggle, categoryTarget / 100);
+    solver.setConstraintBounds(lowerConstraints[category], free, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Returns true if the category's band limits the wiggle in the last {@link #minimizeWiggle}
+   * solve, read from the constraint duals.
+   */
+  boolean isBinding(int category) {
+    return Math.abs(solver.dualValue(upperConstraints[category])) > DUAL_TOLERANCE
+        || Math.abs(solver.dualValue(lowerConstraints[category])) > DUAL_TOLERANCE;
+  }
+
+  /**
+   * Returns how far, in percent of its target, each category ended up in the last solve.
+   */
+  double[] categoryDeviations() {
+    double[] values = index.categoryValues(holdings.holdingValues(solver));
+    double[] deviations = new double[values.length];
+    for (int category = 0; category < values.length; category++) {
+      double categoryTarget = index.categoryTarget(category);
+      deviations[category] = Math.abs(values[category] - categoryTarget) / categoryTarget * 100;
+    }
+    return deviations;
+  }
+
+  /**
+   * Finds the smallest wiggle percent every free category can be held within.
+   *
+   * @return the wiggle percent, or absent if no wiggle up to 100 percent is feasible
+   */
+  Optional<Double> minimizeWiggle() {
+    if (holdings.isInfeasible()) {
+      return Optional.absent();
+    }
+    solver.setVariableBounds(wiggle, 0, 100);
+    for (int column = 0; column < holdings.columnCount(); column++) {
+      solver.setObjectiveCoefficient(column, 0);
+    }
+    solver.setObjectiveCoefficient(wiggle, 1);
+
+    LinearSolver.ResultStatus resultStatus =
+        CompiledModel.solve(solver, SolverMetrics.SOLVE_WIGGLE);
+    log.fine(resultStatus.toString() + " Solution found");
+    if (resultStatus != LinearSolver.ResultStatus.OPTIMAL) {
+      return Optional.absent();
+    }
+    log.fine("Problem solved in " + solver.wallTime() + " milliseconds");
+    log.fine("Problem solved in " + solver.iterations() + " iterations");
+    return Optional.of(Math.min(100, solver.value(wiggle) + WIGGLE_TOLERANCE));
+  }
+
+  /**
+   * Minimizes the expense ratio with every free category held within {@code wigglePercent}.
+   *
+   * @return the new holdings, or absent if the wiggle is not feasible
+   */
+  Optional<List<AccountModel>> minimizeExpense(double wigglePercent, boolean debugOn) {
+    if (holdings.isInfeasible()) {
+      return Optional.absent();
+    }
+    solver.setVariableBounds(wiggle, wigglePercent, wigglePercent);
+    solver.setObjectiveCoefficient(wiggle, 0);
+    holdings.setExpenseObjective(solver);
+
+    LinearSolver.ResultStatus resultStatus =
+        CompiledModel.solve(solver, SolverMetrics.SOLVE_WIGGLE);
+    log.fine(resultStatus.toString() + " Solution found");
+    if (resultStatus != LinearSolver.ResultStatus.OPTIMAL) {
+      return Optional.absent();
+    }
+    if (debugOn) {
+      log.info("Yearly Fees = " + (solver.objectiveValue() + holdings.fixedExpense())/100);
+    }
+    return Optional.of(index.buildAccounts(holdings.holdingValues(solver)));
+  }
+}
@@ -0,0 +1,149 @@
+package com.theblakearnold.stocksolver.lp;
+
+import com.google.common.base.Optional;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Which backend won the races of {@link RacingBackend}, by model size.
+ *
+ * <p>Models are bucketed by the power of two of their variable and constraint counts, so
+ * re-solves of one model, and models of similar portfolios, share a bucket. Once a bucket has
+ * seen {@link #MIN_RACES} races, a backend that won at least {@link #DOMINANT_SHARE} of them
+ * solves alone, except every {@link #RERACE_INTERVAL}th solve, which races again so the
+ * statistics keep up with the models. Backends that trade wins keep racing, since which one is
+ * slow on the next model is what racing protects against.
+ *
+ * <p>Only the share of wins decides which backend solves alone; the winning times are only
+ * reported, by {@link #toString}.
+ *
+ * <p>The buckets can be written and read back, so a later run starts with what this one learned,
+ * see {@link RacingBackend#loadStatistics}.
+ *
+ * <p>Thread safe.
+ */
+final class BackendStatistics {
+
+  static final int MIN_RACES = 10;
+  static final int RERACE_INTERVAL = 20;
+  static final double DOMINANT_SHARE = .9;
+
+  private Map<String, Bucket> buckets = new HashMap<>();
+
+  /**
+   * Counts a solve of a model of this size, and returns the backend to solve it with alone, or
+   * absent to race.
+   */
+  synchronized Optional<String> dominantBackend(int numVariables, int numConstraints) {
+    Bucket bucket = bucket(numVariables, numConstraints);
+    bucket.solves++;
+    if (bucket.races < MIN_RACES || bucket.solves % RERACE_INTERVAL == 0) {
+      return Optional.absent();
+    }
+    for (Map.Entry<String, Integer> wins : bucket.wins.entrySet()) {
+      if (wins.getValue() >= DOMINANT_SHARE * bucket.races) {
+        return Optional.of(wins.getKey());
+      }
+    }
+    return Optional.absent();
+  }
+
+  synchronized void recordRace(int numVariables, int numConstraints, String winner,
+      long nanos) {
+    Bucket bucket = bucket(numVariables, numConstraints);
+    bucket.races++;
+    Integer wins = bucket.wins.get(winner);
+    bucket.wins.put(winner, wins == null ? 1 : wins + 1);
+    Long winNanos = bucket.winNanos.get(winner);
+    bucket.winNanos.put(winner, winNanos == null ? nanos : winNanos + nanos);
+  }
+
+  private Bucket bucket(int numVariables, int numConstraints) {
+    String key = sizeClass(numVariables) + "x" + sizeClass(numConstraints);
+    Bucket bucket = buckets.get(key);
+    if (bucket == null) {
+      bucket = new Bucket();
+      buckets.put(key, bucket);
+    }
+    return bucket;
+  }
+
+  synchronized void write(DataOutputStream out) throws IOException {
+    out.writeInt(buckets.size());
+    for (Map.Entry<String, Bucket> bucket : buckets.entrySet()) {
+      out.writeUTF(bucket.getKey());
+      out.writeInt(bucket.getValue().solves);
+      out.writeInt(bucket.getValue().races);
+      out.writeInt(bucket.getValue().wins.size());
+      for (String backend : bucket.getValue().wins.keySet()) {
+        out.writeUTF(backend);
+        out.writeInt(bucket.getValue().wins.get(backend));
+        out.writeLong(bucket.getValue().winNanos.get(backend));
+      }
+    }
+  }
+
+  /**
+   * Replaces every bucket with those written by {@link #write}. If they can't be read, the
+   * buckets are left as they were.
+   */
+  synchronized void read(DataInputStream in) throws IOException {
+    Map<String, Bucket> readBuckets = new HashMap<>();
+    int bucketCount = in.readInt();
+    for (int i = 0; i < bucketCount; i++) {
+      String key = in.readUTF();
+      Bucket bucket = new Bucket();
+      bucket.solves = in.readInt();
+      bucket.races = in.readInt();
+      int backendCount = in.readInt();
+      for (int j = 0; j < backendCount; j++) {
+        String backend = in.readUTF();
+        bucket.wins.put(backend, in.readInt());
+        bucket.winNanos.put(backend, in.readLong());
+      }
+      readBuckets.put(key, bucket);
+    }
+    buckets = readBuckets;
+  }
+
+  /**
+   * The smallest power of two at least {@code count}.
+   */
+  private static int sizeClass(int count) {
+    return count <= 1 ? 1 : Integer.highestOneBit(count - 1) << 1;
+  }
+
+  /**
+   * Returns the races, wins and mean winning milliseconds of each bucket, keyed by variables x
+   * constraints.
+   */
+  @Override
+  public synchronized String toString() {
+    Map<String, String> summary = new LinkedHashMap<>();
+    for (Map.Entry<String, Bucket> bucket : buckets.entrySet()) {
+      Map<String, String> wins = new LinkedHashMap<>();
+      for (String backend : bucket.getValue().wins.keySet()) {
+        wins.put(backend, String.format("%s in %.3f ms", bucket.getValue().wins.get(backend),
+            bucket.getValue().meanNanos(backend) / 1e6));
+      }
+      summary.put(bucket.getKey(), bucket.getValue().races + " races, wins " + wins);
+    }
+    return summary.toString();
+  }
+
+  private static class Bucket {
+    private int solves;
+    private int races;
+    private final Map<String, Integer> wins = new LinkedHashMap<>();
+    private final Map<String, Long> winNanos = new HashMap<>();
+
+    double meanNanos(String backend) {
+      return (double) winNanos.get(backend) / wins.get(backend);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package com.theblakearnold.stocksolver.lp;
+
+/**
+ * A linear program that can be modified and re-solved.
+ *
+ * <p>Variables and constraints are referred to by the index returned when they were added,
+ * starting at 0. The objective is always minimized. Unbounded sides use
+ * {@link Double#POSITIVE_INFINITY} and {@link Double#NEGATIVE_INFINITY}.
+ *
+ * <p>Implementations are not thread safe.
+ */
+public interface LinearSolver {
+
+  enum ResultStatus {
+    OPTIMAL,
+    INFEASIBLE,
+    UNBOUNDED,
+    /** The solve stopped early, for example it hit its iteration limit or was interrupted. */
+    NOT_SOLVED;
+  }
+
+  enum BasisStatus {
+    FREE,
+    AT_LOWER_BOUND,
+    AT_UPPER_BOUND,
+    FIXED_VALUE,
+    BASIC;
+  }
+
+  /**
+   * Adds a variable with the given bounds and returns its index.
+   */
+  int addVariable(double lb, double ub, String name);
+
+  /**
+   * Adds a constraint {@code lb <= sum(coefficient * variable) <= ub} and returns its index.
+   */
+  int addConstraint(double lb, double ub);
+
+  void setCoefficient(int constraint, int variable, double coefficient);
+
+  void setObjectiveCoefficient(int variable, double coefficient);
+
+  void setVariableBounds(int variable, double lb, double ub);
+
+  void setConstraintBounds(int constraint, double lb, double ub);
+
+  int numVariables();
+
+  int numConstraints();
+
+  /**
+   * Solves the current model. Solvers may reuse the previous solve to start from.
+   */
+  ResultStatus solve();
+
+  /**
+   * The value of the variable in the last solve.
+   */
+  double value(int variable);
+
+  /**
+   * The objective value of the last solve.
+   */
+  double objectiveValue();
+
+  /**
+   * The change in objective per unit increase of the constraint bound that is binding in the
+   * last solve, 0 if neither bound is binding.
+   */
+  double dualValue(int constraint);
+
+  /**
+   * The basis status of the constraint's slack in the last solve.
+   */
+  BasisStatus basisStatus(int constraint);
+
+  /**
+   * Milliseconds spent in the last solve.
+   */
+  long wallTime();
+
+  /**
+   * Simplex iterations in the last solve.
+   */
+  long iterations();
+}
@@ -0,0 +1,51 @@
+package com.theblakearnold.stocksolver.lp;
+
+import com.google.common.base.Preconditions;
+import com.google.ortools.linearsolver.MPSolver.OptimizationProblemType;
+
+/**
+ * Solves with an OR-tools {@code MPSolver}. Loads the {@code jniortools} native library when
+ * this class is first used, so only runs that pick an OR-tools backend need it.
+ */
+public final class OrToolsBackend implements SolverBackend {
+
+  static {
+    System.loadLibrary("jniortools");
+  }
+
+  private final String problemType;
+
+  /**
+   * @param problemType the name of an {@link OptimizationProblemType}, for example
+   *     {@code CLP_LINEAR_PROGRAMMING}. Kept as a name so the enum, which reads its values from
+   *     the native library, is only touched once the library is loaded.
+   */
+  public OrToolsBackend(String problemType) {
+    this.problemType = Preconditions.checkNotNull(problemType);
+  }
+
+  @Override
+  public String name() {
+    return "ortools-" + problemType;
+  }
+
+  @Override
+  public LinearSolver createSolver(String name) {
+    return new OrToolsSolver(name, OptimizationProblemType.valueOf(problemType));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof OrToolsBackend && ((OrToolsBackend) o).problemType.equals(problemType);
+  }
+
+  @Override
+  public int hashCode() {
+    return problemType.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return name();
+  }
+}
@@ -0,0 +1,110 @@
+package com.theblakearnold.stocksolver.lp;
+
+import com.google.ortools.linearsolver.MPConstraint;
+import com.google.ortools.linearsolver.MPSolver;
+import com.google.ortools.linearsolver.MPSolver.OptimizationProblemType;
+import com.google.ortools.linearsolver.MPVariable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link LinearSolver} over an OR-tools {@link MPSolver}.
+ */
+final class OrToolsSolver implements LinearSolver {
+
+  private final MPSolver solver;
+  private final List<MPVariable> variables = new ArrayList<>();
+  private final List<MPConstraint> constraints = new ArrayList<>();
+
+  OrToolsSolver(String name, OptimizationProblemType problemType) {
+    this.solver = new MPSolver(name, problemType);
+    solver.objective().minimization();
+  }
+
+  @Override
+  public int addVariable(double lb, double ub, String name) {
+    variables.add(solver.makeNumVar(lb, ub, name));
+    return variables.size() - 1;
+  }
+
+  @Override
+  public int addConstraint(double lb, double ub) {
+    constraints.add(solver.makeConstraint(lb, ub));
+    return constraints.size() - 1;
+  }
+
+  @Override
+  public void setCoefficient(int constraint, int variable, double coefficient) {
+    constraints.get(constraint).setCoefficient(variables.get(variable), coefficient);
+  }
+
+  @Override
+  public void setObjectiveCoefficient(int variable, double coefficient) {
+    solver.objective().setCoefficient(variables.get(variable), coefficient);
+  }
+
+  @Override
+  public void setVariableBounds(int variable, double lb, double ub) {
+    variables.get(variable).setBounds(lb, ub);
+  }
+
+  @Override
+  public void setConstraintBounds(int constraint, double lb, double ub) {
+    constraints.get(constraint).setBounds(lb, ub);
+  }
+
+  @Override
+  public int numVariables() {
+    return variables.size();
+  }
+
+  @Override
+  public int numConstraints() {
+    return constraints.size();
+  }
+
+  @Override
+  public ResultStatus solve() {
+    switch (solver.solve()) {
+      case OPTIMAL:
+        return ResultStatus.OPTIMAL;
+      case INFEASIBLE:
+        return ResultStatus.INFEASIBLE;
+      case UNBOUNDED:
+        return ResultStatus.UNBOUNDED;
+      default:
+        return ResultStatus.NOT_SOLVED;
+    }
+  }
+
+  @Override
+  public double value(int variable) {
+    return variables.get(variable).solutionValue();
+  }
+
+  @Override
+  public double objectiveValue() {
+    return solver.objective().value();
+  }
+
+  @Override
+  public double dualValue(int constraint) {
+    return constraints.get(constraint).dualValue();
+  }
+
+  @Override
+  public BasisStatus basisStatus(int constraint) {
+    return BasisStatus.valueOf(constraints.get(constraint).basisStatus().name());
+  }
+
+  @Override
+  public long wallTime() {
+    return solver.wallTime();
+  }
+
+  @Override
+  public long iterations() {
+    return solver.iterations();
+  }
+}
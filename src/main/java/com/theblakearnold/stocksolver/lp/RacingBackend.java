@@ -0,0 +1,110 @@
+package com.theblakearnold.stocksolver.lp;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.theblakearnold.stocksolver.storage.VersionedFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Solves with several backends at once, taking the first answer, see {@link RacingSolver}.
+ *
+ * <p>Which backend wins is kept per model size across every solver the backend creates, and
+ * once a size has a clear winner it solves alone, see {@link BackendStatistics}. Racing bounds
+ * the latency of models that happen to be slow on one backend, and the statistics avoid paying
+ * for the other backends once the usual winner is known. The statistics can be saved to a file
+ * and loaded by the next run, so it doesn't have to race its way to the usual winner again.
+ *
+ * <p>The races run on a cached pool of daemon threads shared by the backend's solvers. Since
+ * each instance learns on its own, instances are only equal to themselves.
+ */
+public final class RacingBackend implements SolverBackend {
+
+  private static final int MAGIC = 0x52414345;
+  private static final int VERSION = 1;
+
+  private final static Logger log = Logger.getLogger(RacingBackend.class.getName());
+
+  private final ImmutableList<SolverBackend> backends;
+  private final BackendStatistics statistics = new BackendStatistics();
+  private final ExecutorService executor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("stock-solver-race-%d").setDaemon(true).build());
+
+  public RacingBackend(List<SolverBackend> backends) {
+    Preconditions.checkArgument(backends.size() > 1, "racing needs two backends: %s", backends);
+    this.backends = ImmutableList.copyOf(backends);
+  }
+
+  @Override
+  public String name() {
+    List<String> names = new ArrayList<>();
+    for (SolverBackend backend : backends) {
+      names.add(backend.name());
+    }
+    return "race:" + Joiner.on(',').join(names);
+  }
+
+  @Override
+  public LinearSolver createSolver(String name) {
+    return new RacingSolver(name, backends, statistics, executor);
+  }
+
+  /**
+   * Replaces the statistics with those saved by {@link #saveStatistics}. A missing or unreadable
+   * file just means starting over.
+   */
+  public void loadStatistics(File file) {
+    VersionedFile versionedFile = new VersionedFile(file, MAGIC, VERSION);
+    try {
+      Optional<DataInputStream> contents = versionedFile.read();
+      if (contents.isPresent()) {
+        statistics.read(contents.get());
+        log.fine("Loaded race statistics " + file);
+      }
+    } catch (IOException | RuntimeException e) {
+      log.warning("Ignoring unreadable race statistics " + file + ": " + e);
+    }
+  }
+
+  /**
+   * Saves the statistics for a later run's {@link #loadStatistics}. Failing to only costs that
+   * run the races to learn them again.
+   */
+  public void saveStatistics(File file) {
+    try {
+      new VersionedFile(file, MAGIC, VERSION).write(new VersionedFile.Contents() {
+        @Override
+        public void write(DataOutputStream out) throws IOException {
+          statistics.write(out);
+        }
+      });
+      log.fine("Wrote race statistics " + file);
+    } catch (IOException e) {
+      log.warning("Failed to write race statistics " + file + ": " + e);
+    }
+  }
+
+  /**
+   * Returns the races and wins so far of each model size.
+   */
+  public String statistics() {
+    return statistics.toString();
+  }
+
+  @Override
+  public String toString() {
+    return name();
+  }
+}
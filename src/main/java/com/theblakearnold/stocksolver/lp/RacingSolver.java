@@ -0,0 +1,411 @@
+package com.theblakearnold.stocksolver.lp;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the same model in one solver per backend, and solves them at once, answering with the
+ * first to finish.
+ *
+ * <p>Every change is made to each backend's solver. A solve starts each idle solver on the
+ * executor, takes the first that returns anything but {@link ResultStatus#NOT_SOLVED} and
+ * cancels the rest. The winner's values and duals are copied, so they are read without touching
+ * a solver that may be racing again. The basis is rarely read, so it is read from the winner,
+ * which stays idle until the next solve. A cancelled solver that can't be interrupted, like
+ * OR-tools, keeps running; until it finishes it sits out the races, and the changes made in the
+ * meantime are queued and made before it next solves. If no backend answers, the solve throws
+ * a {@link SolverFailedException}.
+ *
+ * <p>When one backend has won nearly every race for the model's size, see
+ * {@link BackendStatistics}, it solves alone on the calling thread. If it fails or stops without
+ * an answer, the other idle backends race for one.
+ *
+ * <p>Like every {@link LinearSolver}, not thread safe. The solvers it races are only touched by
+ * one thread at a time.
+ */
+final class RacingSolver implements LinearSolver {
+
+  private final static Logger log = Logger.getLogger(RacingSolver.class.getName());
+
+  private final List<Lane> lanes = new ArrayList<>();
+  /** Guards the busy flag of every lane, and is notified when one goes idle. */
+  private final Object idleLock = new Object();
+  private final BackendStatistics statistics;
+  private final ExecutorService executor;
+  private int numVariables;
+  private int numConstraints;
+  private Result last;
+
+  RacingSolver(String name, List<SolverBackend> backends, BackendStatistics statistics,
+      ExecutorService executor) {
+    for (SolverBackend backend : backends) {
+      lanes.add(new Lane(backend.name(), backend.createSolver(name), idleLock));
+    }
+    this.statistics = statistics;
+    this.executor = executor;
+  }
+
+  /**
+   * A change to the model, made to each backend's solver.
+   */
+  private interface Change {
+    void apply(LinearSolver solver);
+  }
+
+  private void change(Change change) {
+    for (Lane lane : lanes) {
+      if (lane.isBusy()) {
+        lane.pending.add(change);
+      } else {
+        lane.catchUp();
+        change.apply(lane.solver);
+      }
+    }
+  }
+
+  @Override
+  public int addVariable(final double lb, final double ub, final String name) {
+    change(new Change() {
+      @Override
+      public void apply(LinearSolver solver) {
+        solver.addVariable(lb, ub, name);
+      }
+    });
+    return numVariables++;
+  }
+
+  @Override
+  public int addConstraint(final double lb, final double ub) {
+    change(new Change() {
+      @Override
+      public void apply(LinearSolver solver) {
+        solver.addConstraint(lb, ub);
+      }
+    });
+    return numConstraints++;
+  }
+
+  @Override
+  public void setCoefficient(final int constraint, final int variable,
+      final double coefficient) {
+    change(new Change() {
+      @Override
+      public void apply(LinearSolver solver) {
+        solver.setCoefficient(constraint, variable, coefficient);
+      }
+    });
+  }
+
+  @Override
+  public void setObjectiveCoefficient(final int variable, final double coefficient) {
+    change(new Change() {
+      @Override
+      public void apply(LinearSolver solver) {
+        solver.setObjectiveCoefficient(variable, coefficient);
+      }
+    });
+  }
+
+  @Override
+  public void setVariableBounds(final int variable, final double lb, final double ub) {
+    change(new Change() {
+      @Override
+      public void apply(LinearSolver solver) {
+        solver.setVariableBounds(variable, lb, ub);
+      }
+    });
+  }
+
+  @Override
+  public void setConstraintBounds(final int constraint, final double lb, final double ub) {
+    change(new Change() {
+      @Override
+      public void apply(LinearSolver solver) {
+        solver.setConstraintBounds(constraint, lb, ub);
+      }
+    });
+  }
+
+  @Override
+  public int numVariables() {
+    return numVariables;
+  }
+
+  @Override
+  public int numConstraints() {
+    return numConstraints;
+  }
+
+  @Override
+  public ResultStatus solve() {
+    List<Lane> idle = awaitIdleLanes();
+    for (Lane lane : idle) {
+      lane.catchUp();
+    }
+    Optional<String> dominant = statistics.dominantBackend(numVariables, numConstraints);
+    if (idle.size() == 1) {
+      last = new Solve(idle.get(0)).call();
+      return last.status;
+    }
+    for (Lane lane : idle) {
+      if (dominant.isPresent() && lane.backend.equals(dominant.get())) {
+        last = solveAlone(lane);
+        if (last.status != ResultStatus.NOT_SOLVED || Thread.currentThread().isInterrupted()) {
+          return last.status;
+        }
+        List<Lane> others = new ArrayList<>(idle);
+        others.remove(lane);
+        last = race(others);
+        return last.status;
+      }
+    }
+    last = race(idle);
+    return last.status;
+  }
+
+  /**
+   * Solves on the lane alone, returning {@link ResultStatus#NOT_SOLVED} if the backend fails.
+   */
+  private Result solveAlone(Lane lane) {
+    try {
+      return new Solve(lane).call();
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, lane.backend + " failed solving alone, racing the others", e);
+      return Result.notSolved(lane);
+    }
+  }
+
+  /**
+   * Returns the idle lanes. If every lane is still finishing a lost race, waits for whichever
+   * finishes first.
+   */
+  private List<Lane> awaitIdleLanes() {
+    List<Lane> idle = new ArrayList<>();
+    boolean interrupted = false;
+    synchronized (idleLock) {
+      while (true) {
+        for (Lane lane : lanes) {
+          if (!lane.busy) {
+            idle.add(lane);
+          }
+        }
+        if (!idle.isEmpty()) {
+          break;
+        }
+        try {
+          idleLock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return idle;
+  }
+
+  /**
+   * Solves on each lane at once, returning the first answer, or {@link ResultStatus#NOT_SOLVED}
+   * if interrupted while waiting for one.
+   *
+   * @throws SolverFailedException if every lane failed or stopped without an answer
+   */
+  private Result race(List<Lane> entrants) {
+    long start = System.nanoTime();
+    CompletionService<Result> completionService = new ExecutorCompletionService<>(executor);
+    List<Solve> solves = new ArrayList<>();
+    List<Future<Result>> futures = new ArrayList<>();
+    Throwable failure = null;
+    for (Lane lane : entrants) {
+      Solve solve = new Solve(lane);
+      lane.setBusy(true);
+      solves.add(solve);
+      futures.add(completionService.submit(solve));
+    }
+    try {
+      for (int i = 0; i < entrants.size(); i++) {
+        try {
+          Result result = completionService.take().get();
+          if (result.status != ResultStatus.NOT_SOLVED) {
+            statistics.recordRace(numVariables, numConstraints, result.lane.backend,
+                System.nanoTime() - start);
+            log.fine(String.format("%s won in %s ms", result.lane.backend, result.wallTime));
+            return result;
+          }
+        } catch (ExecutionException e) {
+          log.log(Level.WARNING, "Backend failed while racing", e.getCause());
+          failure = e.getCause();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Result.notSolved(null);
+    } finally {
+      for (int i = 0; i < futures.size(); i++) {
+        futures.get(i).cancel(true);
+        // A solve cancelled before it started never will, so its lane is free now.
+        if (solves.get(i).started.compareAndSet(false, true)) {
+          entrants.get(i).setBusy(false);
+        }
+      }
+    }
+    String message = String.format("No backend solved the %s by %s model", numVariables,
+        numConstraints);
+    throw failure == null
+        ? new SolverFailedException(message)
+        : new SolverFailedException(message, failure);
+  }
+
+  @Override
+  public double value(int variable) {
+    return last.values[variable];
+  }
+
+  @Override
+  public double objectiveValue() {
+    return last.objectiveValue;
+  }
+
+  @Override
+  public double dualValue(int constraint) {
+    return last.duals[constraint];
+  }
+
+  @Override
+  public BasisStatus basisStatus(int constraint) {
+    Preconditions.checkState(last.status != ResultStatus.NOT_SOLVED, "not solved");
+    return last.lane.solver.basisStatus(constraint);
+  }
+
+  @Override
+  public long wallTime() {
+    return last.wallTime;
+  }
+
+  @Override
+  public long iterations() {
+    return last.iterations;
+  }
+
+  /**
+   * One backend's solver, and the changes it missed while busy.
+   */
+  private static class Lane {
+    private final String backend;
+    private final LinearSolver solver;
+    private final Object idleLock;
+    private final List<Change> pending = new ArrayList<>();
+    /** Guarded by {@link #idleLock}. */
+    private boolean busy;
+
+    /**
+     * @param idleLock the lock guarding the busy flag of every lane of the solver
+     */
+    Lane(String backend, LinearSolver solver, Object idleLock) {
+      this.backend = backend;
+      this.solver = solver;
+      this.idleLock = idleLock;
+    }
+
+    boolean isBusy() {
+      synchronized (idleLock) {
+        return busy;
+      }
+    }
+
+    void setBusy(boolean busy) {
+      synchronized (idleLock) {
+        this.busy = busy;
+        idleLock.notifyAll();
+      }
+    }
+
+    /**
+     * Makes the changes missed while busy. Only called while idle.
+     */
+    void catchUp() {
+      for (Change change : pending) {
+        change.apply(solver);
+      }
+      pending.clear();
+    }
+  }
+
+  /**
+   * Solves one lane and copies out the answer, marking the lane idle when done.
+   */
+  private static class Solve implements Callable<Result> {
+    private final Lane lane;
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    Solve(Lane lane) {
+      this.lane = lane;
+    }
+
+    @Override
+    public Result call() {
+      if (!started.compareAndSet(false, true)) {
+        return Result.notSolved(lane);
+      }
+      try {
+        LinearSolver solver = lane.solver;
+        ResultStatus status = solver.solve();
+        double[] values = new double[solver.numVariables()];
+        double[] duals = new double[solver.numConstraints()];
+        if (status != ResultStatus.NOT_SOLVED) {
+          for (int variable = 0; variable < values.length; variable++) {
+            values[variable] = solver.value(variable);
+          }
+          for (int constraint = 0; constraint < duals.length; constraint++) {
+            duals[constraint] = solver.dualValue(constraint);
+          }
+        }
+        return new Result(lane, status, values, duals,
+            status == ResultStatus.NOT_SOLVED ? 0 : solver.objectiveValue(), solver.wallTime(),
+            solver.iterations());
+      } finally {
+        lane.setBusy(false);
+      }
+    }
+  }
+
+  private static class Result {
+    private final Lane lane;
+    private final ResultStatus status;
+    private final double[] values;
+    private final double[] duals;
+    private final double objectiveValue;
+    private final long wallTime;
+    private final long iterations;
+
+    Result(Lane lane, ResultStatus status, double[] values, double[] duals,
+        double objectiveValue, long wallTime, long iterations) {
+      this.lane = lane;
+      this.status = status;
+      this.values = values;
+      this.duals = duals;
+      this.objectiveValue = objectiveValue;
+      this.wallTime = wallTime;
+      this.iterations = iterations;
+    }
+
+    static Result notSolved(@Nullable Lane lane) {
+      return new Result(lane, ResultStatus.NOT_SOLVED, new double[0], new double[0], 0, 0, 0);
+    }
+  }
+}
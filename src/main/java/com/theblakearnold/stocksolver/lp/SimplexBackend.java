@@ -0,0 +1,33 @@
+package com.theblakearnold.stocksolver.lp;
+
+/**
+ * Solves with {@link SimplexSolver}, a pure Java bounded-variable simplex. Needs no native
+ * library.
+ */
+public final class SimplexBackend implements SolverBackend {
+
+  @Override
+  public String name() {
+    return "simplex";
+  }
+
+  @Override
+  public LinearSolver createSolver(String name) {
+    return new SimplexSolver();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof SimplexBackend;
+  }
+
+  @Override
+  public int hashCode() {
+    return SimplexBackend.class.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return name();
+  }
+}
@@ -0,0 +1,610 @@
+package com.theblakearnold.stocksolver.lp;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Bounded-variable primal simplex for problems with few rows and box bounded columns.
+ *
+ * <p>Every constraint gets a logical variable {@code r} so that the rows read
+ * {@code A x - r = 0}, and the constraint bounds become bounds on {@code r}. Nonbasic variables
+ * sit at one of their bounds, so box bounds never become rows. Phase one minimizes the sum of the
+ * bound violations of the basic variables, phase two the objective, both on the same basis.
+ *
+ * <p>The basis inverse is kept dense, which suits a handful of account and category rows, and is
+ * updated in product form with a fresh factorization every {@link #REFACTOR_INTERVAL} pivots,
+ * counted across solves. An infeasible answer is only given from a fresh factorization, since
+ * the error an updated inverse gathers can hide a feasible point that sits on its bounds.
+ * The basis of the last solve is where the next solve starts, so re-solving after only bounds
+ * or objective changed usually takes a few pivots. Adding a variable or constraint starts over
+ * from the all logical basis.
+ *
+ * <p>A solve returns {@link ResultStatus#NOT_SOLVED} if the thread is interrupted, if it hits
+ * its iteration limit, or if phase one finds no blocking variable, which only numerical trouble
+ * causes.
+ */
+final class SimplexSolver implements LinearSolver {
+
+  /**
+   * Bound violations up to this, relative to the bound, are treated as feasible.
+   */
+  private static final double PRIMAL_TOLERANCE = 1e-9;
+
+  /**
+   * Reduced costs smaller than this are treated as zero.
+   */
+  private static final double DUAL_TOLERANCE = 1e-9;
+
+  /**
+   * Entries of the entering column smaller than this are never pivoted on.
+   */
+  private static final double PIVOT_TOLERANCE = 1e-9;
+
+  private static final int REFACTOR_INTERVAL = 100;
+
+  /**
+   * Consecutive degenerate pivots before switching to Bland's rule, which can not cycle.
+   */
+  private static final int DEGENERATE_LIMIT = 50;
+
+  private static final byte AT_LOWER = 0;
+  private static final byte AT_UPPER = 1;
+  private static final byte AT_ZERO = 2;
+
+  // Structural variables and their sparse columns.
+  private int numVariables;
+  private double[] variableLower = new double[16];
+  private double[] variableUpper = new double[16];
+  private double[] cost = new double[16];
+  private int[][] columnRows = new int[16][];
+  private double[][] columnValues = new double[16][];
+  private int[] columnSize = new int[16];
+
+  private int numConstraints;
+  private double[] rowLower = new double[16];
+  private double[] rowUpper = new double[16];
+
+  // The basis, over numVariables structural then numConstraints logical variables.
+  private boolean hasBasis;
+  private boolean needsFactor;
+  private int[] head;
+  private int[] position;
+  private byte[] state;
+  private double[] x;
+  private double[][] inverse;
+  private int pivotsSinceFactor;
+  private double[] duals;
+
+  private long iterations;
+  private long wallTime;
+
+  @Override
+  public int addVariable(double lb, double ub, String name) {
+    if (numVariables == variableLower.length) {
+      int capacity = numVariables * 2;
+      variableLower = Arrays.copyOf(variableLower, capacity);
+      variableUpper = Arrays.copyOf(variableUpper, capacity);
+      cost = Arrays.copyOf(cost, capacity);
+      columnRows = Arrays.copyOf(columnRows, capacity);
+      columnValues = Arrays.copyOf(columnValues, capacity);
+      columnSize = Arrays.copyOf(columnSize, capacity);
+    }
+    variableLower[numVariables] = lb;
+    variableUpper[numVariables] = ub;
+    columnRows[numVariables] = new int[4];
+    columnValues[numVariables] = new double[4];
+    hasBasis = false;
+    return numVariables++;
+  }
+
+  @Override
+  public int addConstraint(double lb, double ub) {
+    if (numConstraints == rowLower.length) {
+      rowLower = Arrays.copyOf(rowLower, numConstraints * 2);
+      rowUpper = Arrays.copyOf(rowUpper, numConstraints * 2);
+    }
+    rowLower[numConstraints] = lb;
+    rowUpper[numConstraints] = ub;
+    hasBasis = false;
+    return numConstraints++;
+  }
+
+  @Override
+  public void setCoefficient(int constraint, int variable, double coefficient) {
+    int[] rows = columnRows[variable];
+    int size = columnSize[variable];
+    for (int k = 0; k < size; k++) {
+      if (rows[k] == constraint) {
+        columnValues[variable][k] = coefficient;
+        markChanged(variable);
+        return;
+      }
+    }
+    if (size == rows.length) {
+      columnRows[variable] = Arrays.copyOf(rows, size * 2);
+      columnValues[variable] = Arrays.copyOf(columnValues[variable], size * 2);
+    }
+    columnRows[variable][size] = constraint;
+    columnValues[variable][size] = coefficient;
+    columnSize[variable]++;
+    markChanged(variable);
+  }
+
+  /**
+   * A changed column only invalidates the basis inverse if the column is in the basis.
+   */
+  private void markChanged(int variable) {
+    if (hasBasis && position[variable] >= 0) {
+      needsFactor = true;
+    }
+  }
+
+  @Override
+  public void setObjectiveCoefficient(int variable, double coefficient) {
+    cost[variable] = coefficient;
+  }
+
+  @Override
+  public void setVariableBounds(int variable, double lb, double ub) {
+    variableLower[variable] = lb;
+    variableUpper[variable] = ub;
+  }
+
+  @Override
+  public void setConstraintBounds(int constraint, double lb, double ub) {
+    rowLower[constraint] = lb;
+    rowUpper[constraint] = ub;
+  }
+
+  @Override
+  public int numVariables() {
+    return numVariables;
+  }
+
+  @Override
+  public int numConstraints() {
+    return numConstraints;
+  }
+
+  @Override
+  public ResultStatus solve() {
+    long start = System.currentTimeMillis();
+    iterations = 0;
+    duals = null;
+    if (!hasBasis || (needsFactor && !factor())) {
+      slackBasis();
+    }
+    needsFactor = false;
+    placeNonbasic();
+    ResultStatus status = iterate();
+    wallTime = System.currentTimeMillis() - start;
+    return status;
+  }
+
+  @Override
+  public double value(int variable) {
+    checkSolved();
+    return x[variable];
+  }
+
+  @Override
+  public double objectiveValue() {
+    double value = 0;
+    for (int j = 0; j < numVariables; j++) {
+      value += cost[j] * x[j];
+    }
+    return value;
+  }
+
+  @Override
+  public double dualValue(int constraint) {
+    return duals == null ? 0 : duals[constraint];
+  }
+
+  @Override
+  public BasisStatus basisStatus(int constraint) {
+    checkSolved();
+    int j = numVariables + constraint;
+    if (position[j] >= 0) {
+      return BasisStatus.BASIC;
+    }
+    if (lower(j) == upper(j)) {
+      return BasisStatus.FIXED_VALUE;
+    }
+    switch (state[j]) {
+      case AT_LOWER:
+        return BasisStatus.AT_LOWER_BOUND;
+      case AT_UPPER:
+        return BasisStatus.AT_UPPER_BOUND;
+      default:
+        return BasisStatus.FREE;
+    }
+  }
+
+  /**
+   * Values and statuses are only kept for the model as it was last solved.
+   */
+  private void checkSolved() {
+    Preconditions.checkState(hasBasis,
+        "Not solved since the last variable or constraint was added");
+  }
+
+  @Override
+  public long wallTime() {
+    return wallTime;
+  }
+
+  @Override
+  public long iterations() {
+    return iterations;
+  }
+
+  private ResultStatus iterate() {
+    int m = numConstraints;
+    int n = numVariables + numConstraints;
+    double[] basicCost = new double[m];
+    double[] y = new double[m];
+    double[] alpha = new double[m];
+    long iterationLimit = 1000 + 50L * n;
+    int degenerate = 0;
+    while (true) {
+      if (Thread.currentThread().isInterrupted()) {
+        return ResultStatus.NOT_SOLVED;
+      }
+      computeBasicValues();
+
+      // Phase one prices the bound violations, phase two the objective.
+      boolean feasible = true;
+      for (int i = 0; i < m; i++) {
+        int j = head[i];
+        if (x[j] < lower(j) - tolerance(lower(j))) {
+          basicCost[i] = -1;
+          feasible = false;
+        } else if (x[j] > upper(j) + tolerance(upper(j))) {
+          basicCost[i] = 1;
+          feasible = false;
+        } else {
+          basicCost[i] = 0;
+        }
+      }
+      if (feasible) {
+        for (int i = 0; i < m; i++) {
+          basicCost[i] = cost(head[i]);
+        }
+      }
+      Arrays.fill(y, 0);
+      for (int i = 0; i < m; i++) {
+        if (basicCost[i] != 0) {
+          double[] row = inverse[i];
+          for (int k = 0; k < m; k++) {
+            y[k] += basicCost[i] * row[k];
+          }
+        }
+      }
+
+      // Pricing: Dantzig's largest reduced cost, or Bland's first index while degenerate.
+      boolean bland = degenerate > DEGENERATE_LIMIT;
+      int entering = -1;
+      int direction = 0;
+      double largest = 0;
+      for (int j = 0; j < n; j++) {
+        if (position[j] >= 0 || lower(j) == upper(j)) {
+          continue;
+        }
+        double reducedCost = (feasible ? cost(j) : 0) - columnDot(j, y);
+        int jDirection = 0;
+        switch (state[j]) {
+          case AT_LOWER:
+            jDirection = reducedCost < -DUAL_TOLERANCE ? 1 : 0;
+            break;
+          case AT_UPPER:
+            jDirection = reducedCost > DUAL_TOLERANCE ? -1 : 0;
+            break;
+          default:
+            if (Math.abs(reducedCost) > DUAL_TOLERANCE) {
+              jDirection = reducedCost < 0 ? 1 : -1;
+            }
+        }
+        if (jDirection != 0 && (bland || Math.abs(reducedCost) > largest)) {
+          entering = j;
+          direction = jDirection;
+          largest = Math.abs(reducedCost);
+          if (bland) {
+            break;
+          }
+        }
+      }
+      if (entering < 0) {
+        if (!feasible && pivotsSinceFactor > 0) {
+          refactor();
+          continue;
+        }
+        if (!feasible) {
+          return ResultStatus.INFEASIBLE;
+        }
+        duals = y.clone();
+        return ResultStatus.OPTIMAL;
+      }
+      if (iterations >= iterationLimit) {
+        return ResultStatus.NOT_SOLVED;
+      }
+      iterations++;
+
+      // alpha = B^-1 * a_entering; the basic variables move by -direction * step * alpha.
+      Arrays.fill(alpha, 0);
+      if (entering < numVariables) {
+        for (int k = 0; k < columnSize[entering]; k++) {
+          int row = columnRows[entering][k];
+          double value = columnValues[entering][k];
+          for (int i = 0; i < m; i++) {
+            alpha[i] += inverse[i][row] * value;
+          }
+        }
+      } else {
+        int row = entering - numVariables;
+        for (int i = 0; i < m; i++) {
+          alpha[i] = -inverse[i][row];
+        }
+      }
+
+      // Ratio test. Infeasible basic variables block where they become feasible, so phase one
+      // never makes a violation worse.
+      double step = upper(entering) - lower(entering);
+      int leaving = -1;
+      boolean leavingAtUpper = false;
+      for (int i = 0; i < m; i++) {
+        if (Math.abs(alpha[i]) <= PIVOT_TOLERANCE) {
+          continue;
+        }
+        double rate = alpha[i] * direction;
+        int j = head[i];
+        double lower = lower(j);
+        double upper = upper(j);
+        double ratio;
+        boolean atUpper;
+        if (rate > 0) {
+          if (x[j] > upper + tolerance(upper)) {
+            ratio = (x[j] - upper) / rate;
+            atUpper = true;
+          } else if (x[j] < lower - tolerance(lower) || lower == Double.NEGATIVE_INFINITY) {
+            continue;
+          } else {
+            ratio = (x[j] - lower) / rate;
+            atUpper = false;
+          }
+        } else {
+          if (x[j] < lower - tolerance(lower)) {
+            ratio = (lower - x[j]) / -rate;
+            atUpper = false;
+          } else if (x[j] > upper + tolerance(upper) || upper == Double.POSITIVE_INFINITY) {
+            continue;
+          } else {
+            ratio = (upper - x[j]) / -rate;
+            atUpper = true;
+          }
+        }
+        ratio = Math.max(0, ratio);
+        if (ratio < step || (ratio == step && leaving >= 0 && (bland
+            ? j < head[leaving] : Math.abs(alpha[i]) > Math.abs(alpha[leaving])))) {
+          step = ratio;
+          leaving = i;
+          leavingAtUpper = atUpper;
+        }
+      }
+      if (step == Double.POSITIVE_INFINITY) {
+        return feasible ? ResultStatus.UNBOUNDED : ResultStatus.NOT_SOLVED;
+      }
+      degenerate = step <= PRIMAL_TOLERANCE ? degenerate + 1 : 0;
+
+      if (leaving < 0) {
+        // The entering variable reaches its other bound before any basic variable blocks.
+        state[entering] = direction > 0 ? AT_UPPER : AT_LOWER;
+        x[entering] = direction > 0 ? upper(entering) : lower(entering);
+        continue;
+      }
+      int leavingVariable = head[leaving];
+      state[leavingVariable] = leavingAtUpper ? AT_UPPER : AT_LOWER;
+      x[leavingVariable] = leavingAtUpper ? upper(leavingVariable) : lower(leavingVariable);
+      position[leavingVariable] = -1;
+      head[leaving] = entering;
+      position[entering] = leaving;
+      pivot(leaving, alpha);
+      if (++pivotsSinceFactor >= REFACTOR_INTERVAL) {
+        refactor();
+      }
+    }
+  }
+
+  /**
+   * Factors the basis afresh, starting over from the all logical basis if it is singular.
+   */
+  private void refactor() {
+    if (!factor()) {
+      slackBasis();
+      placeNonbasic();
+    }
+  }
+
+  /**
+   * Solves {@code B x_B = -N x_N} for the basic variables.
+   */
+  private void computeBasicValues() {
+    int m = numConstraints;
+    double[] rhs = new double[m];
+    for (int j = 0; j < numVariables; j++) {
+      if (position[j] < 0 && x[j] != 0) {
+        for (int k = 0; k < columnSize[j]; k++) {
+          rhs[columnRows[j][k]] -= columnValues[j][k] * x[j];
+        }
+      }
+    }
+    for (int row = 0; row < m; row++) {
+      int j = numVariables + row;
+      if (position[j] < 0) {
+        rhs[row] += x[j];
+      }
+    }
+    for (int i = 0; i < m; i++) {
+      double value = 0;
+      double[] inverseRow = inverse[i];
+      for (int k = 0; k < m; k++) {
+        value += inverseRow[k] * rhs[k];
+      }
+      x[head[i]] = value;
+    }
+  }
+
+  private double columnDot(int j, double[] y) {
+    if (j >= numVariables) {
+      return -y[j - numVariables];
+    }
+    double dot = 0;
+    for (int k = 0; k < columnSize[j]; k++) {
+      dot += y[columnRows[j][k]] * columnValues[j][k];
+    }
+    return dot;
+  }
+
+  /**
+   * Updates the basis inverse after the entering column, {@code alpha} in the old basis, replaced
+   * the variable basic in {@code row}.
+   */
+  private void pivot(int row, double[] alpha) {
+    int m = numConstraints;
+    double[] pivotRow = inverse[row];
+    double pivot = alpha[row];
+    for (int k = 0; k < m; k++) {
+      pivotRow[k] /= pivot;
+    }
+    for (int i = 0; i < m; i++) {
+      if (i != row && alpha[i] != 0) {
+        double factor = alpha[i];
+        double[] inverseRow = inverse[i];
+        for (int k = 0; k < m; k++) {
+          inverseRow[k] -= factor * pivotRow[k];
+        }
+      }
+    }
+  }
+
+  /**
+   * Recomputes the basis inverse from the basis columns by Gauss-Jordan elimination.
+   *
+   * @return false if the basis is singular
+   */
+  private boolean factor() {
+    int m = numConstraints;
+    double[][] basis = new double[m][m];
+    for (int i = 0; i < m; i++) {
+      int j = head[i];
+      if (j < numVariables) {
+        for (int k = 0; k < columnSize[j]; k++) {
+          basis[columnRows[j][k]][i] = columnValues[j][k];
+        }
+      } else {
+        basis[j - numVariables][i] = -1;
+      }
+    }
+    double[][] result = new double[m][m];
+    for (int i = 0; i < m; i++) {
+      result[i][i] = 1;
+    }
+    for (int c = 0; c < m; c++) {
+      int pivotRow = c;
+      for (int r = c + 1; r < m; r++) {
+        if (Math.abs(basis[r][c]) > Math.abs(basis[pivotRow][c])) {
+          pivotRow = r;
+        }
+      }
+      if (Math.abs(basis[pivotRow][c]) < PIVOT_TOLERANCE) {
+        return false;
+      }
+      double[] swap = basis[c];
+      basis[c] = basis[pivotRow];
+      basis[pivotRow] = swap;
+      swap = result[c];
+      result[c] = result[pivotRow];
+      result[pivotRow] = swap;
+      double pivot = basis[c][c];
+      for (int k = 0; k < m; k++) {
+        basis[c][k] /= pivot;
+        result[c][k] /= pivot;
+      }
+      for (int r = 0; r < m; r++) {
+        double factor = basis[r][c];
+        if (r != c && factor != 0) {
+          for (int k = 0; k < m; k++) {
+            basis[r][k] -= factor * basis[c][k];
+            result[r][k] -= factor * result[c][k];
+          }
+        }
+      }
+    }
+    inverse = result;
+    pivotsSinceFactor = 0;
+    return true;
+  }
+
+  /**
+   * Starts from the basis of all logical variables, whose inverse is {@code -I}.
+   */
+  private void slackBasis() {
+    int m = numConstraints;
+    int n = numVariables + numConstraints;
+    head = new int[m];
+    position = new int[n];
+    state = new byte[n];
+    x = new double[n];
+    inverse = new double[m][m];
+    Arrays.fill(position, -1);
+    for (int i = 0; i < m; i++) {
+      head[i] = numVariables + i;
+      position[numVariables + i] = i;
+      inverse[i][i] = -1;
+    }
+    pivotsSinceFactor = 0;
+    hasBasis = true;
+  }
+
+  /**
+   * Moves every nonbasic variable onto one of its current bounds, or zero if it has none.
+   */
+  private void placeNonbasic() {
+    for (int j = 0; j < position.length; j++) {
+      if (position[j] >= 0) {
+        continue;
+      }
+      double lower = lower(j);
+      double upper = upper(j);
+      boolean hasLower = lower != Double.NEGATIVE_INFINITY;
+      boolean hasUpper = upper != Double.POSITIVE_INFINITY;
+      if (state[j] == AT_UPPER && hasUpper || !hasLower && hasUpper) {
+        state[j] = AT_UPPER;
+        x[j] = upper;
+      } else if (hasLower) {
+        state[j] = AT_LOWER;
+        x[j] = lower;
+      } else {
+        state[j] = AT_ZERO;
+        x[j] = 0;
+      }
+    }
+  }
+
+  private double lower(int j) {
+    return j < numVariables ? variableLower[j] : rowLower[j - numVariables];
+  }
+
+  private double upper(int j) {
+    return j < numVariables ? variableUpper[j] : rowUpper[j - numVariables];
+  }
+
+  private double cost(int j) {
+    return j < numVariables ? cost[j] : 0;
+  }
+
+  private static double tolerance(double bound) {
+    return PRIMAL_TOLERANCE * Math.max(1, Math.abs(bound));
+  }
+}
@@ -0,0 +1,19 @@
+package com.theblakearnold.stocksolver.lp;
+
+/**
+ * Creates {@link LinearSolver} instances for one linear programming implementation.
+ *
+ * <p>Backends are immutable and can be shared between threads; the solvers they create can not.
+ */
+public interface SolverBackend {
+
+  /**
+   * Short name used to select the backend, and in logs and benchmarks.
+   */
+  String name();
+
+  /**
+   * Creates a new, empty solver.
+   */
+  LinearSolver createSolver(String name);
+}
@@ -0,0 +1,41 @@
+package com.theblakearnold.stocksolver.lp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Looks up {@link SolverBackend}s by name.
+ */
+public final class SolverBackends {
+
+  private static final String RACE_PREFIX = "race:";
+
+  private SolverBackends() {
+  }
+
+  /**
+   * Returns the backend for {@code name}: {@code simplex} for the pure Java solver, {@code clp}
+   * or {@code glop} for OR-tools, or any other OR-tools problem type name such as
+   * {@code GLPK_LINEAR_PROGRAMMING}. {@code race:NAME,NAME,...} races the named backends, see
+   * {@link RacingBackend}.
+   */
+  public static SolverBackend forName(String name) {
+    if (name.toLowerCase().startsWith(RACE_PREFIX)) {
+      List<SolverBackend> backends = new ArrayList<>();
+      for (String backend : name.substring(RACE_PREFIX.length()).split(",")) {
+        backends.add(forName(backend.trim()));
+      }
+      return new RacingBackend(backends);
+    }
+    switch (name.toLowerCase()) {
+      case "simplex":
+        return new SimplexBackend();
+      case "clp":
+        return new OrToolsBackend("CLP_LINEAR_PROGRAMMING");
+      case "glop":
+        return new OrToolsBackend("GLOP_LINEAR_PROGRAMMING");
+      default:
+        return new OrToolsBackend(name);
+    }
+  }
+}
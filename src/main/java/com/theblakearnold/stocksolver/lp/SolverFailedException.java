@@ -0,0 +1,21 @@
+package com.theblakearnold.stocksolver.lp;
+
+/**
+ * A solve that ended without proving the model optimal or infeasible, for example a solver that
+ * hit its iteration limit, was interrupted or failed.
+ *
+ * <p>Searches read an infeasible solve as a wiggle that is too tight, so a failed solve must not
+ * be mistaken for one.
+ */
+public class SolverFailedException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public SolverFailedException(String message) {
+    super(message);
+  }
+
+  public SolverFailedException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
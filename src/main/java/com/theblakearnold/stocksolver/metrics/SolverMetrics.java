@@ -0,0 +1,230 @@
+package com.theblakearnold.stocksolver.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process wide counters and timers for where a rebalance spends its time.
+ *
+ * <p>Timers keep a count, a total and a maximum, counters a sum. Both are keyed by the names
+ * below and are safe to update from any thread. {@link #register} exposes them over JMX as
+ * {@value #OBJECT_NAME}, and {@link #toJson} dumps them at the end of a run.
+ */
+public final class SolverMetrics implements SolverMetricsMXBean {
+
+  public static final String OBJECT_NAME = "com.theblakearnold.stocksolver:type=SolverMetrics";
+
+  /** Timer: parsing one sheet, suffixed with the sheet name. */
+  public static final String PARSE_SHEET = "parse.";
+  /** Timer: {@code InputValidator.validate}. */
+  public static final String VALIDATE = "validate";
+  /** Timer: re-checking one holding edit in {@code IncrementalValidator}. */
+  public static final String VALIDATE_INCREMENTAL = "validate.incremental";
+  /** Timer: building the allocation model. */
+  public static final String COMPILE_ALLOCATION = "compile.allocation";
+  /** Timer: building the wiggle model. */
+  public static final String COMPILE_WIGGLE = "compile.wiggle";
+  /** Timer: one solve of the allocation model. */
+  public static final String SOLVE_ALLOCATION = "solve.allocation";
+  /** Timer: one solve of the wiggle model. */
+  public static final String SOLVE_WIGGLE = "solve.wiggle";
+  /** Counter: simplex iterations over every solve. */
+  public static final String ITERATIONS = "simplex.iterations";
+  /** Counter: solves that found an optimal solution. */
+  public static final String FEASIBLE = "solve.feasible";
+  /** Counter: solves that proved the model infeasible. */
+  public static final String INFEASIBLE = "solve.infeasible";
+  /** Counter: solves that ended without an answer, which fail the optimization. */
+  public static final String FAILED = "solve.failed";
+  /** Counters: wiggle probes of the overall search, and how many needed a solve. */
+  public static final String PHASE_OVERALL = "phase.overall";
+  /** Counters: wiggle probes of the per category searches, and how many needed a solve. */
+  public static final String PHASE_CATEGORY = "phase.category";
+  /** Counter: category orders tried. */
+  public static final String PERMUTATIONS = "phase.permutations";
+  /** Counter: rounds of the lexicographic search. */
+  public static final String LEXICOGRAPHIC_ROUNDS = "phase.lexicographic.rounds";
+  /** Suffix of a phase counter for every probe. */
+  public static final String PROBES = ".probes";
+  /** Suffix of a phase counter for probes that needed a solve. */
+  public static final String SOLVES = ".solves";
+  /** Suffix of a phase counter for probes rejected by reachable bounds, without a solve. */
+  public static final String SCREENED = ".screened";
+
+  private final static Logger log = Logger.getLogger(SolverMetrics.class.getName());
+
+  private static final SolverMetrics INSTANCE = new SolverMetrics();
+
+  private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+  private SolverMetrics() {
+  }
+
+  public static SolverMetrics get() {
+    return INSTANCE;
+  }
+
+  public void increment(String name) {
+    add(name, 1);
+  }
+
+  public void add(String name, long delta) {
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      AtomicLong newCounter = new AtomicLong();
+      counter = counters.putIfAbsent(name, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+    }
+    counter.addAndGet(delta);
+  }
+
+  /**
+   * Records one timing of {@code name}, usually {@code System.nanoTime() - start}.
+   */
+  public void recordNanos(String name, long nanos) {
+    Timer timer = timers.get(name);
+    if (timer == null) {
+      Timer newTimer = new Timer();
+      timer = timers.putIfAbsent(name, newTimer);
+      if (timer == null) {
+        timer = newTimer;
+      }
+    }
+    timer.record(nanos);
+  }
+
+  /**
+   * Registers with the platform MBean server, once.
+   */
+  public synchronized void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(this, name);
+      }
+    } catch (JMException e) {
+      log.warning("Failed to register metrics over JMX: " + e);
+    }
+  }
+
+  @Override
+  public Map<String, Long> getCounters() {
+    SortedMap<String, Long> result = new TreeMap<>();
+    for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+      result.put(counter.getKey(), counter.getValue().get());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getTimerCounts() {
+    SortedMap<String, Long> result = new TreeMap<>();
+    for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+      result.put(timer.getKey(), timer.getValue().count.get());
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Double> getTimerTotalMillis() {
+    SortedMap<String, Double> result = new TreeMap<>();
+    for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+      result.put(timer.getKey(), timer.getValue().totalNanos.get() / 1e6);
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Double> getTimerMaxMillis() {
+    SortedMap<String, Double> result = new TreeMap<>();
+    for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+      result.put(timer.getKey(), timer.getValue().maxNanos.get() / 1e6);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the fraction of solves that found an optimal solution.
+   */
+  public double feasibilityRatio() {
+    long feasible = counter(FEASIBLE);
+    long total = feasible + counter(INFEASIBLE);
+    return total == 0 ? 0 : (double) feasible / total;
+  }
+
+  private long counter(String name) {
+    AtomicLong counter = counters.get(name);
+    return counter == null ? 0 : counter.get();
+  }
+
+  /**
+   * Returns every metric as
+   * <pre>
+   *   {"counters": {"simplex.iterations": 1234, ...},
+   *    "timers": {"solve.allocation": {"count": 10, "totalMillis": 5.2, "maxMillis": 1.1}, ...},
+   *    "feasibilityRatio": 0.6}
+   * </pre>
+   */
+  @Override
+  public String getJson() {
+    return toJson();
+  }
+
+  public String toJson() {
+    StringBuilder json = new StringBuilder("{\"counters\": {");
+    String separator = "";
+    for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+      json.append(separator).append('"').append(counter.getKey()).append("\": ")
+          .append(counter.getValue());
+      separator = ", ";
+    }
+    json.append("}, \"timers\": {");
+    separator = "";
+    Map<String, Double> totals = getTimerTotalMillis();
+    Map<String, Double> maxes = getTimerMaxMillis();
+    for (Map.Entry<String, Long> count : getTimerCounts().entrySet()) {
+      json.append(separator).append('"').append(count.getKey()).append("\": {\"count\": ")
+          .append(count.getValue())
+          .append(", \"totalMillis\": ").append(totals.get(count.getKey()))
+          .append(", \"maxMillis\": ").append(maxes.get(count.getKey())).append('}');
+      separator = ", ";
+    }
+    return json.append("}, \"feasibilityRatio\": ").append(feasibilityRatio()).append('}')
+        .toString();
+  }
+
+  @Override
+  public void reset() {
+    counters.clear();
+    timers.clear();
+  }
+
+  private static class Timer {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      long max = maxNanos.get();
+      while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+        max = maxNanos.get();
+      }
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package com.theblakearnold.stocksolver.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link SolverMetrics}.
+ */
+public interface SolverMetricsMXBean {
+
+  Map<String, Long> getCounters();
+
+  Map<String, Long> getTimerCounts();
+
+  Map<String, Double> getTimerTotalMillis();
+
+  Map<String, Double> getTimerMaxMillis();
+
+  /**
+   * Returns every metric as JSON, see {@link SolverMetrics#toJson}.
+   */
+  String getJson();
+
+  void reset();
+}
@@ -19,7 +19,10 @@ public abstract class StockModel {
 
   public abstract String ticker();
 
-  abstract Map<String, Double> percentages();
+  /**
+   * The percent of the stock in each category, keyed by category name.
+   */
+  public abstract Map<String, Double> percentages();
 
   public abstract double expenseRatio();
 
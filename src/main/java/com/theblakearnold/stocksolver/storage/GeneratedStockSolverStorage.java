@@ -0,0 +1,347 @@
+package com.theblakearnold.stocksolver.storage;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import com.theblakearnold.stocksolver.model.AccountModel;
+import com.theblakearnold.stocksolver.model.CategoryGroupModel;
+import com.theblakearnold.stocksolver.model.CategoryModel;
+import com.theblakearnold.stocksolver.model.StockHoldingModel;
+import com.theblakearnold.stocksolver.model.StockModel;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Implements {@code StockSolverStorage} with a random portfolio, for benchmarks and stress tests.
+ * The same settings and seed always give the same portfolio.
+ *
+ * <p>Funds are split across one to three categories in whole percents. The first fund of each
+ * category is entirely in that category, and is held by at least one account. Some holdings are
+ * locked and some have a minimum balance.
+ *
+ * <p>The portfolio is always feasible with no wiggle room: a hidden allocation that respects
+ * every account value, locked holding and minimum balance is drawn first, and the category
+ * targets are its category percentages. The current holdings are then a different split of each
+ * account's value, so there is still something to rebalance.
+ *
+ * <p>{@link #writeWorkbook} writes the same data in the format {@link XlsStockSolverStorage}
+ * reads.
+ */
+public class GeneratedStockSolverStorage implements StockSolverStorage {
+
+  private static final int MAX_CATEGORIES_PER_FUND = 3;
+
+  private final ImmutableList<AccountModel> accounts;
+  private final ImmutableList<CategoryGroupModel> categoryGroups;
+
+  private GeneratedStockSolverStorage(ImmutableList<AccountModel> accounts,
+      ImmutableList<CategoryGroupModel> categoryGroups) {
+    this.accounts = accounts;
+    this.categoryGroups = categoryGroups;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  @Override
+  public List<AccountModel> getAccounts() {
+    return accounts;
+  }
+
+  @Override
+  public List<CategoryGroupModel> getCategoryGroups() {
+    return categoryGroups;
+  }
+
+  /**
+   * Writes the portfolio as a workbook with "Stocks", "Allocations" and "Holdings" sheets.
+   */
+  public void writeWorkbook(File file) throws IOException {
+    XSSFWorkbook workbook = new XSSFWorkbook();
+    List<String> categories = new ArrayList<>();
+    Sheet allocations = workbook.createSheet(XlsStockSolverStorage.ALLOCATIONS_SHEET_NAME);
+    writeRow(allocations, 0, XlsStockSolverStorage.CATEGORY_COLUMN_NAME,
+        XlsStockSolverStorage.GROUP_COLUMN_NAME, XlsStockSolverStorage.PERCENT_COLUMN_NAME);
+    for (CategoryGroupModel group : categoryGroups) {
+      for (CategoryModel category : group.categories()) {
+        Row row = writeRow(allocations, categories.size() + 1, category.name(), group.name());
+        row.createCell(2).setCellValue(category.percent() / 100);
+        categories.add(category.name());
+      }
+    }
+
+    Map<String, StockModel> stocks = new LinkedHashMap<>();
+    Sheet holdings = workbook.createSheet(XlsStockSolverStorage.HOLDINGS_SHEET_NAME);
+    writeRow(holdings, 0, XlsStockSolverStorage.TICKER_COLUMN_NAME,
+        XlsStockSolverStorage.ACCOUNT_COLUMN_NAME, XlsStockSolverStorage.CURRENT_VALUE_COLUMN_NAME,
+        XlsStockSolverStorage.MIN_VALUE_COLUMN_NAME, XlsStockSolverStorage.LOCKED_COLUMN_NAME);
+    int holdingRow = 1;
+    for (AccountModel account : accounts) {
+      for (StockHoldingModel holding : account.stocks()) {
+        Row row = writeRow(holdings, holdingRow++, holding.stockModel().ticker(), account.name());
+        row.createCell(2).setCellValue(holding.currentHolding());
+        row.createCell(3).setCellValue(holding.minimumBalance());
+        row.createCell(4).setCellValue(holding.isLocked() ? 1 : 0);
+        stocks.put(holding.stockModel().ticker(), holding.stockModel());
+      }
+    }
+
+    Sheet stockSheet = workbook.createSheet(XlsStockSolverStorage.STOCKS_SHEET_NAME);
+    Row header = writeRow(stockSheet, 0, XlsStockSolverStorage.TICKER_COLUMN_NAME,
+        XlsStockSolverStorage.EXPENSE_RATIO_COLUMN_NAME);
+    for (int c = 0; c < categories.size(); c++) {
+      header.createCell(c + 2).setCellValue(categories.get(c));
+    }
+    int stockRow = 1;
+    for (StockModel stock : stocks.values()) {
+      Row row = writeRow(stockSheet, stockRow++, stock.ticker());
+      row.createCell(1).setCellValue(stock.expenseRatio());
+      for (int c = 0; c < categories.size(); c++) {
+        if (stock.hasCategoryAllocation(categories.get(c))) {
+          row.createCell(c + 2).setCellValue(stock.percentage(categories.get(c)) / 100);
+        }
+      }
+    }
+
+    OutputStream out = new FileOutputStream(file);
+    try {
+      workbook.write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static Row writeRow(Sheet sheet, int rowNumber, String... values) {
+    Row row = sheet.createRow(rowNumber);
+    for (int i = 0; i < values.length; i++) {
+      row.createCell(i).setCellValue(values[i]);
+    }
+    return row;
+  }
+
+  public static class Builder {
+
+    private int accounts = 4;
+    private int funds = 20;
+    private int categories = 12;
+    private int categoryGroups = 4;
+    private int holdingsPerAccount = 8;
+    private double lockedFraction = .05;
+    private double minimumFraction = .2;
+    private long seed;
+
+    private Builder() {
+    }
+
+    public Builder setAccounts(int accounts) {
+      this.accounts = accounts;
+      return this;
+    }
+
+    public Builder setFunds(int funds) {
+      this.funds = funds;
+      return this;
+    }
+
+    public Builder setCategories(int categories) {
+      this.categories = categories;
+      return this;
+    }
+
+    public Builder setCategoryGroups(int categoryGroups) {
+      this.categoryGroups = categoryGroups;
+      return this;
+    }
+
+    /**
+     * Number of different funds each account holds, at most the number of funds.
+     */
+    public Builder setHoldingsPerAccount(int holdingsPerAccount) {
+      this.holdingsPerAccount = holdingsPerAccount;
+      return this;
+    }
+
+    /**
+     * Fraction of holdings that are locked at their current value.
+     */
+    public Builder setLockedFraction(double lockedFraction) {
+      this.lockedFraction = lockedFraction;
+      return this;
+    }
+
+    /**
+     * Fraction of holdings that have a minimum balance.
+     */
+    public Builder setMinimumFraction(double minimumFraction) {
+      this.minimumFraction = minimumFraction;
+      return this;
+    }
+
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public GeneratedStockSolverStorage build() {
+      Preconditions.checkState(accounts > 0, "accounts must be positive: %s", accounts);
+      Preconditions.checkState(categoryGroups > 0, "categoryGroups must be positive: %s",
+          categoryGroups);
+      Preconditions.checkState(categories >= categoryGroups,
+          "Need a category per group, %s categories for %s groups", categories, categoryGroups);
+      Preconditions.checkState(funds >= categories,
+          "Need a fund per category, %s funds for %s categories", funds, categories);
+      Preconditions.checkState(holdingsPerAccount > 0 && holdingsPerAccount <= funds,
+          "holdingsPerAccount must be in [1, %s]: %s", funds, holdingsPerAccount);
+      Preconditions.checkState((long) accounts * holdingsPerAccount >= categories,
+          "%s accounts of %s holdings can not hold a fund per category", accounts,
+          holdingsPerAccount);
+      Preconditions.checkState(lockedFraction >= 0 && lockedFraction < 1,
+          "lockedFraction must be in [0, 1): %s", lockedFraction);
+      Preconditions.checkState(minimumFraction >= 0 && minimumFraction <= 1,
+          "minimumFraction must be in [0, 1]: %s", minimumFraction);
+
+      Random random = new Random(seed);
+      List<StockModel> stocks = buildStocks(random);
+
+      // The hidden feasible allocation, and the current holdings that redistribute it.
+      double[] exposure = new double[categories];
+      double totalValue = 0;
+      ImmutableList.Builder<AccountModel> accountModels = ImmutableList.builder();
+      for (int account = 0; account < accounts; account++) {
+        List<Integer> held = chooseFunds(account, random);
+        double[] target = new double[held.size()];
+        double[] minimum = new double[held.size()];
+        boolean[] locked = new boolean[held.size()];
+        double accountValue = 0;
+        double free = 0;
+        for (int i = 0; i < held.size(); i++) {
+          target[i] = 1000 + random.nextInt(100000);
+          accountValue += target[i];
+          if (random.nextDouble() < lockedFraction) {
+            // Locked holdings are held at their minimum.
+            locked[i] = true;
+            minimum[i] = target[i];
+          } else if (random.nextDouble() < minimumFraction) {
+            minimum[i] = Math.floor(target[i] * (.1 + .4 * random.nextDouble()));
+          }
+          free += target[i] - minimum[i];
+          StockModel stock = stocks.get(held.get(i));
+          for (Map.Entry<String, Double> allocation : stock.percentages().entrySet()) {
+            exposure[categoryId(allocation.getKey())] +=
+                target[i] * allocation.getValue() / 100;
+          }
+        }
+        totalValue += accountValue;
+
+        double[] weights = new double[held.size()];
+        double totalWeight = 0;
+        for (int i = 0; i < held.size(); i++) {
+          if (!locked[i]) {
+            weights[i] = random.nextDouble();
+            totalWeight += weights[i];
+          }
+        }
+        AccountModel.Builder accountModel =
+            AccountModel.newBuilder().setName("Account " + account).setValue(accountValue);
+        for (int i = 0; i < held.size(); i++) {
+          double current = locked[i] || totalWeight == 0
+              ? target[i] : minimum[i] + free * weights[i] / totalWeight;
+          accountModel.addStockHoldingModel(StockHoldingModel.create(
+              stocks.get(held.get(i)), minimum[i], locked[i], current));
+        }
+        accountModels.add(accountModel.build());
+      }
+
+      ImmutableList.Builder<CategoryGroupModel> groups = ImmutableList.builder();
+      for (int group = 0; group < categoryGroups; group++) {
+        CategoryGroupModel.Builder groupModel =
+            CategoryGroupModel.newBuilder().setName("Group " + group);
+        for (int category = group; category < categories; category += categoryGroups) {
+          groupModel.addCategory(CategoryModel.create(
+              categoryName(category), exposure[category] / totalValue * 100));
+        }
+        groups.add(groupModel.build());
+      }
+      return new GeneratedStockSolverStorage(accountModels.build(), groups.build());
+    }
+
+    /**
+     * Fund {@code i} is entirely in category {@code i} for the first {@code categories} funds.
+     * The rest are split across up to three categories in whole
+     * percents.
+     */
+    private List<StockModel> buildStocks(Random random) {
+      List<StockModel> stocks = new ArrayList<>();
+      for (int fund = 0; fund < funds; fund++) {
+        StockModel.Builder stock = StockModel.newBuilder()
+            .setTicker("F" + fund)
+            .setExpenseRatio((2 + random.nextInt(99)) / 100.0);
+        if (fund < categories) {
+          stock.setAllocation(CategoryModel.create(categoryName(fund), 100));
+        } else {
+          int parts = Math.min(categories, 1 + random.nextInt(MAX_CATEGORIES_PER_FUND));
+          Set<Integer> fundCategories = new LinkedHashSet<>();
+          while (fundCategories.size() < parts) {
+            fundCategories.add(random.nextInt(categories));
+          }
+          // Cut [0, 100] at parts - 1 distinct whole percents.
+          Set<Integer> cuts = new LinkedHashSet<>();
+          while (cuts.size() < parts - 1) {
+            cuts.add(1 + random.nextInt(99));
+          }
+          List<Integer> sortedCuts = new ArrayList<>(cuts);
+          Collections.sort(sortedCuts);
+          sortedCuts.add(100);
+          int last = 0;
+          int part = 0;
+          for (int category : fundCategories) {
+            int cut = sortedCuts.get(part++);
+            stock.setAllocation(CategoryModel.create(categoryName(category), cut - last));
+            last = cut;
+          }
+        }
+        stocks.add(stock.build());
+      }
+      return stocks;
+    }
+
+    /**
+     * Account {@code a} always holds the single category funds {@code a}, {@code a + accounts},
+     * ..., so that every category is held; the rest of its funds are random.
+     */
+    private List<Integer> chooseFunds(int account, Random random) {
+      Set<Integer> held = new LinkedHashSet<>();
+      for (int fund = account; fund < categories; fund += accounts) {
+        held.add(fund);
+      }
+      while (held.size() < holdingsPerAccount) {
+        held.add(random.nextInt(funds));
+      }
+      return new ArrayList<>(held);
+    }
+  }
+
+  private static String categoryName(int category) {
+    return "Category " + category;
+  }
+
+  private static int categoryId(String categoryName) {
+    return Integer.parseInt(categoryName.substring("Category ".length()));
+  }
+}
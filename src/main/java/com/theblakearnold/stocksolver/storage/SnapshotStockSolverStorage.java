@@ -0,0 +1,218 @@
+package com.theblakearnold.stocksolver.storage;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import com.theblakearnold.stocksolver.model.AccountModel;
+import com.theblakearnold.stocksolver.model.CategoryGroupModel;
+import com.theblakearnold.stocksolver.model.CategoryModel;
+import com.theblakearnold.stocksolver.model.StockHoldingModel;
+import com.theblakearnold.stocksolver.model.StockModel;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Implements {@code StockSolverStorage} with an {@link XlsStockSolverStorage} whose parsed models
+ * are cached in a binary snapshot next to the workbook, named after it with a
+ * {@value #SNAPSHOT_SUFFIX} suffix.
+ *
+ * <p>The snapshot starts with the SHA-256 of the workbook it was built from. {@link #load} hashes
+ * the workbook and reads the snapshot if the hashes match, without touching POI. Otherwise, or if
+ * the snapshot can't be read, the workbook is parsed and the snapshot rewritten. The snapshot is
+ * a {@link VersionedFile}, so one of an older layout is rebuilt too.
+ *
+ * <p>Stocks are written once and referred to from holdings by position, so holdings of the same
+ * stock share a {@link StockModel} like they do when parsed from the workbook.
+ */
+public class SnapshotStockSolverStorage implements StockSolverStorage {
+
+  static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+  private static final int MAGIC = 0x53534e50;
+  private static final int VERSION = 1;
+
+  private final static Logger log = Logger.getLogger(SnapshotStockSolverStorage.class.getName());
+
+  private final String workbookFilename;
+  private final VersionedFile snapshotFile;
+  private ImmutableList<AccountModel> accounts;
+  private ImmutableList<CategoryGroupModel> categoryGroups;
+
+  public SnapshotStockSolverStorage(String workbookFilename) {
+    this.workbookFilename = workbookFilename;
+    this.snapshotFile =
+        new VersionedFile(new File(workbookFilename + SNAPSHOT_SUFFIX), MAGIC, VERSION);
+  }
+
+  /**
+   * Loads the models from the snapshot, rebuilding it from the workbook if it is missing or was
+   * built from different workbook contents.
+   */
+  public void load() throws IOException, InvalidFormatException {
+    byte[] workbookHash = Files.hash(new File(workbookFilename), Hashing.sha256()).asBytes();
+    if (readSnapshot(workbookHash)) {
+      log.fine("Loaded snapshot " + snapshotFile.file());
+      return;
+    }
+    log.info("Snapshot missing or stale, parsing " + workbookFilename);
+    XlsStockSolverStorage xls = new XlsStockSolverStorage(workbookFilename);
+    xls.load();
+    accounts = ImmutableList.copyOf(xls.getAccounts());
+    categoryGroups = ImmutableList.copyOf(xls.getCategoryGroups());
+    writeSnapshot(workbookHash);
+  }
+
+  /**
+   * @return true if the snapshot was built from a workbook with the given hash and was read
+   */
+  private boolean readSnapshot(byte[] workbookHash) {
+    try {
+      Optional<DataInputStream> contents = snapshotFile.read();
+      if (!contents.isPresent()) {
+        return false;
+      }
+      DataInputStream in = contents.get();
+      byte[] snapshotHash = new byte[in.readInt()];
+      in.readFully(snapshotHash);
+      if (!Arrays.equals(workbookHash, snapshotHash)) {
+        return false;
+      }
+      readModels(in);
+      return true;
+    } catch (IOException | RuntimeException e) {
+      log.warning("Ignoring unreadable snapshot " + snapshotFile.file() + ": " + e);
+      return false;
+    }
+  }
+
+  /**
+   * Writes the snapshot. Failing to write only costs the next load a parse.
+   */
+  private void writeSnapshot(final byte[] workbookHash) {
+    try {
+      snapshotFile.write(new VersionedFile.Contents() {
+        @Override
+        public void write(DataOutputStream out) throws IOException {
+          out.writeInt(workbookHash.length);
+          out.write(workbookHash);
+          writeModels(out);
+        }
+      });
+      log.fine("Wrote snapshot " + snapshotFile.file());
+    } catch (IOException e) {
+      log.warning("Failed to write snapshot " + snapshotFile.file() + ": " + e);
+    }
+  }
+
+  private void writeModels(DataOutputStream out) throws IOException {
+    Map<StockModel, Integer> stockIndex = new LinkedHashMap<>();
+    for (AccountModel account : accounts) {
+      for (StockHoldingModel holding : account.stocks()) {
+        if (!stockIndex.containsKey(holding.stockModel())) {
+          stockIndex.put(holding.stockModel(), stockIndex.size());
+        }
+      }
+    }
+    out.writeInt(stockIndex.size());
+    for (StockModel stock : stockIndex.keySet()) {
+      out.writeUTF(stock.ticker());
+      out.writeDouble(stock.expenseRatio());
+      out.writeInt(stock.percentages().size());
+      for (Map.Entry<String, Double> percentage : stock.percentages().entrySet()) {
+        out.writeUTF(percentage.getKey());
+        out.writeDouble(percentage.getValue());
+      }
+    }
+
+    out.writeInt(categoryGroups.size());
+    for (CategoryGroupModel categoryGroup : categoryGroups) {
+      out.writeUTF(categoryGroup.name());
+      out.writeInt(categoryGroup.categories().size());
+      for (CategoryModel category : categoryGroup.categories()) {
+        out.writeUTF(category.name());
+        out.writeDouble(category.percent());
+      }
+    }
+
+    out.writeInt(accounts.size());
+    for (AccountModel account : accounts) {
+      out.writeUTF(account.name());
+      out.writeDouble(account.value());
+      out.writeInt(account.stocks().size());
+      for (StockHoldingModel holding : account.stocks()) {
+        out.writeInt(stockIndex.get(holding.stockModel()));
+        out.writeDouble(holding.minimumBalance());
+        out.writeBoolean(holding.isLocked());
+        out.writeDouble(holding.currentHolding());
+      }
+    }
+  }
+
+  private void readModels(DataInputStream in) throws IOException {
+    int stockCount = in.readInt();
+    List<StockModel> stocks = new ArrayList<>(stockCount);
+    for (int i = 0; i < stockCount; i++) {
+      StockModel.Builder stock = StockModel.newBuilder()
+          .setTicker(in.readUTF())
+          .setExpenseRatio(in.readDouble());
+      int percentageCount = in.readInt();
+      for (int j = 0; j < percentageCount; j++) {
+        stock.setAllocation(CategoryModel.create(in.readUTF(), in.readDouble()));
+      }
+      stocks.add(stock.build());
+    }
+
+    int categoryGroupCount = in.readInt();
+    ImmutableList.Builder<CategoryGroupModel> categoryGroupsBuilder = ImmutableList.builder();
+    for (int i = 0; i < categoryGroupCount; i++) {
+      CategoryGroupModel.Builder categoryGroup = CategoryGroupModel.newBuilder()
+          .setName(in.readUTF());
+      int categoryCount = in.readInt();
+      for (int j = 0; j < categoryCount; j++) {
+        categoryGroup.addCategory(CategoryModel.create(in.readUTF(), in.readDouble()));
+      }
+      categoryGroupsBuilder.add(categoryGroup.build());
+    }
+
+    int accountCount = in.readInt();
+    ImmutableList.Builder<AccountModel> accountsBuilder = ImmutableList.builder();
+    for (int i = 0; i < accountCount; i++) {
+      AccountModel.Builder account = AccountModel.newBuilder()
+          .setName(in.readUTF())
+          .setValue(in.readDouble());
+      int holdingCount = in.readInt();
+      for (int j = 0; j < holdingCount; j++) {
+        StockModel stock = stocks.get(in.readInt());
+        account.addStockHoldingModel(StockHoldingModel.create(stock, in.readDouble(),
+            in.readBoolean(), in.readDouble()));
+      }
+      accountsBuilder.add(account.build());
+    }
+
+    categoryGroups = categoryGroupsBuilder.build();
+    accounts = accountsBuilder.build();
+  }
+
+  @Override
+  public List<AccountModel> getAccounts() {
+    return accounts;
+  }
+
+  @Override
+  public List<CategoryGroupModel> getCategoryGroups() {
+    return categoryGroups;
+  }
+}
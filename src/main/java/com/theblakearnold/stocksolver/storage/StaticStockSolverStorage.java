@@ -25,61 +25,61 @@ public class StaticStockSolverStorage implements StockSolverStorage {
 
   static {
     Map<String, StockModel> stockModels = new HashMap<>();
-    stockModels.put("VBIIX", StockModel.newBuilder().setTicker("VBIIX")
+    stockModels.put("VBIIX", StockModel.newBuilder().setTicker("VBIIX").setExpenseRatio(0.20)
         .setAllocation(createCategoryModel(Category.BONDS, 100)).build());
-    stockModels.put("VIPSX", StockModel.newBuilder().setTicker("VIPSX")
+    stockModels.put("VIPSX", StockModel.newBuilder().setTicker("VIPSX").setExpenseRatio(0.20)
         .setAllocation(createCategoryModel(Category.TIPS, 100)).build());
-    stockModels.put("VSMAX", StockModel.newBuilder().setTicker("VSMAX")
+    stockModels.put("VSMAX", StockModel.newBuilder().setTicker("VSMAX").setExpenseRatio(0.09)
         .setAllocation(createCategoryModel(Category.DOMESTIC_SMALL_CAP, 100)).build());
-    stockModels.put("VTV", StockModel.newBuilder().setTicker("VTV")
+    stockModels.put("VTV", StockModel.newBuilder().setTicker("VTV").setExpenseRatio(0.09)
         .setAllocation(createCategoryModel(Category.DOMESTIC_VALUE, 74))
         .setAllocation(createCategoryModel(Category.DOMESTIC_TOTAL, 26)).build());
-    stockModels.put("VNQI", StockModel.newBuilder().setTicker("VNQI")
+    stockModels.put("VNQI", StockModel.newBuilder().setTicker("VNQI").setExpenseRatio(0.24)
         .setAllocation(createCategoryModel(Category.REAL_ESTATE_INTL, 100)).build());
-    stockModels.put("VTSAX", StockModel.newBuilder().setTicker("VTSAX")
+    stockModels.put("VTSAX", StockModel.newBuilder().setTicker("VTSAX").setExpenseRatio(0.05)
         .setAllocation(createCategoryModel(Category.DOMESTIC_SMALL_CAP, 9))
         .setAllocation(createCategoryModel(Category.DOMESTIC_TOTAL, 47))
         .setAllocation(createCategoryModel(Category.DOMESTIC_VALUE, 44)).build());
-    stockModels.put("VGSNX", StockModel.newBuilder().setTicker("VGSNX")
+    stockModels.put("VGSNX", StockModel.newBuilder().setTicker("VGSNX").setExpenseRatio(0.08)
         .setAllocation(createCategoryModel(Category.REAL_ESTATE_DOM, 100)).build());
 
-    stockModels.put("VBMPX", StockModel.newBuilder().setTicker("VBMPX")
+    stockModels.put("VBMPX", StockModel.newBuilder().setTicker("VBMPX").setExpenseRatio(0.04)
         .setAllocation(createCategoryModel(Category.BONDS, 100)).build());
-    stockModels.put("VEMPX", StockModel.newBuilder().setTicker("VEMPX")
+    stockModels.put("VEMPX", StockModel.newBuilder().setTicker("VEMPX").setExpenseRatio(0.05)
         .setAllocation(createCategoryModel(Category.DOMESTIC_SMALL_CAP, 69))
         .setAllocation(createCategoryModel(Category.DOMESTIC_TOTAL, 31)).build());
-    stockModels.put("VIIIX", StockModel.newBuilder().setTicker("VIIIX")
+    stockModels.put("VIIIX", StockModel.newBuilder().setTicker("VIIIX").setExpenseRatio(0.02)
         .setAllocation(createCategoryModel(Category.DOMESTIC_VALUE, 50))
         .setAllocation(createCategoryModel(Category.DOMESTIC_TOTAL, 50)).build());
-    stockModels.put("VTPSX", StockModel.newBuilder().setTicker("VTPSX")
+    stockModels.put("VTPSX", StockModel.newBuilder().setTicker("VTPSX").setExpenseRatio(0.10)
         .setAllocation(createCategoryModel(Category.FOREIGN_VALUE, 52))
         .setAllocation(createCategoryModel(Category.FOREIGN_TOTAL, 48)).build());
-    stockModels.put("SCHE", StockModel.newBuilder().setTicker("SCHE")
+    stockModels.put("SCHE", StockModel.newBuilder().setTicker("SCHE").setExpenseRatio(0.15)
         .setAllocation(createCategoryModel(Category.EMERGING_MARKETS, 100)).build());
-    stockModels.put("SCHG", StockModel.newBuilder().setTicker("SCHG")
+    stockModels.put("SCHG", StockModel.newBuilder().setTicker("SCHG").setExpenseRatio(0.04)
         .setAllocation(createCategoryModel(Category.DOMESTIC_VALUE, 21))
         .setAllocation(createCategoryModel(Category.DOMESTIC_TOTAL, 79)).build());
-    stockModels.put("SCHF", StockModel.newBuilder().setTicker("SCHF")
+    stockModels.put("SCHF", StockModel.newBuilder().setTicker("SCHF").setExpenseRatio(0.08)
         .setAllocation(createCategoryModel(Category.FOREIGN_VALUE, 55))
         .setAllocation(createCategoryModel(Category.FOREIGN_TOTAL, 45)).build());
-    stockModels.put("SCHC", StockModel.newBuilder().setTicker("SCHC")
+    stockModels.put("SCHC", StockModel.newBuilder().setTicker("SCHC").setExpenseRatio(0.20)
         .setAllocation(createCategoryModel(Category.FOREIGN_SMALL_CAP, 100)).build());
-    stockModels.put("SCHV", StockModel.newBuilder().setTicker("SCHV")
+    stockModels.put("SCHV", StockModel.newBuilder().setTicker("SCHV").setExpenseRatio(0.04)
         .setAllocation(createCategoryModel(Category.DOMESTIC_VALUE, 100)).build());
-    stockModels.put("SCHA", StockModel.newBuilder().setTicker("SCHA")
+    stockModels.put("SCHA", StockModel.newBuilder().setTicker("SCHA").setExpenseRatio(0.08)
         .setAllocation(createCategoryModel(Category.DOMESTIC_SMALL_CAP, 100)).build());
-    stockModels.put("SCHX", StockModel.newBuilder().setTicker("SCHX")
+    stockModels.put("SCHX", StockModel.newBuilder().setTicker("SCHX").setExpenseRatio(0.04)
         .setAllocation(createCategoryModel(Category.DOMESTIC_VALUE, 50))
         .setAllocation(createCategoryModel(Category.DOMESTIC_TOTAL, 50)).build());
-    stockModels.put("SFNNX", StockModel.newBuilder().setTicker("SFNNX")
+    stockModels.put("SFNNX", StockModel.newBuilder().setTicker("SFNNX").setExpenseRatio(0.35)
         .setAllocation(createCategoryModel(Category.FOREIGN_VALUE, 68))
         .setAllocation(createCategoryModel(Category.FOREIGN_TOTAL, 32)).build());
-    stockModels.put("SCHP", StockModel.newBuilder().setTicker("SCHP")
+    stockModels.put("SCHP", StockModel.newBuilder().setTicker("SCHP").setExpenseRatio(0.07)
         .setAllocation(createCategoryModel(Category.TIPS, 100)).build());
-    stockModels.put("VIIX", StockModel.newBuilder().setTicker("VIIX")
+    stockModels.put("VIIX", StockModel.newBuilder().setTicker("VIIX").setExpenseRatio(0.04)
         .setAllocation(createCategoryModel(Category.DOMESTIC_TOTAL, 50))
         .setAllocation(createCategoryModel(Category.DOMESTIC_VALUE, 50)).build());
-    stockModels.put("PFORX", StockModel.newBuilder().setTicker("PFORX")
+    stockModels.put("PFORX", StockModel.newBuilder().setTicker("PFORX").setExpenseRatio(0.50)
         .setAllocation(createCategoryModel(Category.BONDS_INTL, 100)).build());
     STOCK_MODELS = ImmutableMap.copyOf(stockModels);
   }
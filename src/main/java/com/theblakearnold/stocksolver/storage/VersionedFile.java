@@ -0,0 +1,88 @@
+package com.theblakearnold.stocksolver.storage;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A binary file kept between runs, like a snapshot or a warm start, that starts with a magic
+ * number and the version of its layout.
+ *
+ * <p>Whoever writes a file bumps its version when the layout changes, and files of any other
+ * magic or version read as missing, so they are rebuilt rather than misread. Files are written
+ * to a temporary file in the same directory and moved into place, so they can be written from
+ * several threads and a reader never sees a partial file.
+ */
+public final class VersionedFile {
+
+  /**
+   * Writes the contents of a file after its header.
+   */
+  public interface Contents {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private final File file;
+  private final int magic;
+  private final int version;
+
+  public VersionedFile(File file, int magic, int version) {
+    this.file = file;
+    this.magic = magic;
+    this.version = version;
+  }
+
+  public File file() {
+    return file;
+  }
+
+  /**
+   * Returns the contents after the header, or absent if the file is missing or has another magic
+   * number or version.
+   *
+   * @throws IOException if the file can't be read
+   */
+  public Optional<DataInputStream> read() throws IOException {
+    if (!file.isFile()) {
+      return Optional.absent();
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.toByteArray(file)));
+    if (in.readInt() != magic || in.readInt() != version) {
+      return Optional.absent();
+    }
+    return Optional.of(in);
+  }
+
+  /**
+   * Writes the header and contents, creating the file's directory if needed.
+   *
+   * @throws IOException if the file can't be written, in which case it is left as it was
+   */
+  public void write(Contents contents) throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create directory " + directory);
+    }
+    File tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        out.writeInt(magic);
+        out.writeInt(version);
+        contents.write(out);
+      }
+      java.nio.file.Files.move(tempFile.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tempFile.delete();
+    }
+  }
+}
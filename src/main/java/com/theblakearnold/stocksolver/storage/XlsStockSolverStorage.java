@@ -1,13 +1,20 @@
 package com.theblakearnold.stocksolver.storage;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Table;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
+import com.google.common.primitives.Doubles;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import com.theblakearnold.stocksolver.metrics.SolverMetrics;
 import com.theblakearnold.stocksolver.model.AccountModel;
 import com.theblakearnold.stocksolver.model.CategoryGroupModel;
 import com.theblakearnold.stocksolver.model.CategoryGroupModel.Builder;
@@ -16,27 +23,46 @@ import com.theblakearnold.stocksolver.model.StockHoldingModel;
 import com.theblakearnold.stocksolver.model.StockModel;
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
 import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellValue;
 import org.apache.poi.ss.usermodel.FormulaEvaluator;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
 /**
  * Implements {@code StockSolverStorage} using a given XLS file.
@@ -55,7 +81,7 @@ import javax.annotation.Nullable;
  * Each sheet is setup to contain a header row, and data rows. The first row is always
  * the header row. Each sheet has a list of columns that, as a group, make the rows keys. This is
  * similar to the unique or key restraint in SQL databases. Every row must contain a value for the
- * key columns, and they must be unique within the sheet. See {@link #parseSheet} for the logic.
+ * key columns, and they must be unique within the sheet. See {@link SheetRows} for the logic.
  *
  * Headers must be strings - they cannot be formulas that produce strings.
  *
@@ -64,97 +90,344 @@ import javax.annotation.Nullable;
  * https://poi.apache.org/spreadsheet/eval-devguide.html
  *
  * Any row that does not have a complete key is skipped.
+ *
+ * <p>{@link #load} reads the whole workbook into memory and evaluates formulas.
+ * {@link #loadStreaming} reads one row at a time and uses the formula values cached in the file,
+ * for workbooks too large to load at once. {@link #reload} and {@link #watch} re-read only the
+ * sheets that changed since the last load.
  */
 public class XlsStockSolverStorage implements StockSolverStorage {
 
-  private static final String STOCKS_SHEET_NAME = "Stocks";
-  private static final String ALLOCATIONS_SHEET_NAME = "Allocations";
-  private static final String HOLDINGS_SHEET_NAME = "Holdings";
-
-  private static final String PERCENT_COLUMN_NAME = "Percent";
-  private static final String ACCOUNT_COLUMN_NAME = "Account";
-  private static final String CURRENT_VALUE_COLUMN_NAME = "Current Value";
-  private static final String MIN_VALUE_COLUMN_NAME = "Min Value";
-  private static final String LOCKED_COLUMN_NAME = "Locked until";
-  private static final String TICKER_COLUMN_NAME = "Ticker";
-  private static final String EXPENSE_RATIO_COLUMN_NAME = "Expense Ratio";
-  private static final String CATEGORY_COLUMN_NAME = "Category";
-  private static final String GROUP_COLUMN_NAME = "Group";
+  static final String STOCKS_SHEET_NAME = "Stocks";
+  static final String ALLOCATIONS_SHEET_NAME = "Allocations";
+  static final String HOLDINGS_SHEET_NAME = "Holdings";
+
+  static final String PERCENT_COLUMN_NAME = "Percent";
+  static final String ACCOUNT_COLUMN_NAME = "Account";
+  static final String CURRENT_VALUE_COLUMN_NAME = "Current Value";
+  static final String MIN_VALUE_COLUMN_NAME = "Min Value";
+  static final String LOCKED_COLUMN_NAME = "Locked until";
+  static final String TICKER_COLUMN_NAME = "Ticker";
+  static final String EXPENSE_RATIO_COLUMN_NAME = "Expense Ratio";
+  static final String CATEGORY_COLUMN_NAME = "Category";
+  static final String GROUP_COLUMN_NAME = "Group";
   private static final String VALIDATION_COLUMN_NAME = "Validation";
 
   private final static Logger log = Logger.getLogger(XlsStockSolverStorage.class.getName());
 
+  private static final ImmutableSet<String> SHEET_NAMES =
+      ImmutableSet.of(STOCKS_SHEET_NAME, ALLOCATIONS_SHEET_NAME, HOLDINGS_SHEET_NAME);
+  /**
+   * Key of the shared strings part in {@link #partHashes}. Sheets refer to their strings by
+   * position in it, so a change there can change any sheet.
+   */
+  private static final String SHARED_STRINGS_PART = "sharedStrings";
+
   private final String filename;
-  private ImmutableMap<String, StockModel> stockModelByTicker;
-  private ImmutableList<AccountModel> accountModel;
-  private ImmutableList<CategoryGroupModel> categoryGroups;
+  private ImmutableMap<String, StockModel> stockModelByTicker = ImmutableMap.of();
+  private ImmutableList<AccountModel> accountModel = ImmutableList.of();
+  private ImmutableList<CategoryGroupModel> categoryGroups = ImmutableList.of();
   private FormulaEvaluator evaluator;
+  /**
+   * SHA-256 of each sheet's XML and of the shared strings at the last load, or null before the
+   * first load.
+   */
+  @Nullable private Map<String, HashCode> partHashes;
 
   public XlsStockSolverStorage(String filename) {
     this.filename = filename;
   }
 
-  public void load() throws IOException, InvalidFormatException {
-    OPCPackage pkg = OPCPackage.open(filename);
+  /**
+   * Loads the workbook into memory with POI's XSSFWorkbook, evaluating formulas.
+   */
+  public synchronized void load() throws IOException, InvalidFormatException {
+    OPCPackage pkg = OPCPackage.open(filename, PackageAccess.READ);
     try {
-      XSSFWorkbook wb = new XSSFWorkbook(pkg);
+      Map<String, HashCode> hashes;
+      try {
+        hashes = hashParts(pkg, new XSSFReader(pkg));
+      } catch (OpenXML4JException e) {
+        throw new IOException(e);
+      }
+      final XSSFWorkbook wb = new XSSFWorkbook(pkg);
       evaluator = wb.getCreationHelper().createFormulaEvaluator();
+      parseWorkbook(SHEET_NAMES, new SheetReader() {
+        @Override
+        public void read(String sheetName, SheetRows rows) {
+          Sheet sheet = wb.getSheet(sheetName);
+          if (sheet == null) {
+            throw new IllegalArgumentException("Input excel file is missing sheet: "
+                                               + sheetName);
+          }
+          parseSheet(sheet, rows);
+        }
+      });
+      partHashes = hashes;
+    } finally {
+      try {
+        Closeables.close(pkg, true);
+      } catch (Throwable t) {
+        log.severe("Mehh... ");
+        t.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Loads the workbook by streaming each sheet's XML, holding one row at a time instead of the
+   * whole workbook. Formula cells use the values cached in the file rather than being evaluated.
+   * Produces the same models as {@link #load}.
+   */
+  public synchronized void loadStreaming() throws IOException, OpenXML4JException {
+    OPCPackage pkg = OPCPackage.open(filename, PackageAccess.READ);
+    try {
+      XSSFReader reader = new XSSFReader(pkg);
+      Map<String, HashCode> hashes = hashParts(pkg, reader);
+      parseWorkbook(SHEET_NAMES, streamingReader(pkg, reader));
+      partHashes = hashes;
+    } finally {
+      Closeables.close(pkg, true);
+    }
+  }
 
-      {
-        Sheet sheet = wb.getSheet(STOCKS_SHEET_NAME);
-        if (sheet == null) {
-          throw new IllegalArgumentException("Input excel file is missing sheet: "
-                                             + STOCKS_SHEET_NAME);
+  /**
+   * Re-reads the workbook, streaming only the sheets whose XML changed since the last load.
+   * Holdings are re-read whenever stocks are, since they refer to the stock models. Models that
+   * come out equal to the ones already loaded are kept as the same instances, and so are the
+   * lists holding them, so caches keyed on them, like a {@code PortfolioIndex}, stay valid.
+   *
+   * <p>Loads every sheet if nothing was loaded yet. If any sheet fails to parse, every model
+   * stays as it was and the sheets are read again on the next reload.
+   *
+   * @return the names of the sheets that were re-read
+   */
+  public synchronized Set<String> reload() throws IOException, OpenXML4JException {
+    OPCPackage pkg = OPCPackage.open(filename, PackageAccess.READ);
+    try {
+      XSSFReader reader = new XSSFReader(pkg);
+      Map<String, HashCode> hashes = hashParts(pkg, reader);
+      Set<String> changed = new LinkedHashSet<>();
+      for (String sheetName : SHEET_NAMES) {
+        if (partHashes == null
+            || !Objects.equal(hashes.get(SHARED_STRINGS_PART), partHashes.get(SHARED_STRINGS_PART))
+            || !Objects.equal(hashes.get(sheetName), partHashes.get(sheetName))) {
+          changed.add(sheetName);
         }
-        Table<Map<String, SheetValue>, String, SheetValue> stockTable =
-            parseSheet(sheet, TICKER_COLUMN_NAME);
-        stockModelByTicker = parseStockTable(stockTable);
       }
+      if (changed.contains(STOCKS_SHEET_NAME)) {
+        changed.add(HOLDINGS_SHEET_NAME);
+      }
+      if (!changed.isEmpty()) {
+        log.info("Reloading sheets " + changed);
+        parseWorkbook(changed, streamingReader(pkg, reader));
+      }
+      partHashes = hashes;
+      return changed;
+    } finally {
+      Closeables.close(pkg, true);
+    }
+  }
 
-      {
-        Sheet allocationsSheet = wb.getSheet(ALLOCATIONS_SHEET_NAME);
-        if (allocationsSheet == null) {
-          throw new IllegalArgumentException("Input excel file is missing sheet: "
-                                             + ALLOCATIONS_SHEET_NAME);
+  /**
+   * Calls {@link #reload} every {@code period} on a daemon thread, until the returned executor is
+   * shut down. Failed reloads are logged and keep the models already loaded.
+   */
+  public ScheduledExecutorService watch(long period, TimeUnit unit) {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("workbook-watcher-%d").setDaemon(true).build());
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          reload();
+        } catch (IOException | OpenXML4JException | RuntimeException e) {
+          log.log(Level.WARNING, "Failed to reload " + filename, e);
         }
-        Table<Map<String, SheetValue>, String, SheetValue> allocationsTable =
-            parseSheet(allocationsSheet, CATEGORY_COLUMN_NAME);
-        categoryGroups = parseAllocationsTable(allocationsTable);
-        log.fine(categoryGroups.toString());
       }
+    }, period, period, unit);
+    return executor;
+  }
 
-      {
-        Sheet holdingsSheet = wb.getSheet(HOLDINGS_SHEET_NAME);
-        if (holdingsSheet == null) {
-          throw new IllegalArgumentException("Input excel file is missing sheet: "
-                                             + HOLDINGS_SHEET_NAME);
+  /**
+   * Returns the SHA-256 of the XML of each of the three sheets that exist, keyed by sheet name,
+   * and of the shared strings.
+   */
+  private static Map<String, HashCode> hashParts(OPCPackage pkg, XSSFReader reader)
+      throws IOException, OpenXML4JException {
+    Map<String, HashCode> hashes = new HashMap<>();
+    Hasher sharedStrings = Hashing.sha256().newHasher();
+    for (PackagePart part
+        : pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType())) {
+      try (InputStream in = part.getInputStream()) {
+        sharedStrings.putBytes(ByteStreams.toByteArray(in));
+      }
+    }
+    hashes.put(SHARED_STRINGS_PART, sharedStrings.hash());
+    XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+    while (sheets.hasNext()) {
+      try (InputStream sheet = sheets.next()) {
+        for (String sheetName : SHEET_NAMES) {
+          if (sheets.getSheetName().equalsIgnoreCase(sheetName)
+              && !hashes.containsKey(sheetName)) {
+            HashingInputStream in = new HashingInputStream(Hashing.sha256(), sheet);
+            ByteStreams.copy(in, ByteStreams.nullOutputStream());
+            hashes.put(sheetName, in.hash());
+          }
         }
-        Table<Map<String, SheetValue>, String, SheetValue> holdingsTable =
-            parseSheet(holdingsSheet, TICKER_COLUMN_NAME, ACCOUNT_COLUMN_NAME);
-        accountModel = parseHoldingsTable(holdingsTable);
-        log.fine(accountModel.toString());
       }
-    } finally {
-      try {
-        Closeables.close(pkg, true);
-      } catch (Throwable t) {
-        log.severe("Mehh... ");
-        t.printStackTrace();
+    }
+    return hashes;
+  }
+
+  private static SheetReader streamingReader(OPCPackage pkg, final XSSFReader reader)
+      throws IOException {
+    final ReadOnlySharedStringsTable sharedStrings;
+    try {
+      sharedStrings = new ReadOnlySharedStringsTable(pkg);
+    } catch (SAXException e) {
+      throw new IOException("Failed to read shared strings", e);
+    }
+    return new SheetReader() {
+      @Override
+      public void read(String sheetName, SheetRows rows) throws IOException {
+        InputStream sheet = openSheet(reader, sheetName);
+        try {
+          SAXParserFactory factory = SAXParserFactory.newInstance();
+          factory.setNamespaceAware(true);
+          factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+          factory.newSAXParser().parse(sheet, new StreamingSheetHandler(sharedStrings, rows));
+        } catch (SAXException | ParserConfigurationException e) {
+          throw new IOException("Failed to read sheet " + sheetName, e);
+        } finally {
+          sheet.close();
+        }
       }
+    };
+  }
+
+  private static InputStream openSheet(XSSFReader reader, String sheetName) throws IOException {
+    XSSFReader.SheetIterator sheets;
+    try {
+      sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+    } catch (InvalidFormatException e) {
+      throw new IOException(e);
     }
+    while (sheets.hasNext()) {
+      InputStream sheet = sheets.next();
+      // Same match as XSSFWorkbook.getSheet.
+      if (sheets.getSheetName().equalsIgnoreCase(sheetName)) {
+        return sheet;
+      }
+      sheet.close();
+    }
+    throw new IllegalArgumentException("Input excel file is missing sheet: " + sheetName);
   }
 
-  private ImmutableList<AccountModel> parseHoldingsTable(
-      Table<Map<String, SheetValue>, String, SheetValue> holdingsTable) {
-    Map<String, AccountModel.Builder> accountModelBuilderByAccountName = new HashMap<>();
-    Map<String, Double> valueByAccountName = new HashMap<>();
-    for (Map<String, SheetValue> keyMap : holdingsTable.rowKeySet()) {
+  /**
+   * Feeds the rows of a named sheet to a {@link SheetRows}.
+   */
+  private interface SheetReader {
+    void read(String sheetName, SheetRows rows) throws IOException;
+  }
+
+  /**
+   * Reads a sheet, recording the time in {@link SolverMetrics}.
+   */
+  private static void readSheet(SheetReader reader, String sheetName, SheetRows rows)
+      throws IOException {
+    long start = System.nanoTime();
+    reader.read(sheetName, rows);
+    SolverMetrics.get().recordNanos(SolverMetrics.PARSE_SHEET + sheetName,
+        System.nanoTime() - start);
+  }
+
+  /**
+   * Parses the given sheets, in the order their references need. Models equal to the loaded
+   * ones are kept as the loaded instances. The models are only replaced once every sheet has
+   * parsed, so a sheet that fails to parse leaves all of them as they were.
+   */
+  private void parseWorkbook(Set<String> sheetNames, SheetReader reader) throws IOException {
+    ImmutableMap<String, StockModel> parsedStocks = stockModelByTicker;
+    ImmutableList<CategoryGroupModel> parsedGroups = categoryGroups;
+    ImmutableList<AccountModel> parsedAccounts = accountModel;
+    if (sheetNames.contains(STOCKS_SHEET_NAME)) {
+      StockRowHandler stocks = new StockRowHandler(stockModelByTicker);
+      readSheet(reader, STOCKS_SHEET_NAME, new SheetRows(stocks, TICKER_COLUMN_NAME));
+      parsedStocks = keepIfEqual(stockModelByTicker, stocks.build());
+    }
+
+    if (sheetNames.contains(ALLOCATIONS_SHEET_NAME)) {
+      AllocationRowHandler allocations = new AllocationRowHandler();
+      readSheet(reader, ALLOCATIONS_SHEET_NAME,
+          new SheetRows(allocations, CATEGORY_COLUMN_NAME));
+      parsedGroups = keepIfEqual(categoryGroups,
+          keepEqualElements(categoryGroups, allocations.build()));
+      log.fine(parsedGroups.toString());
+    }
+
+    if (sheetNames.contains(HOLDINGS_SHEET_NAME)) {
+      HoldingRowHandler holdings = new HoldingRowHandler(parsedStocks);
+      readSheet(reader, HOLDINGS_SHEET_NAME,
+          new SheetRows(holdings, TICKER_COLUMN_NAME, ACCOUNT_COLUMN_NAME));
+      parsedAccounts =
+          keepIfEqual(accountModel, keepEqualElements(accountModel, holdings.build()));
+      log.fine(parsedAccounts.toString());
+    }
+    stockModelByTicker = parsedStocks;
+    categoryGroups = parsedGroups;
+    accountModel = parsedAccounts;
+  }
+
+  private static <T> T keepIfEqual(T loaded, T parsed) {
+    return parsed.equals(loaded) ? loaded : parsed;
+  }
+
+  /**
+   * Replaces each parsed element with the loaded one it equals, if any.
+   */
+  private static <T> ImmutableList<T> keepEqualElements(List<T> loaded, List<T> parsed) {
+    Map<T, T> loadedByValue = new HashMap<>();
+    for (T element : loaded) {
+      loadedByValue.put(element, element);
+    }
+    ImmutableList.Builder<T> result = ImmutableList.builder();
+    for (T element : parsed) {
+      T loadedElement = loadedByValue.get(element);
+      result.add(loadedElement == null ? element : loadedElement);
+    }
+    return result.build();
+  }
+
+  /**
+   * Receives each row of a sheet that has a complete key, with the row's other values keyed by
+   * column name.
+   */
+  private interface RowHandler {
+    void handle(Map<String, SheetValue> key, Map<String, SheetValue> values);
+  }
+
+  private static class HoldingRowHandler implements RowHandler {
+    private final Map<String, StockModel> stockModelByTicker;
+    private final Map<String, AccountModel.Builder> accountModelBuilderByAccountName =
+        new LinkedHashMap<>();
+    private final Map<String, Double> valueByAccountName = new HashMap<>();
+
+    /**
+     * @param stockModelByTicker the stocks the holdings refer to
+     */
+    HoldingRowHandler(Map<String, StockModel> stockModelByTicker) {
+      this.stockModelByTicker = stockModelByTicker;
+    }
+
+    @Override
+    public void handle(Map<String, SheetValue> keyMap, Map<String, SheetValue> values) {
       SheetValue tickerSheetValue = keyMap.get(TICKER_COLUMN_NAME);
       String ticker = tickerSheetValue.getString();
       SheetValue accountSheetValue = keyMap.get(ACCOUNT_COLUMN_NAME);
       String accountName = accountSheetValue.getString();
 
-      SheetValue holdingsSheetValue = holdingsTable.get(keyMap, CURRENT_VALUE_COLUMN_NAME);
+      SheetValue holdingsSheetValue = values.get(CURRENT_VALUE_COLUMN_NAME);
       double tickerValue = 0;
       if (holdingsSheetValue == null) {
         log.fine("skipping adding value: " + holdingsSheetValue + " : " + ticker);
@@ -172,11 +445,11 @@ public class XlsStockSolverStorage implements StockSolverStorage {
       if (!stockModelByTicker.containsKey(ticker)) {
         log.warning("skipping adding ticker to account because not defined in stocks sheet: "
                     + ticker);
-        continue;
+        return;
       }
 
       double minValue = 0;
-      SheetValue minValueSheetValue = holdingsTable.get(keyMap, MIN_VALUE_COLUMN_NAME);
+      SheetValue minValueSheetValue = values.get(MIN_VALUE_COLUMN_NAME);
       if (minValueSheetValue == null) {
         log.warning(String.format("skipping adding min value for ticker %s,"
                                   + " missing column: %s", ticker, MIN_VALUE_COLUMN_NAME));
@@ -190,7 +463,7 @@ public class XlsStockSolverStorage implements StockSolverStorage {
         }
       }
       boolean locked = false;
-      SheetValue lockedSheetValue = holdingsTable.get(keyMap, LOCKED_COLUMN_NAME);
+      SheetValue lockedSheetValue = values.get(LOCKED_COLUMN_NAME);
       if (lockedSheetValue == null) {
         log.fine("setting locked value to false: " + ticker);
         locked = false;
@@ -212,47 +485,51 @@ public class XlsStockSolverStorage implements StockSolverStorage {
       }
       accountModelBuilder.addStockHoldingModel(
           StockHoldingModel.create(stockModelByTicker.get(ticker), minValue, locked, tickerValue));
-
     }
-    ImmutableList.Builder<AccountModel> accountModelBuilder = ImmutableList.builder();
-    for (String accountName : accountModelBuilderByAccountName.keySet()) {
-      Double accountValue = valueByAccountName.get(accountName);
-      if (accountValue == null) {
-        log.fine("skipping account with zero value: " + accountName);
-        continue;
+
+    ImmutableList<AccountModel> build() {
+      ImmutableList.Builder<AccountModel> accountModelBuilder = ImmutableList.builder();
+      for (String accountName : accountModelBuilderByAccountName.keySet()) {
+        Double accountValue = valueByAccountName.get(accountName);
+        if (accountValue == null) {
+          log.fine("skipping account with zero value: " + accountName);
+          continue;
+        }
+        accountModelBuilder.add(accountModelBuilderByAccountName.get(accountName)
+                             .setValue(accountValue).build());
       }
-      accountModelBuilderByAccountName.get(accountName).setValue(accountValue).build();
-      accountModelBuilder.add(accountModelBuilderByAccountName.get(accountName)
-                           .setValue(valueByAccountName.get(accountName)).build());
+      return accountModelBuilder.build();
     }
-    return accountModelBuilder.build();
   }
 
-  private ImmutableList<CategoryGroupModel> parseAllocationsTable(
-      Table<Map<String, SheetValue>, String, SheetValue> allocationsTable) {
-    Map<String, CategoryGroupModel.Builder> cateogryGroupByGroupName = new HashMap<>();
-    String defaultCategoryName = "Default";
-    for (Map<String, SheetValue> keySet : allocationsTable.rowKeySet()) {
+  private static class AllocationRowHandler implements RowHandler {
+    private static final String DEFAULT_CATEGORY_NAME = "Default";
+
+    private final Map<String, CategoryGroupModel.Builder> cateogryGroupByGroupName =
+        new LinkedHashMap<>();
+
+    @Override
+    public void handle(Map<String, SheetValue> keySet, Map<String, SheetValue> values) {
       SheetValue categorySheetValue = keySet.get(CATEGORY_COLUMN_NAME);
       String category = categorySheetValue.getString();
       if (VALIDATION_COLUMN_NAME.equals(category)) {
-        continue;
+        return;
       }
-      SheetValue sheetValue = allocationsTable.get(keySet, PERCENT_COLUMN_NAME);
+      SheetValue sheetValue = values.get(PERCENT_COLUMN_NAME);
       if (sheetValue == null || !SheetValue.Type.DOUBLE.equals(sheetValue.type())
           || sheetValue.doubleValue() == 0) {
         log.fine("skipping value: " + sheetValue);
-        continue;
+        return;
       }
-      SheetValue groupSheetValue = allocationsTable.get(keySet, GROUP_COLUMN_NAME);
+      SheetValue groupSheetValue = values.get(GROUP_COLUMN_NAME);
       final String groupName;
       if (groupSheetValue == null) {
-        log.fine("no value for group, adding to default: " + defaultCategoryName);
-        groupName = defaultCategoryName;
+        log.fine("no value for group, adding to default: " + DEFAULT_CATEGORY_NAME);
+        groupName = DEFAULT_CATEGORY_NAME;
       } else {
         String extractedString = groupSheetValue.getString();
         if (extractedString == null) {
-          groupName = defaultCategoryName;
+          groupName = DEFAULT_CATEGORY_NAME;
         } else {
           groupName = extractedString;
         }
@@ -265,22 +542,35 @@ public class XlsStockSolverStorage implements StockSolverStorage {
       categoryGroupModelBuilder.addCategory(
           CategoryModel.create(category, 100 * sheetValue.doubleValue()));
     }
-    ImmutableList.Builder<CategoryGroupModel> categoryGroupsBuilder = ImmutableList.builder();
-    for (CategoryGroupModel.Builder categoryGroupModelBuilder : cateogryGroupByGroupName.values()) {
-      categoryGroupsBuilder.add(categoryGroupModelBuilder.build());
+
+    ImmutableList<CategoryGroupModel> build() {
+      ImmutableList.Builder<CategoryGroupModel> categoryGroupsBuilder = ImmutableList.builder();
+      for (CategoryGroupModel.Builder categoryGroupModelBuilder
+          : cateogryGroupByGroupName.values()) {
+        categoryGroupsBuilder.add(categoryGroupModelBuilder.build());
+      }
+      return categoryGroupsBuilder.build();
     }
-    return categoryGroupsBuilder.build();
   }
 
-  private ImmutableMap<String, StockModel> parseStockTable(
-      Table<Map<String, SheetValue>, String, SheetValue> stockTable) {
-    ImmutableMap.Builder<String, StockModel> stockModelByTickerMapBuilder = ImmutableMap.builder();
-    for (Map<String, SheetValue> keySet : stockTable.rowKeySet()) {
+  private static class StockRowHandler implements RowHandler {
+    private final ImmutableMap<String, StockModel> loadedStockModelByTicker;
+    private final ImmutableMap.Builder<String, StockModel> stockModelByTickerMapBuilder =
+        ImmutableMap.builder();
+
+    /**
+     * @param loadedStockModelByTicker stocks to reuse when an equal one is parsed
+     */
+    StockRowHandler(ImmutableMap<String, StockModel> loadedStockModelByTicker) {
+      this.loadedStockModelByTicker = loadedStockModelByTicker;
+    }
+
+    @Override
+    public void handle(Map<String, SheetValue> keySet, Map<String, SheetValue> valuesByCategory) {
       SheetValue tickerSheetValue = keySet.get(TICKER_COLUMN_NAME);
       String ticker = tickerSheetValue.getString();
       StockModel.Builder stockModelBuilder = StockModel.newBuilder();
       stockModelBuilder.setTicker(ticker);
-      Map<String, SheetValue> valuesByCategory = stockTable.row(keySet);
       SheetValue expenseRatioValue = valuesByCategory.get(EXPENSE_RATIO_COLUMN_NAME);
       Preconditions.checkState(expenseRatioValue != null,
           "Expense ratio missing for stock %s", ticker);
@@ -301,94 +591,244 @@ public class XlsStockSolverStorage implements StockSolverStorage {
         stockModelBuilder
             .setAllocation(CategoryModel.create(category, 100 * sheetValue.doubleValue()));
       }
-      StockModel stockModel = stockModelBuilder.build();
+      StockModel stockModel =
+          keepIfEqual(loadedStockModelByTicker.get(ticker), stockModelBuilder.build());
       stockModelByTickerMapBuilder.put(ticker, stockModel);
       log.fine(stockModel.toString());
     }
-    return stockModelByTickerMapBuilder.build();
+
+    ImmutableMap<String, StockModel> build() {
+      return stockModelByTickerMapBuilder.build();
+    }
   }
 
-  private Table<Map<String, SheetValue>, String, SheetValue> parseSheet(Sheet sheet,
-                                                                        String... keyColumnNames) {
-    Preconditions.checkArgument(keyColumnNames.length != 0, "keyColumnNames must have 1 key");
-    Table<Map<String, SheetValue>, String, SheetValue> outputTable = HashBasedTable.create();
-    Iterator<Row> rowIterator = sheet.iterator();
-    if (!rowIterator.hasNext()) {
-      return outputTable;
+  /**
+   * Turns the cells of a sheet into keyed rows for a {@link RowHandler}, the same way for either
+   * reader. The first row is the header. Rows without a complete key are skipped, and a key seen
+   * twice is an error.
+   */
+  private static class SheetRows {
+    private final RowHandler handler;
+    private final List<String> keyColumnNames;
+    private final Map<Integer, String> columnNameByColumnIndex = new HashMap<>();
+    private final Set<Integer> keyColumnIndexes = new HashSet<>();
+    private final Set<Map<String, SheetValue>> keys = new HashSet<>();
+
+    SheetRows(RowHandler handler, String... keyColumnNames) {
+      Preconditions.checkArgument(keyColumnNames.length != 0, "keyColumnNames must have 1 key");
+      this.handler = handler;
+      this.keyColumnNames = Arrays.asList(keyColumnNames);
     }
-    Map<Integer, String> columnNameByColumnIndex = new HashMap<>();
-    Set<Integer> keyColumnIndexes = new HashSet<>();
-    // Used for validating that all the keys are in the sheet.
-    Set<String> keyColumnNamesSet = new HashSet<>();
-    keyColumnNamesSet.addAll(Arrays.asList(keyColumnNames));
-    Row row = rowIterator.next();
-    // First row parsing
-    for (Cell cell : row) {
-      String columnName = extractString(cell, false);
-      if (columnName == null) {
-        log.fine("continue due to columnName not being a string");
-        continue;
+
+    /**
+     * @param columnNames the string cells of the first row, by column index
+     */
+    void header(Map<Integer, String> columnNames) {
+      // Used for validating that all the keys are in the sheet.
+      Set<String> keyColumnNamesSet = new HashSet<>(keyColumnNames);
+      for (Map.Entry<Integer, String> column : columnNames.entrySet()) {
+        String columnName = column.getValue();
+        if (keyColumnNamesSet.remove(columnName)) {
+          keyColumnIndexes.add(column.getKey());
+        }
+        columnNameByColumnIndex.put(column.getKey(), columnName);
+        log.fine(String.format("Puttings %s => %s", column.getKey(), columnName));
       }
-      if (keyColumnNamesSet.remove(columnName)) {
-        keyColumnIndexes.add(cell.getColumnIndex());
+      if (!keyColumnNamesSet.isEmpty()) {
+        throw new IllegalArgumentException("Missing some key Column Names: " + keyColumnNamesSet);
       }
-      columnNameByColumnIndex.put(cell.getColumnIndex(), columnName);
-      log.fine(String.format("Puttings %s => %s", cell.getColumnIndex(), columnName));
-    }
-    if (!keyColumnNamesSet.isEmpty()) {
-      throw new IllegalArgumentException("Missing some key Column Names: " + keyColumnNamesSet);
     }
-    while (rowIterator.hasNext()) {
-      row = rowIterator.next();
+
+    /**
+     * @param cells the cells of the row that have a string or number, by column index
+     */
+    void row(int rowNumber, Map<Integer, SheetValue> cells) {
       ImmutableMap.Builder<String, SheetValue> keyBuilder = ImmutableMap.builder();
-      boolean hasFullKey = true;
       for (Integer keyColumnIndex : keyColumnIndexes) {
-        Cell cell = row.getCell(keyColumnIndex);
-        if (cell == null) {
-          hasFullKey = false;
-          log.fine("Missing key value: "
-                   + columnNameByColumnIndex.get(keyColumnIndex) + " in row " + row
-              .getRowNum());
-          break;
-        }
-        SheetValue keyValue = extractSheetValue(cell, false);
+        SheetValue keyValue = cells.get(keyColumnIndex);
         if (keyValue == null) {
-          hasFullKey = false;
           log.fine("Missing key value: "
-                   + columnNameByColumnIndex.get(keyColumnIndex) + " in row " + row
-              .getRowNum());
-          break;
+                   + columnNameByColumnIndex.get(keyColumnIndex) + " in row " + rowNumber);
+          log.fine("Skipping row because missing key");
+          return;
         }
         keyBuilder.put(columnNameByColumnIndex.get(keyColumnIndex), keyValue);
       }
-      if (!hasFullKey) {
-        log.fine("Skipping row because missing key");
-        continue;
-      }
       Map<String, SheetValue> key = keyBuilder.build();
       log.fine(String.format("Running row %s", key));
-      if (outputTable.containsRow(key)) {
+      if (!keys.add(key)) {
         throw new IllegalArgumentException("2 exact keys found " + key);
       }
-      for (Cell cell : row) {
-        if (keyColumnIndexes.contains(cell.getColumnIndex())) {
+      Map<String, SheetValue> values = new HashMap<>();
+      for (Map.Entry<Integer, SheetValue> cell : cells.entrySet()) {
+        if (keyColumnIndexes.contains(cell.getKey())) {
           // skip key cell
           continue;
         }
-        String columnName = columnNameByColumnIndex.get(cell.getColumnIndex());
-        SheetValue sheetValue = extractSheetValue(cell, false);
-        if (sheetValue == null) {
-          continue;
-        }
+        String columnName = columnNameByColumnIndex.get(cell.getKey());
         if (columnName != null) {
-          outputTable.put(key, columnName, sheetValue);
-          log.fine(String.format("Puttings %s, %s, => %s", key, columnName, sheetValue));
+          values.put(columnName, cell.getValue());
+          log.fine(String.format("Puttings %s, %s, => %s", key, columnName, cell.getValue()));
         } else {
           log.severe("continue due to no colum name!");
         }
       }
+      handler.handle(key, values);
+    }
+  }
+
+  /**
+   * Feeds a DOM sheet to {@code rows}, evaluating formulas.
+   */
+  private void parseSheet(Sheet sheet, SheetRows rows) {
+    Iterator<Row> rowIterator = sheet.iterator();
+    if (!rowIterator.hasNext()) {
+      return;
+    }
+    Row row = rowIterator.next();
+    // First row parsing
+    Map<Integer, String> columnNames = new TreeMap<>();
+    for (Cell cell : row) {
+      String columnName = extractString(cell, false);
+      if (columnName == null) {
+        log.fine("continue due to columnName not being a string");
+        continue;
+      }
+      columnNames.put(cell.getColumnIndex(), columnName);
+    }
+    rows.header(columnNames);
+    while (rowIterator.hasNext()) {
+      row = rowIterator.next();
+      Map<Integer, SheetValue> cells = new TreeMap<>();
+      for (Cell cell : row) {
+        SheetValue sheetValue = extractSheetValue(cell, false);
+        if (sheetValue != null) {
+          cells.put(cell.getColumnIndex(), sheetValue);
+        }
+      }
+      rows.row(row.getRowNum(), cells);
+    }
+  }
+
+  /**
+   * Feeds one worksheet's XML to a {@link SheetRows}, holding only the current row. Formula
+   * cells use their cached value. As with the DOM reader, header names must be plain string
+   * cells, and boolean and error cells are ignored.
+   */
+  private static class StreamingSheetHandler extends DefaultHandler {
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final SheetRows rows;
+    private final Map<Integer, SheetValue> cells = new TreeMap<>();
+    private final Map<Integer, String> headerNames = new TreeMap<>();
+    private final StringBuilder text = new StringBuilder();
+    private boolean headerRead;
+    private int rowNumber = -1;
+    private int column;
+    private String cellType;
+    private boolean formula;
+    private boolean inText;
+
+    StreamingSheetHandler(ReadOnlySharedStringsTable sharedStrings, SheetRows rows) {
+      this.sharedStrings = sharedStrings;
+      this.rows = rows;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      switch (localName) {
+        case "row":
+          String rowReference = attributes.getValue("r");
+          rowNumber = rowReference == null ? rowNumber + 1 : Integer.parseInt(rowReference) - 1;
+          column = -1;
+          cells.clear();
+          headerNames.clear();
+          break;
+        case "c":
+          String cellReference = attributes.getValue("r");
+          column = cellReference == null ? column + 1 : new CellReference(cellReference).getCol();
+          cellType = attributes.getValue("t");
+          formula = false;
+          text.setLength(0);
+          break;
+        case "f":
+          formula = true;
+          break;
+        case "v":
+          inText = true;
+          break;
+        case "t":
+          // Text of an inline string, possibly split into several runs.
+          inText = "inlineStr".equals(cellType);
+          break;
+        default:
+          break;
+      }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      if (inText) {
+        text.append(ch, start, length);
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      switch (localName) {
+        case "v":
+        case "t":
+          inText = false;
+          break;
+        case "c":
+          addCell();
+          break;
+        case "row":
+          if (headerRead) {
+            rows.row(rowNumber, cells);
+          } else {
+            headerRead = true;
+            rows.header(headerNames);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+
+    private void addCell() {
+      if (cellType == null || cellType.equals("n")) {
+        if (text.length() > 0) {
+          cells.put(column, SheetValue.createSheetValue(Double.parseDouble(text.toString())));
+        }
+        return;
+      }
+      String value;
+      switch (cellType) {
+        case "s":
+          value = sharedStrings.getEntryAt(Integer.parseInt(text.toString()));
+          break;
+        case "str":
+          // Some writers tag every cached formula result as a string, while evaluating the
+          // formula would give a number.
+          Double number = Doubles.tryParse(text.toString());
+          if (number != null) {
+            cells.put(column, SheetValue.createSheetValue(number));
+            return;
+          }
+          value = text.toString();
+          break;
+        case "inlineStr":
+          value = text.toString();
+          break;
+        default:
+          // Booleans and errors.
+          return;
+      }
+      cells.put(column, SheetValue.createSheetValue(value));
+      if (!formula && !cellType.equals("str")) {
+        headerNames.put(column, value);
+      }
     }
-    return outputTable;
   }
 
   private String extractString(Cell cell, boolean throwException) {
@@ -453,12 +893,12 @@ public class XlsStockSolverStorage implements StockSolverStorage {
   }
 
   @Override
-  public List<AccountModel> getAccounts() {
+  public synchronized List<AccountModel> getAccounts() {
     return ImmutableList.copyOf(accountModel);
   }
 
   @Override
-  public List<CategoryGroupModel> getCategoryGroups() {
+  public synchronized List<CategoryGroupModel> getCategoryGroups() {
     return ImmutableList.copyOf(categoryGroups);
   }
 
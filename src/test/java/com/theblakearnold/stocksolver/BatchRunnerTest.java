@@ -0,0 +1,129 @@
+package com.theblakearnold.stocksolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import com.theblakearnold.stocksolver.lp.LinearSolver;
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.storage.GeneratedStockSolverStorage;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Checks that households are validated, and that one household's failure only fails that
+ * household.
+ */
+public class BatchRunnerTest {
+
+  @Rule
+  public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  /**
+   * A backend whose solvers can't even be created, failing with an error rather than an
+   * exception.
+   */
+  private static final SolverBackend BROKEN_BACKEND = new SolverBackend() {
+    @Override
+    public String name() {
+      return "broken";
+    }
+
+    @Override
+    public LinearSolver createSolver(String name) {
+      throw new AssertionError("broken backend");
+    }
+  };
+
+  private File household(File directory, String name) throws Exception {
+    File workbook = new File(directory, name + ".xlsx");
+    Files.createParentDirs(workbook);
+    Files.copy(new File("solverTemplate.xlsx"), workbook);
+    return workbook;
+  }
+
+  /**
+   * Writes a household that loads but fails validation: every holding is locked, so no category
+   * can be bought up to its target.
+   */
+  private File lockedHousehold(File directory, String name) throws Exception {
+    File workbook = new File(directory, name + ".xlsx");
+    GeneratedStockSolverStorage.newBuilder().setAccounts(3).setFunds(8).setCategories(5)
+        .setCategoryGroups(2).setHoldingsPerAccount(4).setSeed(1).build().writeWorkbook(workbook);
+    XSSFWorkbook xssfWorkbook;
+    try (InputStream in = new FileInputStream(workbook)) {
+      xssfWorkbook = new XSSFWorkbook(in);
+    }
+    for (Row row : xssfWorkbook.getSheet("Holdings")) {
+      if (row.getRowNum() > 0) {
+        row.getCell(4).setCellValue(1);
+      }
+    }
+    try (OutputStream out = new FileOutputStream(workbook)) {
+      xssfWorkbook.write(out);
+    }
+    return workbook;
+  }
+
+  @Test
+  public void invalidHouseholdFailsBeforeSolving() throws Exception {
+    File input = temporaryFolder.newFolder("input");
+    lockedHousehold(input, "locked");
+    File output = temporaryFolder.newFolder("output");
+
+    int failures = new BatchRunner(BROKEN_BACKEND, OptimizationOptions.newBuilder().build(), 1)
+        .run(input, output);
+
+    assertEquals(1, failures);
+    String error = Files.toString(new File(output, "locked.error.json"), Charsets.UTF_8);
+    assertTrue(error, error.contains("cant buy enough"));
+  }
+
+  @Test
+  public void errorsFailOnlyTheirHousehold() throws Exception {
+    File input = temporaryFolder.newFolder("input");
+    household(input, "first");
+    household(input, "second");
+    File output = temporaryFolder.newFolder("output");
+
+    int failures = new BatchRunner(BROKEN_BACKEND, OptimizationOptions.newBuilder().build(), 2)
+        .run(input, output);
+
+    assertEquals(2, failures);
+    for (String name : new String[] {"first", "second"}) {
+      File errorFile = new File(output, name + ".error.json");
+      assertTrue(Files.toString(errorFile, Charsets.UTF_8).contains("broken backend"));
+    }
+    assertTrue(new File(output, BatchRunner.SUMMARY_FILE_NAME).isFile());
+  }
+
+  @Test
+  public void rejectsWorkbooksWithTheSameName() throws Exception {
+    File manifest = temporaryFolder.newFile("manifest");
+    household(new File(temporaryFolder.getRoot(), "a"), "household");
+    household(new File(temporaryFolder.getRoot(), "b"), "Household");
+    Files.write("a/household.xlsx\nb/Household.xlsx\n", manifest, Charsets.UTF_8);
+    File output = new File(temporaryFolder.getRoot(), "output");
+    try {
+      new BatchRunner(BROKEN_BACKEND, OptimizationOptions.newBuilder().build(), 1)
+          .run(manifest, output);
+      fail("ran households with the same name");
+    } catch (IllegalArgumentException e) {
+      assertFalse(output.exists());
+    }
+  }
+}
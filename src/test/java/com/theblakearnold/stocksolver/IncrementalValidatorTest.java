@@ -0,0 +1,108 @@
+package com.theblakearnold.stocksolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.theblakearnold.stocksolver.model.AccountModel;
+import com.theblakearnold.stocksolver.model.CategoryGroupModel;
+import com.theblakearnold.stocksolver.model.StockHoldingModel;
+import com.theblakearnold.stocksolver.storage.StockSolverStorage;
+import com.theblakearnold.stocksolver.storage.XlsStockSolverStorage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link IncrementalValidator} against a full {@link InputValidator} run after each edit.
+ */
+public class IncrementalValidatorTest {
+
+  /**
+   * Storage whose accounts can be replaced one at a time.
+   */
+  private static class EditableStorage implements StockSolverStorage {
+    private final List<AccountModel> accounts;
+    private final List<CategoryGroupModel> categoryGroups;
+
+    EditableStorage(StockSolverStorage storage) {
+      accounts = new ArrayList<>(storage.getAccounts());
+      categoryGroups = storage.getCategoryGroups();
+    }
+
+    @Override
+    public List<AccountModel> getAccounts() {
+      return accounts;
+    }
+
+    @Override
+    public List<CategoryGroupModel> getCategoryGroups() {
+      return categoryGroups;
+    }
+
+    /**
+     * Changes one holding and, as the spreadsheet's sum of current values does, moves the
+     * account value by the same amount.
+     */
+    void edit(int account, int holding, double currentValue, boolean locked) {
+      AccountModel accountModel = accounts.get(account);
+      AccountModel.Builder builder = AccountModel.newBuilder().setName(accountModel.name());
+      double value = accountModel.value();
+      for (int i = 0; i < accountModel.stocks().size(); i++) {
+        StockHoldingModel stockHolding = accountModel.stocks().get(i);
+        if (i == holding) {
+          value += currentValue - stockHolding.currentHolding();
+          stockHolding = StockHoldingModel.create(stockHolding.stockModel(),
+              stockHolding.minimumBalance(), locked, currentValue);
+        }
+        builder.addStockHoldingModel(stockHolding);
+      }
+      accounts.set(account, builder.setValue(value).build());
+    }
+  }
+
+  private static boolean fullValidation(StockSolverStorage storage) {
+    try {
+      new InputValidator(storage).validate();
+      return true;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  @Test
+  public void valueAndLockEditsMatchFullValidation() throws Exception {
+    XlsStockSolverStorage template = new XlsStockSolverStorage("solverTemplate.xlsx");
+    template.load();
+    EditableStorage storage = new EditableStorage(template);
+    IncrementalValidator validator = IncrementalValidator.of(storage);
+    assertEquals(fullValidation(storage), validator.isValid());
+
+    Random random = new Random(42);
+    int valid = 0;
+    int edits = 300;
+    for (int edit = 0; edit < edits; edit++) {
+      int account = random.nextInt(storage.getAccounts().size());
+      AccountModel accountModel = storage.getAccounts().get(account);
+      int holding = random.nextInt(accountModel.stocks().size());
+      StockHoldingModel stockHolding = accountModel.stocks().get(holding);
+      double currentValue = random.nextInt(4) == 0
+          ? stockHolding.currentHolding()
+          : Math.round(stockHolding.currentHolding() * (.5 + random.nextDouble()));
+      boolean locked = random.nextInt(3) == 0;
+      storage.edit(account, holding, currentValue, locked);
+      validator.update(accountModel.name(), stockHolding.stockModel().ticker(), currentValue,
+          locked);
+
+      boolean expected = fullValidation(storage);
+      assertEquals("edit " + edit, expected, validator.isValid());
+      if (expected) {
+        valid++;
+      }
+    }
+    // Both answers have to come up for the comparison to mean anything.
+    assertTrue("valid " + valid, valid > 0 && valid < edits);
+  }
+}
@@ -0,0 +1,131 @@
+package com.theblakearnold.stocksolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import com.theblakearnold.stocksolver.lp.SimplexBackend;
+import com.theblakearnold.stocksolver.model.AccountModel;
+import com.theblakearnold.stocksolver.model.CategoryGroupModel;
+import com.theblakearnold.stocksolver.model.CategoryModel;
+import com.theblakearnold.stocksolver.model.StockHoldingModel;
+import com.theblakearnold.stocksolver.storage.GeneratedStockSolverStorage;
+import com.theblakearnold.stocksolver.storage.StockSolverStorage;
+import com.theblakearnold.stocksolver.storage.XlsStockSolverStorage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that presolving the holdings and splitting the portfolio into components don't change
+ * the wiggles found or the expense of the result.
+ */
+public class ModelReductionTest {
+
+  private static final double EPSILON = 1e-6;
+
+  private static final OptimizationOptions.SearchStrategy[] STRATEGIES = {
+      OptimizationOptions.SearchStrategy.RANDOM_PERMUTATIONS,
+      OptimizationOptions.SearchStrategy.MINIMUM_AVERAGE};
+
+  /**
+   * Moves each category's percent to the category before it. Generated portfolios are feasible
+   * with no wiggle at all, this leaves some categories that have to wiggle.
+   */
+  private static StockSolverStorage shiftTargets(final StockSolverStorage storage) {
+    List<Double> percents = new ArrayList<>();
+    for (CategoryGroupModel categoryGroup : storage.getCategoryGroups()) {
+      for (CategoryModel category : categoryGroup.categories()) {
+        percents.add(category.percent());
+      }
+    }
+    ImmutableList.Builder<CategoryGroupModel> categoryGroupsBuilder = ImmutableList.builder();
+    int next = 1;
+    for (CategoryGroupModel categoryGroup : storage.getCategoryGroups()) {
+      CategoryGroupModel.Builder builder =
+          CategoryGroupModel.newBuilder().setName(categoryGroup.name());
+      for (CategoryModel category : categoryGroup.categories()) {
+        builder.addCategory(
+            CategoryModel.create(category.name(), percents.get(next++ % percents.size())));
+      }
+      categoryGroupsBuilder.add(builder.build());
+    }
+    final List<CategoryGroupModel> categoryGroups = categoryGroupsBuilder.build();
+    return new StockSolverStorage() {
+      @Override
+      public List<AccountModel> getAccounts() {
+        return storage.getAccounts();
+      }
+
+      @Override
+      public List<CategoryGroupModel> getCategoryGroups() {
+        return categoryGroups;
+      }
+    };
+  }
+
+  private static double expense(List<AccountModel> accounts) {
+    double expense = 0;
+    for (AccountModel account : accounts) {
+      for (StockHoldingModel holding : account.stocks()) {
+        expense += holding.currentHolding() * holding.stockModel().expenseRatio();
+      }
+    }
+    return expense;
+  }
+
+  private static OptimizationResult optimize(StockSolverStorage storage,
+      OptimizationOptions.SearchStrategy strategy, boolean presolve, boolean decompose) {
+    OptimizationOptions options = OptimizationOptions.newBuilder()
+        .setSeed(1)
+        .setSearchStrategy(strategy)
+        .setPresolve(presolve)
+        .setDecompose(decompose)
+        .build();
+    return new StockSolver(storage).optimizeWiggleRoomAdvanced(new SimplexBackend(), options);
+  }
+
+  private static void assertSameWithEveryReduction(StockSolverStorage storage) {
+    for (OptimizationOptions.SearchStrategy strategy : STRATEGIES) {
+      OptimizationResult expected = optimize(storage, strategy, true, true);
+      for (boolean presolve : new boolean[] {true, false}) {
+        for (boolean decompose : new boolean[] {true, false}) {
+          String message = strategy + " presolve " + presolve + " decompose " + decompose;
+          OptimizationResult actual = optimize(storage, strategy, presolve, decompose);
+          Map<String, Double> actualWiggles = actual.categoryWiggles();
+          assertEquals(message, expected.categoryWiggles().keySet(), actualWiggles.keySet());
+          for (Map.Entry<String, Double> wiggle : expected.categoryWiggles().entrySet()) {
+            assertEquals(message + " " + wiggle.getKey(), wiggle.getValue(),
+                actualWiggles.get(wiggle.getKey()), EPSILON);
+          }
+          assertEquals(message, expense(expected.accounts()), expense(actual.accounts()),
+              EPSILON);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void templateGivesTheSameResult() throws Exception {
+    XlsStockSolverStorage storage = new XlsStockSolverStorage("solverTemplate.xlsx");
+    storage.load();
+    assertSameWithEveryReduction(storage);
+  }
+
+  @Test
+  public void generatedPortfolioGivesTheSameResult() {
+    StockSolverStorage storage = shiftTargets(GeneratedStockSolverStorage.newBuilder()
+        .setAccounts(3).setFunds(9).setCategories(6).setCategoryGroups(2)
+        .setHoldingsPerAccount(2).setSeed(1).build());
+    PortfolioIndex index = PortfolioIndex.of(storage);
+    assertEquals(3, PortfolioComponent.split(index).size());
+    assertTrue(PresolvedHoldings.of(index).columnCount()
+        < PresolvedHoldings.of(index, false).columnCount());
+
+    assertSameWithEveryReduction(storage);
+  }
+}
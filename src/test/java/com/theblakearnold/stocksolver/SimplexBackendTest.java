@@ -0,0 +1,89 @@
+package com.theblakearnold.stocksolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNoException;
+
+import com.theblakearnold.stocksolver.lp.OrToolsBackend;
+import com.theblakearnold.stocksolver.lp.SimplexBackend;
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.storage.XlsStockSolverStorage;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Checks the simplex backend against OR-tools on the models of {@code solverTemplate.xlsx}.
+ * Skipped where the OR-tools native library can't be loaded.
+ */
+public class SimplexBackendTest {
+
+  private static final double EPSILON = 1e-6;
+
+  private static PortfolioIndex index;
+
+  private final SolverBackend simplex = new SimplexBackend();
+
+  @BeforeClass
+  public static void loadTemplate() throws Exception {
+    XlsStockSolverStorage storage = new XlsStockSolverStorage("solverTemplate.xlsx");
+    storage.load();
+    index = PortfolioIndex.of(storage);
+  }
+
+  private static SolverBackend orTools() {
+    try {
+      return new OrToolsBackend("CLP_LINEAR_PROGRAMMING");
+    } catch (LinkageError e) {
+      assumeNoException(e);
+      throw e;
+    }
+  }
+
+  @Test
+  public void minimaxMatchesBisection() {
+    double minimax = WiggleModel.compile(index, simplex).minimizeWiggle().get();
+    CompiledModel model = CompiledModel.compile(index, simplex);
+    double[] wiggles = new double[index.categoryCount()];
+    Arrays.fill(wiggles, minimax);
+    assertEquals(true, model.solve(wiggles, false).isPresent());
+    Arrays.fill(wiggles, minimax - .01);
+    assertEquals(false, model.solve(wiggles, false).isPresent());
+  }
+
+  @Test
+  public void overallWiggleMatchesOrTools() {
+    assertEquals(WiggleModel.compile(index, orTools()).minimizeWiggle().get(),
+        WiggleModel.compile(index, simplex).minimizeWiggle().get(), EPSILON);
+  }
+
+  @Test
+  public void minimumTotalWiggleMatchesOrTools() {
+    double overall = WiggleModel.compile(index, simplex).minimizeWiggle().get();
+    assertEquals(sum(CategoryWiggleModel.compile(index, orTools()).minimizeTotalWiggle(overall)
+            .get()),
+        sum(CategoryWiggleModel.compile(index, simplex).minimizeTotalWiggle(overall).get()),
+        EPSILON * index.categoryCount());
+  }
+
+  @Test
+  public void feasibilityMatchesOrTools() {
+    CompiledModel expected = CompiledModel.compile(index, orTools());
+    CompiledModel actual = CompiledModel.compile(index, simplex);
+    double[] wiggles = new double[index.categoryCount()];
+    for (double wiggle = .5; wiggle <= 20; wiggle += .5) {
+      Arrays.fill(wiggles, wiggle);
+      assertEquals("wiggle " + wiggle, expected.solve(wiggles, false).isPresent(),
+          actual.solve(wiggles, false).isPresent());
+    }
+  }
+
+  private static double sum(double[] values) {
+    double sum = 0;
+    for (double value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+}
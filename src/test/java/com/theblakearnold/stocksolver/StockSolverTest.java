@@ -0,0 +1,158 @@
+package com.theblakearnold.stocksolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import com.theblakearnold.stocksolver.lp.LinearSolver;
+import com.theblakearnold.stocksolver.lp.SimplexBackend;
+import com.theblakearnold.stocksolver.lp.SolverBackend;
+import com.theblakearnold.stocksolver.storage.XlsStockSolverStorage;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the permutation search on {@code solverTemplate.xlsx}.
+ */
+public class StockSolverTest {
+
+  private static XlsStockSolverStorage storage;
+
+  @BeforeClass
+  public static void loadTemplate() throws Exception {
+    storage = new XlsStockSolverStorage("solverTemplate.xlsx");
+    storage.load();
+  }
+
+  private static Map<String, Double> optimize(OptimizationOptions.CategoryWiggleMode mode,
+      int threads) {
+    return optimize(mode, threads, 42, 40);
+  }
+
+  private static Map<String, Double> optimize(OptimizationOptions.CategoryWiggleMode mode,
+      int threads, long seed, int permutations) {
+    OptimizationOptions options = OptimizationOptions.newBuilder()
+        .setCategoryWiggleMode(mode)
+        .setSeed(seed)
+        .setPermutations(permutations)
+        .setThreads(threads)
+        .build();
+    return new StockSolver(storage)
+        .optimizeWiggleRoomAdvanced(new SimplexBackend(), options)
+        .categoryWiggles();
+  }
+
+  @Test
+  public void exactResultDoesNotDependOnThreads() {
+    Map<String, Double> expected = optimize(OptimizationOptions.CategoryWiggleMode.EXACT, 1);
+    for (int run = 0; run < 3; run++) {
+      assertEquals(expected, optimize(OptimizationOptions.CategoryWiggleMode.EXACT, 4));
+    }
+  }
+
+  /**
+   * Each order re-solves one model many times, which once wore the basis inverse down until a
+   * feasible category read as infeasible.
+   */
+  @Test
+  public void exactIsAtLeastAsTightAsBisection() {
+    double optimizeTil = OptimizationOptions.newBuilder().build().optimizeTil();
+    double exact = average(optimize(OptimizationOptions.CategoryWiggleMode.EXACT, 1, 2, 100));
+    double bisection =
+        average(optimize(OptimizationOptions.CategoryWiggleMode.BISECTION, 1, 2, 100));
+    assertTrue(exact + " vs " + bisection, exact <= bisection + optimizeTil);
+  }
+
+  private static double average(Map<String, Double> categoryWiggles) {
+    double total = 0;
+    for (double wiggle : categoryWiggles.values()) {
+      total += wiggle;
+    }
+    return total / categoryWiggles.size();
+  }
+
+  /**
+   * Solves with the simplex, taking at least {@code millis} per solve.
+   */
+  private static SolverBackend slowBackend(final long millis) {
+    return new SolverBackend() {
+      @Override
+      public String name() {
+        return "slow";
+      }
+
+      @Override
+      public LinearSolver createSolver(String name) {
+        final LinearSolver solver = new SimplexBackend().createSolver(name);
+        return (LinearSolver) Proxy.newProxyInstance(LinearSolver.class.getClassLoader(),
+            new Class<?>[] {LinearSolver.class}, new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args)
+                  throws Throwable {
+                if (method.getName().equals("solve")) {
+                  Uninterruptibles.sleepUninterruptibly(millis, TimeUnit.MILLISECONDS);
+                }
+                try {
+                  return method.invoke(solver, args);
+                } catch (InvocationTargetException e) {
+                  throw e.getCause();
+                }
+              }
+            });
+      }
+    };
+  }
+
+  private static OptimizationResult optimizeWithBudget(OptimizationOptions.Builder options,
+      long timeBudgetMillis) {
+    return new StockSolver(storage).optimizeWiggleRoomAdvanced(slowBackend(5),
+        options.setTimeBudgetMillis(timeBudgetMillis).build());
+  }
+
+  @Test
+  public void lexicographicStopsRoundsWhenTheBudgetRunsOut() {
+    OptimizationOptions.Builder options = OptimizationOptions.newBuilder()
+        .setSearchStrategy(OptimizationOptions.SearchStrategy.LEXICOGRAPHIC);
+    OptimizationResult unbudgeted = optimizeWithBudget(options, 0);
+    assertTrue(unbudgeted.complete());
+    // Several rounds, or the budget has nothing to cut.
+    assertTrue(ImmutableSet.copyOf(unbudgeted.categoryWiggles().values()).size() > 1);
+
+    OptimizationResult budgeted = optimizeWithBudget(options, 1);
+    assertFalse(budgeted.complete());
+    // Only the first round ran, fixing every category at its wiggle.
+    assertEquals(1, ImmutableSet.copyOf(budgeted.categoryWiggles().values()).size());
+    assertTrue(average(unbudgeted.categoryWiggles())
+        <= average(budgeted.categoryWiggles()));
+  }
+
+  @Test
+  public void minimumAverageIsSkippedWhenTheBudgetRunsOut() {
+    OptimizationOptions.Builder options = OptimizationOptions.newBuilder()
+        .setOverallWiggleMode(OptimizationOptions.OverallWiggleMode.MINIMAX)
+        .setSearchStrategy(OptimizationOptions.SearchStrategy.MINIMUM_AVERAGE);
+    assertTrue(optimizeWithBudget(options, 0).complete());
+
+    OptimizationResult budgeted = optimizeWithBudget(options, 1);
+    assertFalse(budgeted.complete());
+    assertEquals(1, ImmutableSet.copyOf(budgeted.categoryWiggles().values()).size());
+  }
+
+  @Test
+  public void bisectionResultDoesNotDependOnThreads() {
+    Map<String, Double> expected =
+        optimize(OptimizationOptions.CategoryWiggleMode.BISECTION, 1);
+    assertEquals(expected, optimize(OptimizationOptions.CategoryWiggleMode.BISECTION, 4));
+  }
+}
@@ -0,0 +1,57 @@
+package com.theblakearnold.stocksolver.lp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+/**
+ * Checks that the statistics of a {@link RacingBackend} survive a save and load.
+ */
+public class BackendStatisticsTest {
+
+  @Rule
+  public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static RacingBackend racingBackend() {
+    return new RacingBackend(
+        ImmutableList.<SolverBackend>of(new SimplexBackend(), new SimplexBackend()));
+  }
+
+  @Test
+  public void loadsTheSavedStatistics() {
+    RacingBackend backend = racingBackend();
+    LinearSolver solver = backend.createSolver("test");
+    int x = solver.addVariable(1, 2, "x");
+    solver.setObjectiveCoefficient(x, 1);
+    for (int i = 0; i < BackendStatistics.MIN_RACES; i++) {
+      assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    }
+    assertNotEquals("{}", backend.statistics());
+    File file = new File(temporaryFolder.getRoot(), "races");
+    backend.saveStatistics(file);
+
+    RacingBackend loaded = racingBackend();
+    loaded.loadStatistics(file);
+    assertEquals(backend.statistics(), loaded.statistics());
+  }
+
+  @Test
+  public void startsOverWithoutReadableStatistics() throws Exception {
+    RacingBackend backend = racingBackend();
+    backend.loadStatistics(new File(temporaryFolder.getRoot(), "missing"));
+    assertEquals("{}", backend.statistics());
+
+    File file = temporaryFolder.newFile("garbage");
+    Files.write(new byte[] {1, 2, 3}, file);
+    backend.loadStatistics(file);
+    assertEquals("{}", backend.statistics());
+  }
+}
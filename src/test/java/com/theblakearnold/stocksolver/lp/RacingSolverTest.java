@@ -0,0 +1,261 @@
+package com.theblakearnold.stocksolver.lp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Races stub backends that fail, give up or stall, solving {@code min x, 1 <= x <= 2}.
+ */
+public class RacingSolverTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void shutDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Solves with a {@link SimplexSolver}; subclasses override {@link #solve} to misbehave.
+   */
+  private static class StubSolver implements LinearSolver {
+    private final SimplexSolver solver = new SimplexSolver();
+    private int solves;
+
+    /**
+     * Counts the solve, then calls {@link #solve(int)} with the count so far.
+     */
+    @Override
+    public final ResultStatus solve() {
+      return solve(++solves);
+    }
+
+    ResultStatus solve(int solves) {
+      return solver.solve();
+    }
+
+    @Override
+    public int addVariable(double lb, double ub, String name) {
+      return solver.addVariable(lb, ub, name);
+    }
+
+    @Override
+    public int addConstraint(double lb, double ub) {
+      return solver.addConstraint(lb, ub);
+    }
+
+    @Override
+    public void setCoefficient(int constraint, int variable, double coefficient) {
+      solver.setCoefficient(constraint, variable, coefficient);
+    }
+
+    @Override
+    public void setObjectiveCoefficient(int variable, double coefficient) {
+      solver.setObjectiveCoefficient(variable, coefficient);
+    }
+
+    @Override
+    public void setVariableBounds(int variable, double lb, double ub) {
+      solver.setVariableBounds(variable, lb, ub);
+    }
+
+    @Override
+    public void setConstraintBounds(int constraint, double lb, double ub) {
+      solver.setConstraintBounds(constraint, lb, ub);
+    }
+
+    @Override
+    public int numVariables() {
+      return solver.numVariables();
+    }
+
+    @Override
+    public int numConstraints() {
+      return solver.numConstraints();
+    }
+
+    @Override
+    public double value(int variable) {
+      return solver.value(variable);
+    }
+
+    @Override
+    public double objectiveValue() {
+      return solver.objectiveValue();
+    }
+
+    @Override
+    public double dualValue(int constraint) {
+      return solver.dualValue(constraint);
+    }
+
+    @Override
+    public BasisStatus basisStatus(int constraint) {
+      return solver.basisStatus(constraint);
+    }
+
+    @Override
+    public long wallTime() {
+      return solver.wallTime();
+    }
+
+    @Override
+    public long iterations() {
+      return solver.iterations();
+    }
+  }
+
+  /**
+   * A solver whose first solve runs for {@code millis} whether interrupted or not, like a
+   * native solver.
+   */
+  private static StubSolver stallingFirst(final long millis) {
+    return new StubSolver() {
+      @Override
+      ResultStatus solve(int solves) {
+        if (solves == 1) {
+          Uninterruptibles.sleepUninterruptibly(millis, TimeUnit.MILLISECONDS);
+        }
+        return super.solve(solves);
+      }
+    };
+  }
+
+  private static StubSolver failing() {
+    return new StubSolver() {
+      @Override
+      ResultStatus solve(int solves) {
+        throw new IllegalStateException("broken");
+      }
+    };
+  }
+
+  private static StubSolver givingUp() {
+    return new StubSolver() {
+      @Override
+      ResultStatus solve(int solves) {
+        return ResultStatus.NOT_SOLVED;
+      }
+    };
+  }
+
+  /**
+   * Races the stubs on {@code min x, 1 <= x <= 2}.
+   */
+  private RacingSolver race(StubSolver... stubs) {
+    return race(new BackendStatistics(), stubs);
+  }
+
+  /**
+   * Races the stubs, the first of which has won every race so far, so it solves alone.
+   */
+  private RacingSolver dominatedBy(StubSolver... stubs) {
+    BackendStatistics statistics = new BackendStatistics();
+    for (int i = 0; i < BackendStatistics.MIN_RACES; i++) {
+      statistics.recordRace(1, 0, "stub0", 0);
+    }
+    return race(statistics, stubs);
+  }
+
+  private RacingSolver race(BackendStatistics statistics, StubSolver... stubs) {
+    List<SolverBackend> backends = new ArrayList<>();
+    for (int i = 0; i < stubs.length; i++) {
+      final String name = "stub" + i;
+      final StubSolver stub = stubs[i];
+      backends.add(new SolverBackend() {
+        @Override
+        public String name() {
+          return name;
+        }
+
+        @Override
+        public LinearSolver createSolver(String solverName) {
+          return stub;
+        }
+      });
+    }
+    RacingSolver solver = new RacingSolver("test", backends, statistics, executor);
+    int x = solver.addVariable(1, 2, "x");
+    solver.setObjectiveCoefficient(x, 1);
+    return solver;
+  }
+
+  @Test
+  public void answersWithTheBackendThatSolves() {
+    RacingSolver solver = race(failing(), givingUp(), new StubSolver());
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(1, solver.value(0), 0);
+  }
+
+  @Test
+  public void racesTheOthersWhenTheDominantBackendFails() {
+    RacingSolver solver = dominatedBy(failing(), givingUp(), new StubSolver());
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(1, solver.value(0), 0);
+  }
+
+  @Test
+  public void racesTheOthersWhenTheDominantBackendGivesUp() {
+    RacingSolver solver = dominatedBy(givingUp(), new StubSolver());
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(1, solver.value(0), 0);
+  }
+
+  @Test
+  public void readsTheBasisOfTheWinner() {
+    RacingSolver solver = race(failing(), new StubSolver());
+    int constraint = solver.addConstraint(1.5, 5);
+    solver.setCoefficient(constraint, 0, 1);
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(LinearSolver.BasisStatus.AT_LOWER_BOUND, solver.basisStatus(constraint));
+  }
+
+  @Test
+  public void throwsWhenEveryBackendFails() {
+    RacingSolver solver = race(failing(), failing());
+    try {
+      solver.solve();
+      fail();
+    } catch (SolverFailedException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test(expected = SolverFailedException.class)
+  public void throwsWhenNoBackendSolves() {
+    race(givingUp(), givingUp()).solve();
+  }
+
+  @Test
+  public void waitsForWhicheverBackendIsIdleFirst() {
+    RacingSolver solver = race(stallingFirst(5000), stallingFirst(200));
+    final Thread caller = Thread.currentThread();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+        caller.interrupt();
+      }
+    });
+    // Interrupted while both backends are stalled, so both are still busy afterwards.
+    assertEquals(LinearSolver.ResultStatus.NOT_SOLVED, solver.solve());
+    assertTrue(Thread.interrupted());
+
+    long start = System.nanoTime();
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("waited " + millis + " ms", millis < 2500);
+  }
+}
@@ -0,0 +1,158 @@
+package com.theblakearnold.stocksolver.lp;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Small linear programs with known optima, including degenerate, infeasible and unbounded ones.
+ */
+public class SimplexSolverTest {
+
+  private static final double INF = Double.POSITIVE_INFINITY;
+  private static final double EPSILON = 1e-7;
+
+  private final SimplexSolver solver = new SimplexSolver();
+
+  /**
+   * Adds {@code lb <= sum(coefficients[i] * x_i) <= ub}.
+   */
+  private int constraint(double lb, double ub, double... coefficients) {
+    int constraint = solver.addConstraint(lb, ub);
+    for (int variable = 0; variable < coefficients.length; variable++) {
+      if (coefficients[variable] != 0) {
+        solver.setCoefficient(constraint, variable, coefficients[variable]);
+      }
+    }
+    return constraint;
+  }
+
+  @Test
+  public void solvesTwoVariableProblem() {
+    // min -x - y  s.t.  x + 2y <= 4, 3x + y <= 6, x, y >= 0.
+    int x = solver.addVariable(0, INF, "x");
+    int y = solver.addVariable(0, INF, "y");
+    solver.setObjectiveCoefficient(x, -1);
+    solver.setObjectiveCoefficient(y, -1);
+    int first = constraint(-INF, 4, 1, 2);
+    constraint(-INF, 6, 3, 1);
+
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(1.6, solver.value(x), EPSILON);
+    assertEquals(1.2, solver.value(y), EPSILON);
+    assertEquals(-2.8, solver.objectiveValue(), EPSILON);
+    assertEquals(-.4, solver.dualValue(first), EPSILON);
+    assertEquals(LinearSolver.BasisStatus.AT_UPPER_BOUND, solver.basisStatus(first));
+  }
+
+  @Test
+  public void solvesEqualityWithFreeVariable() {
+    // min x + y  s.t.  x - y = 1, x free, y >= 0.
+    int x = solver.addVariable(-INF, INF, "x");
+    int y = solver.addVariable(0, INF, "y");
+    solver.setObjectiveCoefficient(x, 1);
+    solver.setObjectiveCoefficient(y, 1);
+    int equality = constraint(1, 1, 1, -1);
+
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(1, solver.value(x), EPSILON);
+    assertEquals(0, solver.value(y), EPSILON);
+    assertEquals(LinearSolver.BasisStatus.FIXED_VALUE, solver.basisStatus(equality));
+  }
+
+  @Test
+  public void solvesDegenerateVertex() {
+    // min -2x - y  s.t.  x + y <= 1, x <= 1, x - y <= 1, x, y >= 0. Three rows meet at (1, 0).
+    int x = solver.addVariable(0, INF, "x");
+    int y = solver.addVariable(0, INF, "y");
+    solver.setObjectiveCoefficient(x, -2);
+    solver.setObjectiveCoefficient(y, -1);
+    constraint(-INF, 1, 1, 1);
+    constraint(-INF, 1, 1, 0);
+    constraint(-INF, 1, 1, -1);
+
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(1, solver.value(x), EPSILON);
+    assertEquals(0, solver.value(y), EPSILON);
+    assertEquals(-2, solver.objectiveValue(), EPSILON);
+  }
+
+  @Test
+  public void doesNotCycleOnBealesExample() {
+    // Beale's example, which cycles under Dantzig's rule without an anti-cycling rule.
+    int[] x = new int[4];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = solver.addVariable(0, INF, "x" + i);
+    }
+    solver.setObjectiveCoefficient(x[0], -.75);
+    solver.setObjectiveCoefficient(x[1], 20);
+    solver.setObjectiveCoefficient(x[2], -.5);
+    solver.setObjectiveCoefficient(x[3], 6);
+    constraint(-INF, 0, .25, -8, -1, 9);
+    constraint(-INF, 0, .5, -12, -.5, 3);
+    constraint(-INF, 1, 0, 0, 1, 0);
+
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(-1.25, solver.objectiveValue(), EPSILON);
+  }
+
+  @Test
+  public void reportsInfeasible() {
+    // x + y >= 5 with x, y in [0, 1].
+    solver.addVariable(0, 1, "x");
+    solver.addVariable(0, 1, "y");
+    constraint(5, INF, 1, 1);
+
+    assertEquals(LinearSolver.ResultStatus.INFEASIBLE, solver.solve());
+  }
+
+  @Test
+  public void reportsUnbounded() {
+    // min -x  s.t.  x - y <= 1, x, y >= 0.
+    int x = solver.addVariable(0, INF, "x");
+    solver.addVariable(0, INF, "y");
+    solver.setObjectiveCoefficient(x, -1);
+    constraint(-INF, 1, 1, -1);
+
+    assertEquals(LinearSolver.ResultStatus.UNBOUNDED, solver.solve());
+  }
+
+  @Test
+  public void resolvesAfterBoundsChange() {
+    int x = solver.addVariable(0, INF, "x");
+    int y = solver.addVariable(0, INF, "y");
+    solver.setObjectiveCoefficient(x, 1);
+    solver.setObjectiveCoefficient(y, 2);
+    int sum = constraint(3, INF, 1, 1);
+    int cap = constraint(-INF, 2, 1, 0);
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(4, solver.objectiveValue(), EPSILON);
+
+    solver.setConstraintBounds(cap, -INF, 1);
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(5, solver.objectiveValue(), EPSILON);
+
+    solver.setVariableBounds(y, 0, 1);
+    assertEquals(LinearSolver.ResultStatus.INFEASIBLE, solver.solve());
+
+    solver.setConstraintBounds(sum, 2, INF);
+    assertEquals(LinearSolver.ResultStatus.OPTIMAL, solver.solve());
+    assertEquals(3, solver.objectiveValue(), EPSILON);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void basisStatusBeforeSolveFails() {
+    solver.addVariable(0, 1, "x");
+    constraint(0, 1, 1);
+    solver.basisStatus(0);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void valueAfterAddingVariableFails() {
+    solver.addVariable(0, 1, "x");
+    constraint(0, 1, 1);
+    solver.solve();
+    solver.addVariable(0, 1, "y");
+    solver.value(0);
+  }
+}
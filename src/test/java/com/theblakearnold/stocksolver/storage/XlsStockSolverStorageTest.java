@@ -0,0 +1,127 @@
+package com.theblakearnold.stocksolver.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import com.theblakearnold.stocksolver.model.AccountModel;
+import com.theblakearnold.stocksolver.model.CategoryGroupModel;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Checks that the streaming reader produces the same models as the DOM reader, and that reloads
+ * keep the loaded models when they fail.
+ */
+public class XlsStockSolverStorageTest {
+
+  @Test
+  public void streamingMatchesDomOnTemplate() throws Exception {
+    assertReadersAgree(new File("solverTemplate.xlsx"));
+  }
+
+  /**
+   * Google Sheets tags every cached formula result as text, so the streaming reader reads text
+   * that parses as a number as that number. The DOM reader evaluates formulas instead.
+   */
+  @Test
+  public void streamingReadsTextFormulaResultsAsNumbers() throws Exception {
+    File file = File.createTempFile("text-formulas", ".xlsx");
+    try {
+      GeneratedStockSolverStorage.newBuilder().setAccounts(3).setFunds(8).setCategories(5)
+          .setCategoryGroups(2).setHoldingsPerAccount(4).setSeed(1).build().writeWorkbook(file);
+      XlsStockSolverStorage numbers = new XlsStockSolverStorage(file.getPath());
+      numbers.load();
+      XSSFWorkbook workbook;
+      try (InputStream in = new FileInputStream(file)) {
+        workbook = new XSSFWorkbook(in);
+      }
+      // Turn every stock allocation into a formula whose result is text.
+      FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+      Sheet stocks = workbook.getSheet(XlsStockSolverStorage.STOCKS_SHEET_NAME);
+      for (Row row : stocks) {
+        for (Cell cell : row) {
+          if (row.getRowNum() > 0 && cell.getColumnIndex() > 1
+              && cell.getCellType() == Cell.CELL_TYPE_NUMERIC) {
+            cell.setCellFormula(
+                "\"\"&" + BigDecimal.valueOf(cell.getNumericCellValue()).toPlainString());
+            evaluator.evaluateFormulaCell(cell);
+          }
+        }
+      }
+      try (OutputStream out = new FileOutputStream(file)) {
+        workbook.write(out);
+      }
+      XlsStockSolverStorage textFormulas = new XlsStockSolverStorage(file.getPath());
+      textFormulas.loadStreaming();
+      assertEquals(numbers.getCategoryGroups(), textFormulas.getCategoryGroups());
+      assertEquals(numbers.getAccounts(), textFormulas.getAccounts());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void failedReloadKeepsLoadedModels() throws Exception {
+    File file = File.createTempFile("reload", ".xlsx");
+    try {
+      GeneratedStockSolverStorage.Builder generated = GeneratedStockSolverStorage.newBuilder()
+          .setAccounts(3).setFunds(8).setCategories(5).setCategoryGroups(2)
+          .setHoldingsPerAccount(4);
+      generated.setSeed(1).build().writeWorkbook(file);
+      XlsStockSolverStorage storage = new XlsStockSolverStorage(file.getPath());
+      storage.reload();
+      List<AccountModel> accounts = storage.getAccounts();
+      List<CategoryGroupModel> categoryGroups = storage.getCategoryGroups();
+
+      // New stocks and allocations, and holdings that no longer parse.
+      GeneratedStockSolverStorage changed = generated.setSeed(2).build();
+      assertNotEquals(categoryGroups, changed.getCategoryGroups());
+      changed.writeWorkbook(file);
+      XSSFWorkbook workbook;
+      try (InputStream in = new FileInputStream(file)) {
+        workbook = new XSSFWorkbook(in);
+      }
+      workbook.getSheet(XlsStockSolverStorage.HOLDINGS_SHEET_NAME).getRow(1).getCell(1)
+          .setCellValue(5);
+      try (OutputStream out = new FileOutputStream(file)) {
+        workbook.write(out);
+      }
+      for (int attempt = 0; attempt < 2; attempt++) {
+        try {
+          storage.reload();
+          fail("Expected the holdings to fail to parse");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(accounts, storage.getAccounts());
+        assertEquals(categoryGroups, storage.getCategoryGroups());
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static void assertReadersAgree(File file) throws Exception {
+    XlsStockSolverStorage dom = new XlsStockSolverStorage(file.getPath());
+    dom.load();
+    XlsStockSolverStorage streaming = new XlsStockSolverStorage(file.getPath());
+    streaming.loadStreaming();
+    assertFalse(dom.getAccounts().isEmpty());
+    assertEquals(dom.getCategoryGroups(), streaming.getCategoryGroups());
+    assertEquals(dom.getAccounts(), streaming.getAccounts());
+  }
+}